@@ -13,9 +13,11 @@ CREATE TABLE blocks (
     metadata_id INTEGER NOT NULL,
     user_id INTEGER NOT NULL,
     sequence_id INTEGER NOT NULL,
+    byte_offset INTEGER NOT NULL DEFAULT 0,
     size INTEGER NOT NULL,
     fingerprint TEXT NOT NULL,
     checksum TEXT NOT NULL,
+    content_hash TEXT NOT NULL,
     FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
     FOREIGN KEY (metadata_id) REFERENCES metadata(id) ON DELETE CASCADE,
     UNIQUE(user_id, metadata_id, sequence_id)
@@ -23,6 +25,8 @@ CREATE TABLE blocks (
 
 CREATE INDEX idx_blocks_metadata_sequence ON blocks(metadata_id, sequence_id);
 
+CREATE INDEX idx_blocks_content_hash ON blocks(content_hash);
+
 CREATE TABLE users (
     id INTEGER PRIMARY KEY AUTOINCREMENT,
     username TEXT NOT NULL UNIQUE,
@@ -35,6 +39,8 @@ CREATE TABLE metadata (
     owner_id INTEGER NOT NULL,
     path TEXT NOT NULL UNIQUE,
     block_count INTEGER NOT NULL,
+    block_size INTEGER NOT NULL DEFAULT 1024,
+    chunking TEXT NOT NULL DEFAULT 'FIXED',
     created_at TEXT NOT NULL DEFAULT (datetime('now')),
     FOREIGN KEY (owner_id) REFERENCES users(id) ON DELETE CASCADE,
     UNIQUE(owner_id, filename)
@@ -0,0 +1,99 @@
+package app.apollo.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import app.apollo.common.Block;
+import app.apollo.common.BlockCodec;
+import app.apollo.common.ChunkingMode;
+import app.apollo.server.DataBlockValidator;
+
+/**
+ * Measures the per-block work of an upload on the server: validating a
+ * received block and the Java serialization RMI uses to move it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockBenchmark {
+
+    @Param({ "1024", "65536" })
+    public int blockSize;
+
+    @Param({ "RAW", "DEFLATE" })
+    public BlockCodec codec;
+
+    private final DataBlockValidator validator = new DataBlockValidator();
+
+    private Block block;
+
+    private byte[] serialized;
+
+    /**
+     * Builds a valid block and its serialized form.
+     *
+     * @throws IOException If the block cannot be serialized.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        block = Blocks.create(7, blockSize, codec);
+        serialized = serialize();
+
+        if (!validator.isBlockValid(block, blockSize, ChunkingMode.FIXED)) {
+            throw new IllegalStateException("Benchmark block is not valid.");
+        }
+    }
+
+    /** @return the validation result */
+    @Benchmark
+    public boolean validate() {
+        return validator.isBlockValid(block, blockSize, ChunkingMode.FIXED);
+    }
+
+    /**
+     * @return the serialized block
+     * @throws IOException If the block cannot be serialized.
+     */
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(blockSize + 512);
+
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(block);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the deserialized block
+     * @throws IOException            If the block cannot be read.
+     * @throws ClassNotFoundException If the block class is missing.
+     */
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return input.readObject();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package app.apollo.bench;
+
+import java.util.Random;
+
+import app.apollo.common.Block;
+import app.apollo.common.BlockCodec;
+import app.apollo.common.CrypticEngine;
+
+/**
+ * Builds blocks as a client would send them.
+ */
+final class Blocks {
+
+    private Blocks() {
+    }
+
+    /**
+     * Creates a valid block of compressible data.
+     *
+     * @param sequenceNumber Position of the block in its file.
+     * @param size           Number of data bytes.
+     * @param codec          Encoding of the data.
+     * @return Block with hashes matching its data.
+     */
+    static Block create(long sequenceNumber, int size, BlockCodec codec) {
+        byte[] data = new byte[size];
+        Random random = new Random(sequenceNumber);
+
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+
+        String fingerprint = CrypticEngine.weakHash(data, size);
+
+        Block block = new Block();
+        block.setUserId(1);
+        block.setMetadataId(1);
+        block.setSequenceNumber(sequenceNumber);
+        block.setOffset(sequenceNumber * size);
+        block.setSize(size);
+        block.setFingerprint(fingerprint);
+        block.setChecksum(CrypticEngine.strongHash(fingerprint, data, size));
+        block.setContentHash(CrypticEngine.contentHash(data, size));
+        block.setCodec(codec);
+        block.setData(codec == BlockCodec.DEFLATE ? BlockCodec.deflate(data) : data);
+
+        return block;
+    }
+}
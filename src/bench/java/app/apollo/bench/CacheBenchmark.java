@@ -0,0 +1,173 @@
+package app.apollo.bench;
+
+import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import app.apollo.server.Cache;
+import app.apollo.server.LRUCache;
+import app.apollo.server.TinyLfuCache;
+
+/**
+ * Measures cache lookups and insertions while several threads share one
+ * cache.
+ * <p>
+ * Keys follow a skewed distribution so that a small hot set receives most of
+ * the requests, as block and metadata lookups do. {@link LRUCache} is not
+ * thread-safe and is measured behind a lock, which is how it has to be used
+ * when shared.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheBenchmark {
+
+    /** Number of precomputed keys; a power of two */
+    private static final int KEY_COUNT = 1 << 16;
+
+    @Param({ "lru", "tinylfu" })
+    public String implementation;
+
+    @Param({ "1000" })
+    public int capacity;
+
+    private Cache<String, String> cache;
+
+    private String[] keys;
+
+    /** Builds the cache and fills it with the keys that are requested most. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        cache = "lru".equals(implementation) ? new SynchronizedCache<>(new LRUCache<>(capacity))
+                : new TinyLfuCache<>(capacity);
+
+        Random random = new Random(42);
+        keys = new String[KEY_COUNT];
+
+        for (int i = 0; i < KEY_COUNT; i++) {
+            double uniform = random.nextDouble();
+            keys[i] = "key-" + (int) (capacity * 4 * uniform * uniform * uniform);
+        }
+
+        for (int i = 0; i < capacity; i++) {
+            cache.put("key-" + i, "value-" + i);
+        }
+    }
+
+    private String nextKey() {
+        return keys[ThreadLocalRandom.current().nextInt(KEY_COUNT)];
+    }
+
+    /**
+     * Reads with all threads.
+     *
+     * @return the looked up entry
+     */
+    @Benchmark
+    @Threads(4)
+    public Optional<String> get() {
+        return cache.get(nextKey());
+    }
+
+    /**
+     * Writes with all threads.
+     */
+    @Benchmark
+    @Threads(4)
+    public void put() {
+        String key = nextKey();
+        cache.put(key, key);
+    }
+
+    /**
+     * Reads with three threads while a fourth writes.
+     *
+     * @param blackhole Sink for the looked up entry.
+     */
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public void mixedGet(Blackhole blackhole) {
+        blackhole.consume(cache.get(nextKey()));
+    }
+
+    /**
+     * Writes while other threads read.
+     */
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedPut() {
+        String key = nextKey();
+        cache.put(key, key);
+    }
+
+    /** Cache whose every operation holds the lock of the wrapper. */
+    private static final class SynchronizedCache<K, V> implements Cache<K, V> {
+        private final Cache<K, V> delegate;
+
+        private SynchronizedCache(Cache<K, V> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void put(K key, V value) {
+            delegate.put(key, value);
+        }
+
+        @Override
+        public synchronized Optional<V> get(K key) {
+            return delegate.get(key);
+        }
+
+        @Override
+        public synchronized void remove(K key) {
+            delegate.remove(key);
+        }
+
+        @Override
+        public synchronized boolean isEmpty() {
+            return delegate.isEmpty();
+        }
+
+        @Override
+        public synchronized Set<Entry<K, V>> entrySet() {
+            return delegate.entrySet();
+        }
+
+        @Override
+        public synchronized Collection<V> values() {
+            return delegate.values();
+        }
+
+        @Override
+        public synchronized void clear() {
+            delegate.clear();
+        }
+    }
+}
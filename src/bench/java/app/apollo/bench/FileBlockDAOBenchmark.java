@@ -0,0 +1,164 @@
+package app.apollo.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import app.apollo.common.Block;
+import app.apollo.common.BlockCodec;
+import app.apollo.server.DBFileBlockDAO;
+import app.apollo.server.SQLiteConnectionPool;
+import app.apollo.server.SQLitePoolConfig;
+
+/**
+ * Measures block row inserts and lookups against a temporary SQLite database
+ * created from {@code schema/schema.sql}, which is resolved against the
+ * working directory.
+ * <p>
+ * The table is prefilled with far more rows than the DAO caches, so random
+ * lookups mostly reach the database, while lookups of a few rows are served
+ * from the cache.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileBlockDAOBenchmark {
+
+    /** Rows present before the measurement */
+    private static final int PREFILLED_ROWS = 20_000;
+
+    /** Rows looked up by the cached lookup benchmark */
+    private static final int HOT_ROWS = 32;
+
+    private static final int BLOCK_SIZE = 1024;
+
+    private Path database;
+
+    private SQLiteConnectionPool connections;
+
+    private DBFileBlockDAO dao;
+
+    private Block template;
+
+    /** Next sequence number handed to an inserted block */
+    private final AtomicLong nextSequence = new AtomicLong(PREFILLED_ROWS);
+
+    /**
+     * Creates the database and prefills the block table.
+     *
+     * @throws IOException  If the schema cannot be read or the database file
+     *                      cannot be created.
+     * @throws SQLException If the schema cannot be applied.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        database = Files.createTempFile("mneme-bench", ".db");
+        connections = new SQLiteConnectionPool("jdbc:sqlite:" + database, new SQLitePoolConfig());
+
+        String schema = new String(Files.readAllBytes(Paths.get("schema", "schema.sql")), StandardCharsets.UTF_8);
+
+        try (Connection connection = connections.getWriter(); Statement statement = connection.createStatement()) {
+            for (String sql : schema.split(";")) {
+                if (!sql.trim().isEmpty()) {
+                    statement.executeUpdate(sql);
+                }
+            }
+        }
+
+        dao = new DBFileBlockDAO(connections);
+        template = Blocks.create(0, BLOCK_SIZE, BlockCodec.RAW);
+
+        List<Block> blocks = new ArrayList<>();
+
+        for (long sequence = 0; sequence < PREFILLED_ROWS; sequence++) {
+            blocks.add(copy(sequence));
+        }
+
+        if (!dao.insertAll(blocks)) {
+            throw new IllegalStateException("Benchmark rows could not be inserted.");
+        }
+    }
+
+    /**
+     * Closes the pool and deletes the database.
+     *
+     * @throws IOException  If the database files cannot be deleted.
+     * @throws SQLException If the pool cannot be closed.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, SQLException {
+        connections.close();
+        Files.deleteIfExists(database);
+        Files.deleteIfExists(Paths.get(database + "-wal"));
+        Files.deleteIfExists(Paths.get(database + "-shm"));
+    }
+
+    private Block copy(long sequence) {
+        Block block = new Block();
+        block.setUserId(template.getUserId());
+        block.setMetadataId(template.getMetadataId());
+        block.setSequenceNumber(sequence);
+        block.setOffset(sequence * BLOCK_SIZE);
+        block.setSize(template.getSize());
+        block.setFingerprint(template.getFingerprint());
+        block.setChecksum(template.getChecksum());
+        block.setContentHash(template.getContentHash());
+        return block;
+    }
+
+    /** @return whether the new row was stored */
+    @Benchmark
+    @Threads(1)
+    public boolean insert() {
+        return dao.insert(copy(nextSequence.getAndIncrement()));
+    }
+
+    /** @return whether the new row was stored */
+    @Benchmark
+    @Threads(4)
+    public boolean insertContended() {
+        return dao.insert(copy(nextSequence.getAndIncrement()));
+    }
+
+    /** @return a row read from the database or the cache */
+    @Benchmark
+    @Threads(4)
+    public Block findRandom() {
+        return dao.findByUserFilenameAndBlock(1, 1, (long) ThreadLocalRandom.current().nextInt(PREFILLED_ROWS));
+    }
+
+    /** @return a row that stays cached */
+    @Benchmark
+    @Threads(4)
+    public Block findHot() {
+        return dao.findByUserFilenameAndBlock(1, 1, (long) ThreadLocalRandom.current().nextInt(HOT_ROWS));
+    }
+}
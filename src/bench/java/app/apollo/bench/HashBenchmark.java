@@ -0,0 +1,65 @@
+package app.apollo.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import app.apollo.common.CrypticEngine;
+
+/**
+ * Measures the block hashes computed by clients for every block and by the
+ * server for every validated block.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+
+    @Param({ "1024", "65536" })
+    public int blockSize;
+
+    private byte[] data;
+
+    private String fingerprint;
+
+    /** Fills a block with random bytes. */
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = new byte[blockSize];
+        new Random(42).nextBytes(data);
+        fingerprint = CrypticEngine.weakHash(data, data.length);
+    }
+
+    /** @return the fingerprint of the block */
+    @Benchmark
+    public String weakHash() {
+        return CrypticEngine.weakHash(data, data.length);
+    }
+
+    /** @return the checksum of the block */
+    @Benchmark
+    public String strongHash() {
+        return CrypticEngine.strongHash(fingerprint, data, data.length);
+    }
+
+    /** @return the storage key of the block */
+    @Benchmark
+    public String contentHash() {
+        return CrypticEngine.contentHash(data, data.length);
+    }
+}
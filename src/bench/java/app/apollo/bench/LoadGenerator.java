@@ -0,0 +1,442 @@
+package app.apollo.bench;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import app.apollo.common.AuthService;
+import app.apollo.common.Block;
+import app.apollo.common.CrypticEngine;
+import app.apollo.common.FileService;
+import app.apollo.server.AuthProvider;
+import app.apollo.server.AuthProviderManager;
+import app.apollo.server.BlockStore;
+import app.apollo.server.CacheRegistry;
+import app.apollo.server.ContentAddressedBlockStore;
+import app.apollo.server.FileProvider;
+import app.apollo.server.FileProviderManager;
+import app.apollo.server.LatencyHistogram;
+import app.apollo.server.MetricsReporter;
+import app.apollo.server.SQLiteDAOFactory;
+import app.apollo.server.SQLitePoolConfig;
+import app.apollo.server.SegmentBlockStore;
+import app.apollo.server.TimedBlockStore;
+import app.apollo.server.Tracer;
+
+/**
+ * Drives an in-process server over RMI with many concurrent clients and
+ * reports throughput and latency percentiles per remote call.
+ * <p>
+ * The server is assembled as {@link app.apollo.server.App} does, but on a
+ * free port with its database and block storage in a temporary directory.
+ * Every client is a thread with its own RMI stubs, so calls take the full
+ * path through serialization, the loopback network, {@link FileProvider},
+ * {@link FileProviderManager} and the DAOs. Clients share the sessions of a
+ * configurable number of users, upload a few files of their own and then
+ * call the server in a closed loop, choosing every call from a weighted mix.
+ * </p>
+ * <p>
+ * Options are given as {@code --name=value}:
+ * </p>
+ * <ul>
+ * <li>{@code clients} concurrent clients, default 100</li>
+ * <li>{@code users} registered users shared by the clients, default 10</li>
+ * <li>{@code files} files uploaded by every client, default 4</li>
+ * <li>{@code blocks} blocks per file, default 16</li>
+ * <li>{@code block-size} bytes per block, default 4096</li>
+ * <li>{@code warmup} seconds before measuring, default 10</li>
+ * <li>{@code duration} seconds measured, default 30</li>
+ * <li>{@code think} milliseconds a client pauses between calls, default 0</li>
+ * <li>{@code mix} relative weights of the calls, default
+ * {@value #DEFAULT_MIX}</li>
+ * <li>{@code store} block store, {@code cas} or {@code segments}, default
+ * {@code cas}</li>
+ * <li>{@code schema} database schema, default {@code schema/schema.sql}</li>
+ * <li>{@code keep} {@code true} to keep the temporary directory, default
+ * {@code false}</li>
+ * <li>{@code trace} share of calls traced by the server, default 0; traces
+ * of at least {@code trace-min-ms} milliseconds, default 100, are printed
+ * after the report</li>
+ * </ul>
+ * <p>
+ * Latencies are measured from the start of a call, so with think time 0 a
+ * slow call delays the next one of its client; the reported percentiles
+ * describe what clients saw, not what an open arrival rate would see.
+ * </p>
+ */
+public final class LoadGenerator {
+
+    /** Weights of the calls made when no mix is given */
+    static final String DEFAULT_MIX = "upload=10,download=30,downloadBlock=15,checksums=20,list=15,validate=10";
+
+    private static final String PASSWORD = "load-test";
+
+    /** Remote call made by a client. */
+    private enum Operation {
+        UPLOAD("upload"),
+        DOWNLOAD("download"),
+        DOWNLOAD_BLOCK("downloadBlock"),
+        CHECKSUMS("checksums"),
+        LIST("list"),
+        VALIDATE("validate");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        private static Operation of(String label) {
+            for (Operation operation : values()) {
+                if (operation.label.equals(label)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation: " + label);
+        }
+    }
+
+    /** Latencies and failures of one kind of call. */
+    private static final class Statistics {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        private void reset() {
+            latencies.reset();
+            errors.reset();
+        }
+    }
+
+    private final Map<String, String> options;
+
+    private final Map<Operation, Statistics> statistics = new LinkedHashMap<>();
+
+    private final Operation[] schedule;
+
+    private final int blockSize;
+
+    private final int blocksPerFile;
+
+    private final int filesPerClient;
+
+    private volatile boolean running = true;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.blockSize = intOption("block-size", 4096);
+        this.blocksPerFile = intOption("blocks", 16);
+        this.filesPerClient = intOption("files", 4);
+
+        List<Operation> weighted = new ArrayList<>();
+
+        for (String part : options.getOrDefault("mix", DEFAULT_MIX).split(",")) {
+            String[] weight = part.split("=");
+            Operation operation = Operation.of(weight[0].trim());
+
+            for (int i = 0; i < Integer.parseInt(weight[1].trim()); i++) {
+                weighted.add(operation);
+            }
+            statistics.put(operation, new Statistics());
+        }
+
+        if (weighted.isEmpty()) {
+            throw new IllegalArgumentException("The mix contains no calls.");
+        }
+
+        this.schedule = weighted.toArray(new Operation[0]);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * Runs a load test and prints its report.
+     *
+     * @param args Options as {@code --name=value}.
+     * @throws Exception If the server cannot be started.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        Logger serverLogger = Logger.getLogger("app.apollo");
+        serverLogger.setLevel(Level.WARNING);
+
+        new LoadGenerator(options).run();
+
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        System.setProperty("java.rmi.server.hostname", "localhost");
+        Tracer.getInstance().setSampleRate(Double.parseDouble(options.getOrDefault("trace", "0")));
+
+        Path directory = Files.createTempDirectory("mneme-load");
+        String url = "jdbc:sqlite:" + directory.resolve("load.db");
+        createSchema(url, Paths.get(options.getOrDefault("schema", "schema/schema.sql")));
+
+        SQLiteDAOFactory factory = new SQLiteDAOFactory(url, new SQLitePoolConfig(),
+                new CacheRegistry(Runtime.getRuntime().maxMemory() / 4));
+        AuthProviderManager authManager = new AuthProviderManager(factory);
+
+        BlockStore blockStore = new TimedBlockStore("segments".equals(options.get("store"))
+                ? new SegmentBlockStore(directory.resolve("segments"))
+                : new ContentAddressedBlockStore(directory.resolve("blocks")));
+
+        AuthService authService = new AuthProvider(authManager);
+        FileService fileService = new FileProvider(authService, new FileProviderManager(factory, blockStore));
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        Registry registry = LocateRegistry.createRegistry(port);
+        registry.rebind("AuthService", authService);
+        registry.rebind("FileService", fileService);
+
+        int clients = intOption("clients", 100);
+        int users = intOption("users", 10);
+
+        AuthService auth = (AuthService) LocateRegistry.getRegistry("localhost", port).lookup("AuthService");
+        String[] tokens = new String[users];
+
+        for (int i = 0; i < users; i++) {
+            auth.register("load-user-" + i, PASSWORD);
+            tokens[i] = auth.login("load-user-" + i, PASSWORD).getToken();
+        }
+
+        System.out.printf("Server on port %d, data in %s%n", port, directory);
+        System.out.printf("Preparing %d clients of %d users...%n", clients, users);
+
+        CountDownLatch prepared = new CountDownLatch(clients);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < clients; i++) {
+            int client = i;
+            Thread thread = new Thread(() -> runClient(port, client, tokens[client % users], prepared),
+                    "load-client-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        prepared.await();
+
+        long warmup = intOption("warmup", 10);
+        long duration = intOption("duration", 30);
+
+        System.out.printf("Warming up for %d s...%n", warmup);
+        TimeUnit.SECONDS.sleep(warmup);
+
+        for (Statistics stats : statistics.values()) {
+            stats.reset();
+        }
+
+        System.out.printf("Measuring for %d s...%n", duration);
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(duration);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        running = false;
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        report(elapsed);
+
+        UnicastRemoteObject.unexportObject(fileService, true);
+        UnicastRemoteObject.unexportObject(authService, true);
+        UnicastRemoteObject.unexportObject(registry, true);
+
+        if (!Boolean.parseBoolean(options.get("keep"))) {
+            deleteRecursively(directory);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static void createSchema(String url, Path schema) throws IOException, SQLException {
+        String sql = new String(Files.readAllBytes(schema), StandardCharsets.UTF_8);
+
+        try (Connection connection = DriverManager.getConnection(url);
+                Statement statement = connection.createStatement()) {
+            for (String part : sql.split(";")) {
+                if (!part.trim().isEmpty()) {
+                    statement.executeUpdate(part);
+                }
+            }
+        }
+    }
+
+    private void runClient(int port, int client, String token, CountDownLatch prepared) {
+        FileService files;
+        AuthService auth;
+        byte[][] contents = new byte[blocksPerFile][blockSize];
+        Random random = new Random(client);
+        long version = 0;
+
+        try {
+            Registry registry = LocateRegistry.getRegistry("localhost", port);
+            files = (FileService) registry.lookup("FileService");
+            auth = (AuthService) registry.lookup("AuthService");
+
+            for (byte[] content : contents) {
+                random.nextBytes(content);
+            }
+
+            for (int file = 0; file < filesPerClient; file++) {
+                files.setBlockSize(token, filename(client, file), blockSize);
+                files.uploadBlocks(token, filename(client, file), blocks(contents, version++));
+            }
+        } catch (Exception e) {
+            System.err.println("Client " + client + " could not be prepared: " + e);
+            return;
+        } finally {
+            prepared.countDown();
+        }
+
+        long thinkMillis = intOption("think", 0);
+
+        while (running) {
+            ThreadLocalRandom current = ThreadLocalRandom.current();
+            Operation operation = schedule[current.nextInt(schedule.length)];
+            String filename = filename(client, current.nextInt(filesPerClient));
+            List<Block> upload = operation == Operation.UPLOAD ? blocks(contents, version++) : null;
+            Statistics stats = statistics.get(operation);
+
+            long start = System.nanoTime();
+
+            try {
+                switch (operation) {
+                    case UPLOAD:
+                        files.uploadBlocks(token, filename, upload);
+                        break;
+                    case DOWNLOAD:
+                        files.downloadBlocks(token, filename, 0, blocksPerFile);
+                        break;
+                    case DOWNLOAD_BLOCK:
+                        files.downloadBlock(token, filename, current.nextInt(blocksPerFile));
+                        break;
+                    case CHECKSUMS:
+                        files.getChecksums(token, filename);
+                        break;
+                    case LIST:
+                        files.listFiles(token);
+                        break;
+                    default:
+                        auth.validateToken(token);
+                        break;
+                }
+                stats.latencies.record(System.nanoTime() - start);
+            } catch (Exception e) {
+                stats.errors.increment();
+            }
+
+            if (thinkMillis > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(thinkMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static String filename(int client, int file) {
+        return "client-" + client + "-file-" + file;
+    }
+
+    /**
+     * Creates a new version of a file in which every block differs from all
+     * earlier versions, so that uploads store new content.
+     */
+    private List<Block> blocks(byte[][] contents, long version) {
+        List<Block> blocks = new ArrayList<>(contents.length);
+
+        for (int i = 0; i < contents.length; i++) {
+            byte[] data = contents[i].clone();
+
+            for (int shift = 0; shift < 8; shift++) {
+                data[shift] = (byte) (version >>> (shift * 8));
+            }
+
+            Block block = new Block();
+            block.setUserId(1);
+            block.setSequenceNumber((long) i);
+            block.setOffset((long) i * blockSize);
+            block.setSize(blockSize);
+            block.setData(data);
+            block.setFingerprint(CrypticEngine.weakHash(data, blockSize));
+            block.setChecksum(CrypticEngine.strongHash(block.getFingerprint(), data, blockSize));
+            blocks.add(block);
+        }
+
+        return blocks;
+    }
+
+    private void report(double elapsed) {
+        System.out.printf("%n%-14s %10s %8s %10s %9s %9s %9s %9s %9s %9s%n", "call", "count", "errors", "ops/s",
+                "mean ms", "p50 ms", "p90 ms", "p99 ms", "p999 ms", "max ms");
+
+        long totalCount = 0;
+
+        for (Map.Entry<Operation, Statistics> entry : statistics.entrySet()) {
+            LatencyHistogram latencies = entry.getValue().latencies;
+            long count = latencies.getCount();
+            totalCount += count;
+
+            System.out.printf("%-14s %10d %8d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n", entry.getKey().label,
+                    count, entry.getValue().errors.sum(), count / elapsed, latencies.getMean() / 1e6,
+                    latencies.valueAtPercentile(50) / 1e6, latencies.valueAtPercentile(90) / 1e6,
+                    latencies.valueAtPercentile(99) / 1e6, latencies.valueAtPercentile(99.9) / 1e6,
+                    latencies.getMax() / 1e6);
+        }
+
+        System.out.printf("%-14s %10d %8s %10.1f%n", "total", totalCount, "", totalCount / elapsed);
+
+        System.out.printf("%nServer side, warmup included:%n%s", MetricsReporter.format(null));
+
+        if (Tracer.getInstance().getSampleRate() > 0) {
+            System.out.printf("%nSlow traces:%n%s",
+                    Tracer.getInstance().dumpSlowerThan(Double.parseDouble(options.getOrDefault("trace-min-ms", "100"))));
+        }
+    }
+}
@@ -31,12 +31,21 @@ public class Block implements Serializable {
     /** Number in the sequence of blocks */
     private Long sequenceNumber;
 
+    /** Position of the first byte of the block within its file */
+    private Long offset;
+
     /** Byte array that stores data */
     private byte[] data;
 
     /** Total size of block */
     private Integer size;
 
+    /** Encoding of the data, {@code null} meaning raw */
+    private BlockCodec codec;
+
+    /** Collision resistant hash that identifies the block contents in storage */
+    private String contentHash;
+
     /***
      * Block class default constructor.
      */
@@ -114,6 +123,26 @@ public class Block implements Serializable {
         this.sequenceNumber = sequenceNumber;
     }
 
+    /**
+     * Returns the byte offset of this block within its file.
+     *
+     * @return The position of the block's first byte in the file.
+     */
+    public Long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Sets the byte offset of this block within its file. Required for files
+     * using {@link ChunkingMode#CONTENT}; derived from the sequence number
+     * otherwise.
+     *
+     * @param offset The position of the block's first byte in the file.
+     */
+    public void setOffset(Long offset) {
+        this.offset = offset;
+    }
+
     /**
      * Returns the binary data of this block.
      *
@@ -124,7 +153,10 @@ public class Block implements Serializable {
     }
 
     /**
-     * Sets the binary data for this block.
+     * Sets the binary data for this block. A block uploaded without data but
+     * with a {@link #getContentHash() content hash} refers to content that is
+     * already stored in the same file, which lets clients move blocks without
+     * sending their bytes again.
      *
      * @param data A byte array containing the block's contents.
      */
@@ -133,7 +165,27 @@ public class Block implements Serializable {
     }
 
     /**
-     * Returns the size of the block's data in bytes.
+     * Returns how the block's data is encoded.
+     *
+     * @return The codec of the data; {@link BlockCodec#RAW} if none was set.
+     */
+    public BlockCodec getCodec() {
+        return codec != null ? codec : BlockCodec.RAW;
+    }
+
+    /**
+     * Sets how the block's data is encoded. Compressed data can be sent and
+     * received as is; {@link #getSize()} still describes the decoded data.
+     *
+     * @param codec The codec of the data.
+     */
+    public void setCodec(BlockCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Returns the size of the block's data in bytes. For compressed blocks
+     * this is the size after decoding.
      *
      * @return An integer representing the size of the block.
      */
@@ -167,4 +219,22 @@ public class Block implements Serializable {
     public void setFingerprint(String fingerprint) {
         this.fingerprint = fingerprint;
     }
+
+    /**
+     * Returns the content hash under which the block data is stored.
+     *
+     * @return A hexadecimal SHA-256 digest of the block data.
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Sets the content hash under which the block data is stored.
+     *
+     * @param contentHash A hexadecimal SHA-256 digest of the block data.
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
 }
@@ -0,0 +1,145 @@
+package app.apollo.common;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encoding of the payload carried by a {@link Block}.
+ * <p>
+ * The size of a block always describes the decoded payload, so a block's
+ * fingerprint, checksum and content hash do not depend on how it was sent or
+ * stored. Payloads are only compressed when that makes them smaller; data
+ * that does not compress stays {@link #RAW}.
+ * </p>
+ */
+public enum BlockCodec {
+
+    /** Payload is sent and stored as is */
+    RAW,
+
+    /** Payload is compressed with DEFLATE in the zlib format */
+    DEFLATE;
+
+    /** Compressors reused by each thread, tuned for throughput */
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal
+            .withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+    /** Decompressors reused by each thread */
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    /** @return the identifier of this codec used in bulk transfer frames */
+    public byte getId() {
+        return (byte) ordinal();
+    }
+
+    /**
+     * Resolves a codec from its identifier.
+     *
+     * @param id Identifier as returned by {@link #getId()}.
+     * @return The codec.
+     * @throws IllegalArgumentException If no codec has the given identifier.
+     */
+    public static BlockCodec fromId(byte id) {
+        BlockCodec[] codecs = values();
+
+        if (id < 0 || id >= codecs.length) {
+            throw new IllegalArgumentException("Unknown block codec " + id);
+        }
+
+        return codecs[id];
+    }
+
+    /**
+     * Decodes a payload encoded with this codec.
+     *
+     * @param data Encoded payload.
+     * @param size Size of the decoded payload in bytes.
+     * @return The decoded payload.
+     * @throws DataFormatException If the payload is corrupt or does not decode
+     *                             to exactly {@code size} bytes.
+     */
+    public byte[] decode(byte[] data, int size) throws DataFormatException {
+        if (this == RAW) {
+            return data;
+        }
+
+        return inflate(data, size);
+    }
+
+    /**
+     * Compresses a payload with {@link #DEFLATE}, giving up as soon as the
+     * output would not be smaller than the input.
+     *
+     * @param data Payload to compress.
+     * @return The compressed payload, or {@code null} if the data does not
+     *         compress.
+     */
+    public static byte[] deflate(byte[] data) {
+        if (data.length < 2) {
+            return null;
+        }
+
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+
+        byte[] buffer = new byte[data.length - 1];
+        int length = 0;
+
+        while (!deflater.finished() && length < buffer.length) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+
+        if (!deflater.finished()) {
+            return null;
+        }
+
+        byte[] compressed = new byte[length];
+        System.arraycopy(buffer, 0, compressed, 0, length);
+        return compressed;
+    }
+
+    /**
+     * Decompresses a {@link #DEFLATE} payload of known size.
+     *
+     * @param data Compressed payload.
+     * @param size Size of the decompressed payload in bytes.
+     * @return The decompressed payload.
+     * @throws DataFormatException If the payload is corrupt or does not
+     *                             decompress to exactly {@code size} bytes.
+     */
+    public static byte[] inflate(byte[] data, int size) throws DataFormatException {
+        if (size < 0) {
+            throw new DataFormatException("Negative payload size " + size);
+        }
+
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(data);
+
+        byte[] output = new byte[size];
+        int length = 0;
+
+        while (!inflater.finished() && length < size) {
+            int inflated = inflater.inflate(output, length, size - length);
+
+            if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                break;
+            }
+
+            length += inflated;
+        }
+
+        if (!inflater.finished() && length == size && inflater.inflate(new byte[1]) != 0) {
+            throw new DataFormatException("Payload decompresses to more than " + size + " bytes");
+        }
+
+        if (!inflater.finished() || length != size || inflater.getRemaining() != 0) {
+            throw new DataFormatException("Payload does not decompress to " + size + " bytes");
+        }
+
+        return output;
+    }
+}
@@ -0,0 +1,21 @@
+package app.apollo.common;
+
+/**
+ * Describes how a file is split into blocks.
+ */
+public enum ChunkingMode {
+
+    /**
+     * Every block holds exactly the file's block size, so block {@code n}
+     * starts at byte {@code n * blockSize}.
+     */
+    FIXED,
+
+    /**
+     * Blocks are variable-size chunks cut at rolling-hash boundaries (see
+     * {@link ContentChunker}), never longer than the file's block size. Every
+     * block records its own byte offset, so inserting data only changes the
+     * chunks around the edit.
+     */
+    CONTENT
+}
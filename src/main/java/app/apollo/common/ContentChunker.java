@@ -0,0 +1,115 @@
+package app.apollo.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits data into variable-size chunks at content-defined boundaries.
+ * <p>
+ * A boundary is placed where the low bits of
+ * {@link CrypticEngine#rollingHash(int, byte)} are all zero, so boundaries
+ * depend only on the bytes just before them. Inserting or removing bytes
+ * therefore only changes the chunks around the edit, while every later chunk
+ * keeps its content and hashes. Chunks are never shorter than the minimum size
+ * (except at the end of the data) nor longer than the maximum size.
+ * </p>
+ *
+ * <p>
+ * Client and server must use the same parameters for a file, which are
+ * derived from the file's block size by {@link #forBlockSize(int)}.
+ * </p>
+ *
+ * @see ChunkingMode#CONTENT
+ */
+public class ContentChunker {
+
+    /** Smallest chunk that is cut before the end of the data */
+    private final int minSize;
+
+    /** Largest chunk that is ever produced */
+    private final int maxSize;
+
+    /** Bits of the rolling hash that must be zero at a boundary */
+    private final int mask;
+
+    /**
+     * Constructs a chunker.
+     *
+     * @param minSize     Smallest chunk size in bytes.
+     * @param averageSize Expected chunk size in bytes; rounded down to a power
+     *                    of two.
+     * @param maxSize     Largest chunk size in bytes.
+     */
+    public ContentChunker(int minSize, int averageSize, int maxSize) {
+        if (minSize <= 0 || averageSize < minSize || maxSize < averageSize) {
+            throw new IllegalArgumentException("Chunk sizes must satisfy 0 < min <= average <= max.");
+        }
+
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.mask = Integer.highestOneBit(averageSize) - 1;
+    }
+
+    /**
+     * Creates the chunker used for files in {@link ChunkingMode#CONTENT} mode.
+     * The block size is the maximum chunk size; chunks average a quarter of it
+     * and are at least a sixteenth of it.
+     *
+     * @param blockSize Block size of the file in bytes.
+     * @return Chunker for the file.
+     */
+    public static ContentChunker forBlockSize(int blockSize) {
+        return new ContentChunker(Math.max(1, blockSize / 16), Math.max(1, blockSize / 4), blockSize);
+    }
+
+    /** @return the largest chunk size in bytes */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Finds the length of the chunk that starts at the given position.
+     *
+     * @param data   Buffer holding the data.
+     * @param offset Position where the chunk starts.
+     * @param length Number of bytes available from {@code offset}.
+     * @return Length of the chunk, at most {@code length}.
+     */
+    public int nextChunkLength(byte[] data, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+
+        int limit = Math.min(length, maxSize);
+        int hash = 0;
+
+        for (int i = minSize; i < limit; i++) {
+            hash = CrypticEngine.rollingHash(hash, data[offset + i]);
+
+            if ((hash & mask) == 0) {
+                return i + 1;
+            }
+        }
+
+        return limit;
+    }
+
+    /**
+     * Splits a whole buffer into chunks.
+     *
+     * @param data Data to split.
+     * @return Lengths of consecutive chunks covering the whole buffer.
+     */
+    public List<Integer> split(byte[] data) {
+        List<Integer> lengths = new ArrayList<>();
+        int offset = 0;
+
+        while (offset < data.length) {
+            int length = nextChunkLength(data, offset, data.length - offset);
+            lengths.add(length);
+            offset += length;
+        }
+
+        return lengths;
+    }
+}
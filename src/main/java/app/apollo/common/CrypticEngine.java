@@ -1,5 +1,8 @@
 package app.apollo.common;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 /**
  * Utility class providing cryptographic hash functions for data verification.
  * <p>
@@ -17,6 +20,21 @@ package app.apollo.common;
  */
 public class CrypticEngine {
 
+    /** Per-byte random values mixed into {@link #rollingHash(int, byte)}. */
+    private static final int[] GEAR = new int[256];
+
+    static {
+        long state = 0x9E3779B97F4A7C15L;
+
+        for (int i = 0; i < GEAR.length; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            long mixed = state;
+            mixed = (mixed ^ (mixed >>> 30)) * 0xBF58476D1CE4E5B9L;
+            mixed = (mixed ^ (mixed >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = (int) (mixed ^ (mixed >>> 31));
+        }
+    }
+
     /**
      * Computes a weak hash of the given byte array using a simple DJB2-like XOR
      * algorithm.
@@ -48,7 +66,7 @@ public class CrypticEngine {
     public static String strongHash(String accumulator, byte[] data, long size) {
         final Integer MOD = 150190;
         final Integer BASE = 18371539;
-        Integer hash = Integer.valueOf(accumulator, 16);
+        Integer hash = Integer.parseUnsignedInt(accumulator, 16);
 
         for (int i = 1; i < size; i++) {
             hash ^= data[i];
@@ -59,4 +77,54 @@ public class CrypticEngine {
 
         return Integer.toHexString(hash);
     }
+
+    /**
+     * Advances a Gear rolling hash by one byte.
+     * <p>
+     * Every step shifts the previous value left by one bit, so a byte stops
+     * influencing the low bits after 32 further bytes. This makes the low bits
+     * a function of a sliding window, which is what content-defined chunking
+     * uses to find boundaries.
+     * </p>
+     *
+     * @param hash  Current hash value.
+     * @param value Next byte of input.
+     * @return Updated hash value.
+     */
+    public static int rollingHash(int hash, byte value) {
+        return (hash << 1) + GEAR[value & 0xff];
+    }
+
+    /**
+     * Computes a SHA-256 digest of the given bytes.
+     * <p>
+     * Unlike {@link #weakHash(byte[], Integer)} and
+     * {@link #strongHash(String, byte[], long)} this hash is collision resistant
+     * and is therefore suitable for identifying block contents, for example in
+     * a content-addressed store.
+     * </p>
+     *
+     * @param data The byte array to hash.
+     * @param size The number of bytes to read from the array.
+     * @return A lowercase hexadecimal string of 64 characters.
+     */
+    public static String contentHash(byte[] data, int size) {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        digest.update(data, 0, size);
+
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return hex.toString();
+    }
 }
@@ -17,6 +17,12 @@ import java.util.List;
  */
 public interface FileService extends Remote {
 
+    /** Smallest block size a file may choose, in bytes. */
+    int MIN_BLOCK_SIZE = 1024;
+
+    /** Largest block size a file may choose, in bytes. */
+    int MAX_BLOCK_SIZE = 4 * 1024 * 1024;
+
     /**
      * Sets the total number of blocks for a given file.
      *
@@ -38,7 +44,9 @@ public interface FileService extends Remote {
     long getFileBlockCount(String token, String filename) throws RemoteException;
 
     /**
-     * Uploads a single block of a file.
+     * Uploads a single block of a file. The block data may be compressed with
+     * {@link BlockCodec#DEFLATE} to save bandwidth; its size, fingerprint and
+     * checksum always describe the decoded data.
      *
      * @param token    Authentication token of the user.
      * @param filename Name of the file.
@@ -47,6 +55,21 @@ public interface FileService extends Remote {
      */
     void uploadBlock(String token, String filename, Block block) throws RemoteException;
 
+    /**
+     * Uploads several blocks of a file in a single call.
+     * <p>
+     * The whole batch is authenticated and validated once and stored as a
+     * single unit, which avoids a round trip per block for large files.
+     * </p>
+     *
+     * @param token    Authentication token of the user.
+     * @param filename Name of the file.
+     * @param blocks   The blocks to upload, each containing index and data.
+     * @throws RemoteException If a remote communication error occurs or any of
+     *                         the blocks is invalid.
+     */
+    void uploadBlocks(String token, String filename, List<Block> blocks) throws RemoteException;
+
     /**
      * Deletes a specified file from the system.
      *
@@ -67,8 +90,39 @@ public interface FileService extends Remote {
      */
     List<FrozenPair<String,String>> getChecksums(String token, String filename) throws RemoteException;
 
+    /**
+     * Compares the client's view of a file with the blocks stored on the
+     * server and returns the indices of the blocks the server still needs.
+     * <p>
+     * The position of every pair in {@code checksums} is the block index it
+     * describes. For {@link ChunkingMode#FIXED} files a block is reported when
+     * the server has no block at that index or when its fingerprint or
+     * checksum differs.
+     * </p>
+     *
+     * <p>
+     * For {@link ChunkingMode#CONTENT} files a block is only reported when its
+     * content is not stored anywhere in the file. Other indices whose stored
+     * block differs can be uploaded as references, i.e. blocks without data
+     * that carry the content hash of the chunk.
+     * </p>
+     *
+     * @param token     Authentication token of the user.
+     * @param filename  Name of the file.
+     * @param checksums Fingerprint and checksum pairs of the client's blocks,
+     *                  ordered by block index.
+     * @return Indices of blocks that have to be uploaded, in ascending order.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    List<Long> getMissingBlocks(String token, String filename, List<FrozenPair<String, String>> checksums)
+            throws RemoteException;
+
     /**
      * Downloads a specific block of a file.
+     * <p>
+     * The data is returned as stored, which may be compressed; use the
+     * block's {@link Block#getCodec() codec} to decode it.
+     * </p>
      *
      * @param token      Authentication token of the user.
      * @param filename   Name of the file.
@@ -78,6 +132,99 @@ public interface FileService extends Remote {
      */
     Block downloadBlock(String token, String filename, long blockIndex) throws RemoteException;
 
+    /**
+     * Downloads a contiguous run of blocks of a file in a single call.
+     * <p>
+     * The returned list starts at {@code fromIndex} and is ordered by block
+     * index. It may contain fewer than {@code count} blocks if the file ends
+     * earlier, a block is missing, or the server limits the batch size.
+     * Block data may be compressed, as with {@link #downloadBlock}.
+     * </p>
+     *
+     * @param token     Authentication token of the user.
+     * @param filename  Name of the file.
+     * @param fromIndex Index of the first block to download (0-based).
+     * @param count     Maximum number of blocks to download.
+     * @return The requested file blocks; empty if none are available.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    List<Block> downloadBlocks(String token, String filename, long fromIndex, int count) throws RemoteException;
+
+    /**
+     * Returns how a given file is split into blocks. Files that do not exist
+     * yet report {@link ChunkingMode#FIXED}.
+     *
+     * @param token    Authentication token of the user.
+     * @param filename Name of the file.
+     * @return The chunking mode of the file.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    ChunkingMode getChunkingMode(String token, String filename) throws RemoteException;
+
+    /**
+     * Chooses how a file is split into blocks. Creates the file if it does not
+     * exist. The chunking mode can only be changed while the file holds no
+     * blocks. With {@link ChunkingMode#CONTENT} the file's block size becomes
+     * the maximum chunk size.
+     *
+     * @param token        Authentication token of the user.
+     * @param filename     Name of the file.
+     * @param chunkingMode The chunking mode.
+     * @throws RemoteException If a remote communication error occurs or the
+     *                         file already holds blocks.
+     */
+    void setChunkingMode(String token, String filename, ChunkingMode chunkingMode) throws RemoteException;
+
+    /**
+     * Requests a ticket for streaming a run of blocks over the bulk transfer
+     * channel instead of RMI.
+     * <p>
+     * After connecting to the ticket endpoint and sending the ticket id, the
+     * client receives one frame per block: the block index as a {@code long},
+     * the payload length as an {@code int}, the decoded block size as an
+     * {@code int}, the {@link BlockCodec#getId() codec id} as a {@code byte}
+     * and the payload bytes. The stream ends with a frame whose index is
+     * {@code -1}.
+     * </p>
+     *
+     * @param token     Authentication token of the user.
+     * @param filename  Name of the file.
+     * @param fromIndex Index of the first block to download (0-based).
+     * @param count     Maximum number of blocks to download.
+     * @return A single-use ticket for the download.
+     * @throws RemoteException If a remote communication error occurs or the
+     *                         bulk transfer channel is unavailable.
+     */
+    TransferTicket requestDownloadTicket(String token, String filename, long fromIndex, int count)
+            throws RemoteException;
+
+    /**
+     * Requests a ticket for streaming blocks to the server over the bulk
+     * transfer channel instead of RMI.
+     * <p>
+     * After connecting to the ticket endpoint and sending the ticket id, the
+     * client writes one frame per block: the block index as a {@code long},
+     * the payload length as an {@code int}, the decoded block size as an
+     * {@code int}, the {@link BlockCodec#getId() codec id} as a {@code byte},
+     * the fingerprint and checksum as
+     * length-prefixed ({@code short}) ASCII strings, the byte offset of the
+     * block within the file as a {@code long} and the payload bytes.
+     * The stream ends with a frame whose index is {@code -1}, after which the
+     * server replies with a status byte: {@code 1} if every block was stored,
+     * {@code 0} if none was. Blocks are stored in batches as they arrive, so
+     * an invalid frame may be found after some of them were stored; the
+     * status is then {@code 2}, followed by the index ({@code long}) of the
+     * last frame stored. Every frame sent before it was stored as well.
+     * </p>
+     *
+     * @param token    Authentication token of the user.
+     * @param filename Name of the file.
+     * @return A single-use ticket for the upload.
+     * @throws RemoteException If a remote communication error occurs or the
+     *                         bulk transfer channel is unavailable.
+     */
+    TransferTicket requestUploadTicket(String token, String filename) throws RemoteException;
+
     /**
      * Lists all files accessible to the user associated with the provided token.
      *
@@ -88,10 +235,36 @@ public interface FileService extends Remote {
     List<String> listFiles(String token) throws RemoteException;
 
     /**
-     * Returns the fixed block size used for storing file data.
+     * Returns the default block size used for files that did not choose one.
      *
      * @return The block size in bytes.
      * @throws RemoteException If a remote communication error occurs.
      */
     long getBlockSize() throws RemoteException;
+
+    /**
+     * Returns the block size of a given file. Files that do not exist yet
+     * report the default block size.
+     *
+     * @param token    Authentication token of the user.
+     * @param filename Name of the file.
+     * @return The block size in bytes.
+     * @throws RemoteException If a remote communication error occurs.
+     */
+    long getBlockSize(String token, String filename) throws RemoteException;
+
+    /**
+     * Chooses the block size of a file. Creates the file if it does not exist.
+     * The block size can only be changed while the file holds no blocks and
+     * must be a power of two between {@link #MIN_BLOCK_SIZE} and
+     * {@link #MAX_BLOCK_SIZE}.
+     *
+     * @param token     Authentication token of the user.
+     * @param filename  Name of the file.
+     * @param blockSize The block size in bytes.
+     * @throws RemoteException If a remote communication error occurs, the size
+     *                         is not supported or the file already holds
+     *                         blocks.
+     */
+    void setBlockSize(String token, String filename, long blockSize) throws RemoteException;
 }
@@ -1,10 +1,15 @@
 package app.apollo.common;
 
+import java.io.Serializable;
+import java.util.Objects;
+
 /***
  * Pair class represents a container that stores a pair of generic elements.
+ * Pairs are serializable so that they can be exchanged over RMI as long as
+ * both elements are serializable.
  *
  */
-public class FrozenPair<First, Second> {
+public class FrozenPair<First, Second> implements Serializable {
 
     /*** First element in pair */
     private First first;
@@ -39,5 +44,23 @@ public class FrozenPair<First, Second> {
         return second;
     }
 
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (!(other instanceof FrozenPair)) {
+            return false;
+        }
+
+        FrozenPair<?, ?> pair = (FrozenPair<?, ?>) other;
+        return Objects.equals(first, pair.first) && Objects.equals(second, pair.second);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(first, second);
+    }
 
 }
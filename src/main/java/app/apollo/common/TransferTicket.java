@@ -0,0 +1,120 @@
+package app.apollo.common;
+
+import java.io.Serializable;
+
+/**
+ * Represents a short-lived permission to move raw block data over the bulk
+ * transfer channel.
+ * <p>
+ * A ticket is handed out by {@link FileService} and redeemed exactly once by
+ * connecting to {@link #getHost()}:{@link #getPort()} and sending
+ * {@link #getId()} as the first bytes on the connection. Control operations
+ * stay on RMI while block payloads travel as plain bytes on the socket.
+ * </p>
+ *
+ * @see FileService#requestDownloadTicket(String, String, long, int)
+ * @see FileService#requestUploadTicket(String, String)
+ */
+public class TransferTicket implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Direction of the data flow that a ticket allows. */
+    public enum Direction {
+        /** Server streams blocks to the client. */
+        DOWNLOAD,
+        /** Client streams blocks to the server. */
+        UPLOAD
+    }
+
+    /** Number of ASCII bytes used to encode a ticket id on the wire. */
+    public static final int ID_LENGTH = 36;
+
+    /** Unique identifier that the client presents on the data channel */
+    private final String id;
+
+    /** Host name of the bulk transfer endpoint */
+    private final String host;
+
+    /** Port of the bulk transfer endpoint */
+    private final int port;
+
+    /** Direction of the transfer */
+    private final Direction direction;
+
+    /** Name of the file the ticket refers to */
+    private final String filename;
+
+    /** Index of the first block covered by the ticket */
+    private final long fromIndex;
+
+    /** Number of blocks covered by the ticket */
+    private final int count;
+
+    /** Moment (epoch milliseconds) after which the ticket is no longer accepted */
+    private final long expiresAt;
+
+    /**
+     * Constructs a new transfer ticket.
+     *
+     * @param id        Unique ticket identifier.
+     * @param host      Host name of the bulk transfer endpoint.
+     * @param port      Port of the bulk transfer endpoint.
+     * @param direction Direction of the transfer.
+     * @param filename  Name of the file.
+     * @param fromIndex Index of the first block covered by the ticket.
+     * @param count     Number of blocks covered by the ticket.
+     * @param expiresAt Expiry time in epoch milliseconds.
+     */
+    public TransferTicket(String id, String host, int port, Direction direction, String filename, long fromIndex,
+            int count, long expiresAt) {
+        this.id = id;
+        this.host = host;
+        this.port = port;
+        this.direction = direction;
+        this.filename = filename;
+        this.fromIndex = fromIndex;
+        this.count = count;
+        this.expiresAt = expiresAt;
+    }
+
+    /** @return the unique ticket identifier */
+    public String getId() {
+        return id;
+    }
+
+    /** @return the host name of the bulk transfer endpoint */
+    public String getHost() {
+        return host;
+    }
+
+    /** @return the port of the bulk transfer endpoint */
+    public int getPort() {
+        return port;
+    }
+
+    /** @return the direction of the transfer */
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /** @return the name of the file */
+    public String getFilename() {
+        return filename;
+    }
+
+    /** @return the index of the first block covered by the ticket */
+    public long getFromIndex() {
+        return fromIndex;
+    }
+
+    /** @return the number of blocks covered by the ticket */
+    public int getCount() {
+        return count;
+    }
+
+    /** @return the expiry time in epoch milliseconds */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+}
@@ -1,5 +1,7 @@
 package app.apollo.server;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 
@@ -8,6 +10,18 @@ import app.apollo.common.FileService;
 
 public final class App {
 
+    /** Largest number of block files or segments kept memory-mapped */
+    private static final int MAX_MAPPINGS = 4096;
+
+    /** Largest number of bytes kept memory-mapped */
+    private static final long MAX_MAPPED_BYTES = 1L << 30;
+
+    /** Default byte budget of the off-heap block cache */
+    private static final long DEFAULT_BLOCK_CACHE_BYTES = 64L * 1024 * 1024;
+
+    /** Default pause between two metrics reports, in seconds */
+    private static final long DEFAULT_METRICS_INTERVAL_SECONDS = 10;
+
     public static void main(String[] args) {
 
         String connectionString = "jdbc:sqlite:data.db";
@@ -19,22 +33,62 @@ public final class App {
         FileProviderManager fileManager = null;
         FileService fileService = null;
 
+        BulkTransferServer bulkTransferServer = null;
+
         System.setProperty("java.rmi.server.hostname", "localhost");
 
+        AsyncLogHandler.install(Integer.getInteger("mneme.log.buffer", AsyncLogHandler.DEFAULT_CAPACITY));
+
         try {
 
-            factory = new SQLiteDAOFactory(connectionString);
+            long cacheBudget = Long.getLong("mneme.cache.bytes", Runtime.getRuntime().maxMemory() / 4);
+            SQLiteDAOFactory sqliteFactory = new SQLiteDAOFactory(connectionString, new SQLitePoolConfig(),
+                    new CacheRegistry(cacheBudget));
+            factory = sqliteFactory;
 
-            authManager = new AuthProviderManager(factory);
+            String tokenSecret = System.getProperty("mneme.auth.secret");
+
+            if (tokenSecret != null) {
+                SignedTokenCodec tokenCodec = new SignedTokenCodec(tokenSecret.getBytes(StandardCharsets.UTF_8),
+                        AuthProviderManager.SESSION_TTL);
+                authManager = new AuthProviderManager(factory, tokenCodec);
+            } else {
+                authManager = new AuthProviderManager(factory);
+            }
             authService = new AuthProvider(authManager);
 
-            fileManager = new FileProviderManager(factory);
-            fileService = new FileProvider(authService, fileManager);
+            MappedRegionCache mappings = "mapped".equals(System.getProperty("mneme.block.read"))
+                    ? new MappedRegionCache(MAX_MAPPINGS, MAX_MAPPED_BYTES)
+                    : null;
+
+            boolean forceWrites = Boolean.parseBoolean(System.getProperty("mneme.block.sync", "true"));
+
+            BlockStore blockStore = "segments".equals(System.getProperty("mneme.block.store"))
+                    ? new SegmentBlockStore(Paths.get("storage", "segments"), SegmentBlockStore.DEFAULT_SEGMENT_SIZE,
+                            SegmentBlockStore.DEFAULT_COMPACTION_THRESHOLD, mappings, forceWrites)
+                    : new ContentAddressedBlockStore(Paths.get("storage", "blocks"), mappings, forceWrites);
+
+            sqliteFactory.migrate(blockStore);
+
+            blockStore = new TimedBlockStore(blockStore);
+
+            long blockCacheBytes = Long.getLong("mneme.block.cache.bytes", DEFAULT_BLOCK_CACHE_BYTES);
+
+            if (blockCacheBytes > 0) {
+                blockStore = new CachingBlockStore(blockStore, new OffHeapBlockCache(blockCacheBytes));
+            }
+
+            fileManager = new FileProviderManager(factory, blockStore);
+            bulkTransferServer = new BulkTransferServer(fileManager, "localhost", 2568);
+            fileService = new FileProvider(authService, fileManager, bulkTransferServer);
 
             Registry registry = LocateRegistry.createRegistry(2567);
             registry.rebind("AuthService", authService);
             registry.rebind("FileService", fileService);
 
+            new MetricsReporter(Paths.get(System.getProperty("mneme.metrics.file", "metrics.txt")),
+                    Long.getLong("mneme.metrics.interval", DEFAULT_METRICS_INTERVAL_SECONDS));
+
             System.out.println("RMI server is running...");
 
         } catch (Exception e) {
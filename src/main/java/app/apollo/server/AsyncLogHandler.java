@@ -0,0 +1,251 @@
+package app.apollo.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * {@link Handler} that hands log records to other handlers on a background
+ * thread.
+ * <p>
+ * Logging threads only place the record in a bounded ring buffer, which
+ * takes no lock; formatting the message and writing it happen on the
+ * {@code log-writer} thread. When the buffer is full, records are dropped
+ * instead of slowing the caller down, and the number of dropped records is
+ * logged once the writer catches up.
+ * </p>
+ * <p>
+ * Since records are formatted later, message parameters should not change
+ * after logging. The caller is not looked up from the stack, which would be
+ * both slow and wrong on another thread; records name their logger as the
+ * source class instead, which in this code base is the logging class.
+ * </p>
+ */
+public class AsyncLogHandler extends Handler {
+
+    /** Default number of records the buffer holds */
+    static final int DEFAULT_CAPACITY = 8192;
+
+    /** Longest pause of the idle writer before it checks the buffer again */
+    private static final long IDLE_PARK_NANOS = 100_000_000L;
+
+    private final Handler[] targets;
+
+    private final AtomicReferenceArray<LogRecord> slots;
+
+    /**
+     * Sequence of every slot: equal to the claiming position when the slot is
+     * free and one more once it holds a record.
+     */
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    /** Next position claimed by a logging thread */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Next position read by the writer; only written by the writer */
+    private volatile long head;
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final Thread writer;
+
+    private volatile boolean idle;
+
+    private volatile boolean closed;
+
+    /**
+     * Starts the writer thread.
+     *
+     * @param capacity Number of records the buffer holds, rounded up to a
+     *                 power of two.
+     * @param targets  Handlers that publish the records.
+     */
+    public AsyncLogHandler(int capacity, Handler... targets) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+
+        this.targets = targets.clone();
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+
+        this.writer = new Thread(this::drainLoop, "log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Moves the handlers of the root logger behind an asynchronous handler,
+     * so that every logger of the process logs asynchronously. The buffer is
+     * drained when the process exits.
+     *
+     * @param capacity Number of records the buffer holds.
+     * @return The installed handler.
+     */
+    public static AsyncLogHandler install(int capacity) {
+        Logger root = Logger.getLogger("");
+        Handler[] handlers = root.getHandlers();
+
+        AsyncLogHandler handler = new AsyncLogHandler(capacity, handlers);
+
+        for (Handler target : handlers) {
+            root.removeHandler(target);
+        }
+        root.addHandler(handler);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(handler::close, "log-shutdown"));
+
+        return handler;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+
+        record.setSourceClassName(record.getLoggerName());
+        record.setSourceMethodName(null);
+
+        if (!offer(record)) {
+            dropped.increment();
+            return;
+        }
+
+        if (idle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private boolean offer(LogRecord record) {
+        long position = tail.get();
+
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set(index, record);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /** Takes the next record; only called by the writer. */
+    private LogRecord poll() {
+        int index = (int) head & mask;
+
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+
+        LogRecord record = slots.get(index);
+        slots.set(index, null);
+        sequences.set(index, head + slots.length());
+        head++;
+
+        return record;
+    }
+
+    private void drainLoop() {
+        while (!closed) {
+            if (drain() == 0) {
+                idle = true;
+                if (tail.get() == head) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                idle = false;
+            }
+        }
+    }
+
+    /** Publishes all buffered records; called by the writer, or on close. */
+    private synchronized int drain() {
+        int count = 0;
+        LogRecord record;
+
+        while ((record = poll()) != null) {
+            for (Handler target : targets) {
+                target.publish(record);
+            }
+            count++;
+        }
+
+        long lost = dropped.sumThenReset();
+
+        if (lost > 0) {
+            LogRecord notice = new LogRecord(Level.WARNING, "Dropped " + lost + " log record(s), the log buffer was full");
+            notice.setLoggerName(AsyncLogHandler.class.getName());
+            notice.setSourceClassName(AsyncLogHandler.class.getName());
+            for (Handler target : targets) {
+                target.publish(notice);
+            }
+        }
+
+        if (count > 0) {
+            for (Handler target : targets) {
+                target.flush();
+            }
+        }
+
+        return count;
+    }
+
+    /** Waits until the writer has published what is buffered now. */
+    @Override
+    public void flush() {
+        long position = tail.get();
+
+        while (!closed && head < position && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+    }
+
+    /** Stops the writer, publishes the remaining records and closes the targets. */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        LockSupport.unpark(writer);
+
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        drain();
+
+        for (Handler target : targets) {
+            target.close();
+        }
+    }
+
+    /** @return the number of records dropped since the last drop notice */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+}
@@ -15,11 +15,24 @@ import app.apollo.common.Session;
  * </p>
  *
  * <p>
- * Exposed as an RMI service for remote clients.
+ * Exposed as an RMI service for remote clients. Every remote method is timed
+ * under {@code rpc.AuthService.<method>} in {@link Metrics}; token logins are
+ * timed as {@code login.token} and include the checks {@link FileProvider}
+ * makes for every call.
  * </p>
  */
 public class AuthProvider extends UnicastRemoteObject implements AuthService {
 
+    private static final OperationTimer REGISTER = Metrics.timer("rpc.AuthService.register");
+
+    private static final OperationTimer LOGIN = Metrics.timer("rpc.AuthService.login");
+
+    private static final OperationTimer LOGOUT = Metrics.timer("rpc.AuthService.logout");
+
+    private static final OperationTimer VALIDATE_TOKEN = Metrics.timer("rpc.AuthService.validateToken");
+
+    private static final OperationTimer LOGIN_TOKEN = Metrics.timer("rpc.AuthService.login.token");
+
     private AuthProviderManager authManager;
 
     /**
@@ -36,35 +49,45 @@ public class AuthProvider extends UnicastRemoteObject implements AuthService {
 
     @Override
     public boolean register(String username, String password) throws RemoteException {
-        boolean result = false;
-        result = authManager.register(username, password);
-        return result;
+        return REGISTER.call(() -> {
+            boolean result = false;
+            result = authManager.register(username, password);
+            return result;
+        });
     }
 
     @Override
     public Session login(String username, String password) throws RemoteException {
-        Session session = null;
-        session = authManager.login(username, password);
-        return session;
+        return LOGIN.call(() -> {
+            Session session = null;
+            session = authManager.login(username, password);
+            return session;
+        });
     }
 
     @Override
     public void logout(String token) throws RemoteException {
-        authManager.logout(token);
+        LOGOUT.run(() -> {
+            authManager.logout(token);
+        });
     }
 
     @Override
     public boolean validateToken(String token) throws RemoteException {
-        boolean result = false;
-        result = authManager.validateToken(token);
-        return result;
+        return VALIDATE_TOKEN.call(() -> {
+            boolean result = false;
+            result = authManager.validateToken(token);
+            return result;
+        });
     }
 
     @Override
     public Session login(String token) throws RemoteException {
-        Session session = null;
-        session = authManager.login(token);
-        return session;
+        return LOGIN_TOKEN.call(() -> {
+            Session session = null;
+            session = authManager.login(token);
+            return session;
+        });
     }
 
 }
@@ -2,8 +2,15 @@ package app.apollo.server;
 
 import java.security.InvalidParameterException;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import app.apollo.common.Session;
@@ -13,30 +20,93 @@ import app.apollo.common.Session;
  * validation, and logout.
  * This class acts as a service layer interfacing with DAOs to handle
  * authentication logic.
+ * <p>
+ * Active sessions live in a {@link SessionRegistry}, so validating a token
+ * is a map lookup that never touches the database. Sessions are written to
+ * and removed from the database asynchronously, in order, by a single
+ * background thread.
+ * </p>
+ *
+ * <p>
+ * When constructed with a {@link SignedTokenCodec}, the manager issues
+ * self-contained signed tokens instead and keeps no sessions at all. Tokens
+ * are verified by their signature and expiry alone; {@link #logout(String)}
+ * adds a token to an in-memory deny-list until it would have expired anyway.
+ * </p>
  */
 public class AuthProviderManager {
 
     private static final Logger logger = Logger.getLogger(AuthProviderManager.class.getName());
 
+    /** Logins with unknown or expired tokens, logged at most 10 times per second */
+    private static final LogSite UNKNOWN_TOKEN_LOG = new LogSite(logger, Level.WARNING, 10);
+
+    /** Failed password logins, logged at most 10 times per second */
+    private static final LogSite FAILED_LOGIN_LOG = new LogSite(logger, Level.WARNING, 10);
+
     private UserDAO userDAO;
 
     private SessionDAO sessionDAO;
 
+    /** Lifetime of a session, counted from login */
+    static final Duration SESSION_TTL = Duration.ofMinutes(15);
+
+    private final SessionRegistry sessions;
+
+    /** Applies session changes to the database off the request path */
+    private final ExecutorService sessionWriter;
+
+    /** Expires sessions and deny-list entries */
+    private final HashedTimerWheel timer;
+
+    /** Codec of signed tokens, or null when sessions are kept in the registry */
+    private final SignedTokenCodec tokenCodec;
+
+    /** Signed tokens revoked by logout that have not expired yet */
+    private final ConcurrentHashMap<String, Boolean> revokedTokens = new ConcurrentHashMap<>();
+
     /**
      * Constructs an AuthProviderManager using a DAOFactory to access required DAOs.
      *
      * @param factory the DAOFactory to obtain DAO implementations
      */
     public AuthProviderManager(DAOFactory factory) {
+        this(factory, null);
+    }
+
+    /**
+     * Constructs an AuthProviderManager that issues signed tokens verified
+     * without any session lookup.
+     *
+     * @param factory    the DAOFactory to obtain DAO implementations
+     * @param tokenCodec the codec issuing and verifying tokens; {@code null}
+     *                   keeps sessions in memory instead
+     */
+    public AuthProviderManager(DAOFactory factory, SignedTokenCodec tokenCodec) {
         this.userDAO = factory.getUserDAO();
         this.sessionDAO = factory.getSessionDAO();
+        this.tokenCodec = tokenCodec;
+
+        this.sessionWriter = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.timer = new HashedTimerWheel("session-expiry", 1, TimeUnit.SECONDS, 512);
+
+        this.sessions = new SessionRegistry(timer, SESSION_TTL.toMillis(), TimeUnit.MILLISECONDS, session -> {
+            logger.log(Level.FINE, "Session expired for user {0,number,#}", session.getUserId());
+            sessionWriter.execute(() -> sessionDAO.delete(session.getToken()));
+        });
     }
 
     /**
      * Logs in a user by username and password.
      * If credentials are valid and an active session exists, returns the existing
      * session.
-     * Otherwise, creates a new session with a unique token.
+     * Otherwise, creates a new session with a unique token. In signed token
+     * mode every login issues a new token.
      *
      * @param username the username of the user
      * @param password the password of the user
@@ -45,24 +115,29 @@ public class AuthProviderManager {
      */
     public Session login(String username, String password) {
 
-        logger.info("Login attempt for user: " + username);
+        logger.log(Level.INFO, "Login attempt for user: {0}", username);
 
         User user = userDAO.findByUsername(username);
 
         if (user == null) {
-            logger.warning("Login failed: user '" + username + "' not found.");
+            FAILED_LOGIN_LOG.log("Login failed: user ''{0}'' not found.", username);
             return null;
         }
 
         if (user.getPassword().equals(password) == false) {
-            logger.warning("Login failed: invalid credentials for user '" + username + "'");
+            FAILED_LOGIN_LOG.log("Login failed: invalid credentials for user ''{0}''", username);
             throw new InvalidParameterException("Invalid credentials for user '" + username + "'");
         }
 
+        if (tokenCodec != null) {
+            logger.log(Level.INFO, "Signed token issued for user: {0}", username);
+            return login(tokenCodec.issue(user.getId()));
+        }
+
         synchronized (user) {
-            Session session = sessionDAO.findByUserId(user.getId());
+            Session session = sessions.findByUserId(user.getId());
             if (session != null) {
-                logger.info("Existing session reused for user: " + username);
+                logger.log(Level.INFO, "Existing session reused for user: {0}", username);
                 return session;
             }
 
@@ -72,13 +147,33 @@ public class AuthProviderManager {
             session.setToken(token);
             session.setCreatedAt(LocalDateTime.now());
 
-            sessionDAO.insert(session);
-            logger.info("New session created for user: " + username);
+            sessions.register(session);
+            persist(session);
+            logger.log(Level.INFO, "New session created for user: {0}", username);
 
             return session;
         }
     }
 
+    /**
+     * Stores a new session in the database in the background, replacing the
+     * row of an earlier session of the same user that has not been removed
+     * yet.
+     *
+     * @param session the session to store
+     */
+    private void persist(Session session) {
+        sessionWriter.execute(() -> {
+            Session stale = sessionDAO.findByUserId(session.getUserId());
+
+            if (stale != null) {
+                sessionDAO.delete(stale.getToken());
+            }
+
+            sessionDAO.insert(session);
+        });
+    }
+
     /**
      * Registers a new user with the provided username and password.
      *
@@ -88,7 +183,7 @@ public class AuthProviderManager {
      */
     public boolean register(String username, String password) {
 
-        logger.info("Registration attempt for user: " + username);
+        logger.log(Level.INFO, "Registration attempt for user: {0}", username);
 
         User user = new User();
 
@@ -98,9 +193,9 @@ public class AuthProviderManager {
         boolean result = userDAO.insert(user);
 
         if (result) {
-            logger.info("User '" + username + "' registered successfully.");
+            logger.log(Level.INFO, "User ''{0}'' registered successfully.", username);
         } else {
-            logger.warning("Registration failed for user: " + username);
+            logger.log(Level.WARNING, "Registration failed for user: {0}", username);
         }
 
         return result;
@@ -112,27 +207,44 @@ public class AuthProviderManager {
      * @param token the session token to invalidate
      */
     public void logout(String token) {
-        logger.info("Logging out session with token: " + token);
-        sessionDAO.delete(token);
+        logger.log(Level.INFO, "Logging out session with token: {0}", token);
+
+        if (tokenCodec != null) {
+            revoke(token);
+            return;
+        }
+
+        if (sessions.remove(token) != null) {
+            sessionWriter.execute(() -> sessionDAO.delete(token));
+        }
     }
 
     /**
-     * Validates a session token.
-     * Also cleans up expired sessions older than 15 minutes.
+     * Adds a signed token to the deny-list until it expires.
      *
-     * @param token the session token to validate
-     * @return true if the token corresponds to a valid session; false otherwise
+     * @param token the signed token to revoke
      */
-    public boolean validateToken(String token) {
-        logger.fine("Validating session token: " + token);
+    private void revoke(String token) {
+        SignedTokenCodec.Claims claims = tokenCodec.verify(token);
 
-        sessionDAO.deleteExpired(Duration.ofMinutes(15));
-        Session session = sessionDAO.findByToken(token);
+        if (claims == null || revokedTokens.putIfAbsent(token, Boolean.TRUE) != null) {
+            return;
+        }
 
-        boolean valid = session != null;
-        logger.fine("Session token '" + token + "' is " + (valid ? "valid" : "invalid"));
+        long remaining = claims.getExpiresAt() - System.currentTimeMillis();
+        timer.schedule(() -> revokedTokens.remove(token), remaining, TimeUnit.MILLISECONDS);
+    }
 
-        return session != null;
+    /**
+     * Validates a session token against the in-memory session registry, or by
+     * its signature in signed token mode.
+     * Sessions expire {@link #SESSION_TTL} after login.
+     *
+     * @param token the session token to validate
+     * @return true if the token corresponds to a valid session; false otherwise
+     */
+    public boolean validateToken(String token) {
+        return findSession(token) != null;
     }
 
     /**
@@ -143,13 +255,44 @@ public class AuthProviderManager {
      * @return the corresponding {@link Session} if token is valid; null otherwise
      */
     public Session login(String token) {
-        logger.fine("Login via token: " + token);
-        Session session = sessionDAO.findByToken(token);
+        Session session = findSession(token);
 
         if (session == null) {
-            logger.warning("Session not found for token: " + token);
+            UNKNOWN_TOKEN_LOG.log("Session not found for token: {0}", token);
+        }
+
+        return session;
+    }
+
+    /**
+     * Looks up the session of a token without touching the database.
+     *
+     * @param token the session token
+     * @return the session if the token is valid; null otherwise
+     */
+    private Session findSession(String token) {
+        return tokenCodec != null ? verify(token) : sessions.findByToken(token);
+    }
+
+    /**
+     * Builds the session described by a signed token.
+     *
+     * @param token the signed token
+     * @return the session if the token is genuine, unexpired and not revoked;
+     *         null otherwise
+     */
+    private Session verify(String token) {
+        SignedTokenCodec.Claims claims = tokenCodec.verify(token);
+
+        if (claims == null || revokedTokens.containsKey(token)) {
+            return null;
         }
 
+        Session session = new Session();
+        session.setUserId(claims.getUserId());
+        session.setToken(token);
+        session.setCreatedAt(LocalDateTime.ofInstant(Instant.ofEpochMilli(claims.getIssuedAt()), ZoneId.systemDefault()));
+
         return session;
     }
 
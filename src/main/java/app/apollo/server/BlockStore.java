@@ -0,0 +1,75 @@
+package app.apollo.server;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Storage engine for block payloads.
+ * <p>
+ * Payloads are addressed by a content key, typically the content hash of the
+ * data, so identical blocks are stored once no matter how many files refer to
+ * them. Reference tracking lives in the {@code blocks} table; a store only
+ * keeps bytes and never decides on its own when they can be dropped.
+ * </p>
+ */
+public interface BlockStore {
+
+    /**
+     * Stores a payload under the given key unless it is already present.
+     *
+     * @param key  Content key of the payload.
+     * @param data Payload bytes.
+     * @return {@code true} if the payload was written, {@code false} if it was
+     *         already stored.
+     * @throws IOException If the payload cannot be written.
+     */
+    public boolean put(String key, byte[] data) throws IOException;
+
+    /**
+     * Checks whether a payload is stored.
+     *
+     * @param key Content key of the payload.
+     * @return {@code true} if the payload is present.
+     * @throws IOException If the store cannot be queried.
+     */
+    public boolean contains(String key) throws IOException;
+
+    /**
+     * Reads a payload.
+     *
+     * @param key Content key of the payload.
+     * @return Payload bytes.
+     * @throws IOException If the payload is missing or cannot be read.
+     */
+    public byte[] get(String key) throws IOException;
+
+    /**
+     * Returns the stored size of a payload, which is smaller than the block
+     * size for compressed payloads.
+     *
+     * @param key Content key of the payload.
+     * @return Size in bytes.
+     * @throws IOException If the payload is missing.
+     */
+    public long size(String key) throws IOException;
+
+    /**
+     * Writes a payload to a channel, avoiding copies through the heap where
+     * the implementation allows it.
+     *
+     * @param key    Content key of the payload.
+     * @param target Channel receiving the payload.
+     * @return Number of bytes written.
+     * @throws IOException If the payload cannot be read or written.
+     */
+    public long transferTo(String key, WritableByteChannel target) throws IOException;
+
+    /**
+     * Removes a payload.
+     *
+     * @param key Content key of the payload.
+     * @return {@code true} if a payload was removed.
+     * @throws IOException If the payload cannot be removed.
+     */
+    public boolean delete(String key) throws IOException;
+}
@@ -1,6 +1,7 @@
 package app.apollo.server;
 
 import app.apollo.common.Block;
+import app.apollo.common.ChunkingMode;
 
 /***
  * BlockValidator is a interface refering to block validation strategy.
@@ -9,10 +10,36 @@ import app.apollo.common.Block;
 */
 public interface BlockValidator {
 
+    /***
+     *  Decodes the data of a block once, so that the same bytes can be
+     *  validated and then stored.
+     * @param block Block to decode
+     * @param blockSize Number of bytes that blocks of the target file store;
+     *                  larger claimed sizes are not decoded
+     * @return Decoded data, or null if the block carries no data or it cannot
+     *         be decoded
+     */
+    public byte[] decode(Block block, Integer blockSize);
+
     /***
      *  Method checks if checksum and fingerprint is valid for given data.
      * @param block Block that needs validation
+     * @param data Data of the block as returned by {@link #decode(Block, Integer)}
+     * @param blockSize Number of bytes that blocks of the target file store;
+     *                  the upper bound for chunks of content-chunked files
+     * @param chunkingMode How the target file is split into blocks
+     * @return Status of block validation
+     */
+    public boolean isBlockValid(Block block, byte[] data, Integer blockSize, ChunkingMode chunkingMode);
+
+    /***
+     *  Decodes and validates a block.
+     * @param block Block that needs validation
+     * @param blockSize Number of bytes that blocks of the target file store
+     * @param chunkingMode How the target file is split into blocks
      * @return Status of block validation
      */
-    public boolean isBlockValid(Block block);
+    public default boolean isBlockValid(Block block, Integer blockSize, ChunkingMode chunkingMode) {
+        return isBlockValid(block, block != null ? decode(block, blockSize) : null, blockSize, chunkingMode);
+    }
 }
@@ -0,0 +1,357 @@
+package app.apollo.server;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import app.apollo.common.Block;
+import app.apollo.common.BlockCodec;
+import app.apollo.common.ChunkingMode;
+import app.apollo.common.TransferTicket;
+
+/**
+ * Dedicated NIO endpoint that moves raw block payloads outside of RMI.
+ * <p>
+ * Tickets are issued through {@link FileProvider} and redeemed here by
+ * sending the ticket id as the first {@link TransferTicket#ID_LENGTH} bytes
+ * of a connection. Downloads are served with {@code FileChannel.transferTo},
+ * so block data goes from the page cache to the socket without being copied
+ * into the Java heap or serialized. Uploads are read straight from the
+ * socket, validated and stored through {@link FileProviderManager}.
+ * </p>
+ *
+ * <p>
+ * Every frame starts with the block index ({@code long}), payload length
+ * ({@code int}), decoded block size ({@code int}) and {@link BlockCodec} id
+ * ({@code byte}); an index of {@link #END_OF_STREAM} terminates the stream.
+ * Compressed payloads travel compressed in both directions.
+ * </p>
+ *
+ * <p>
+ * Uploads are stored in batches while the stream is still being read. If a
+ * later frame is rejected, the batches stored before it stay stored and the
+ * reply says up to which frame, so that the client can resume from there.
+ * </p>
+ */
+public class BulkTransferServer implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(BulkTransferServer.class.getName());
+
+    /** Block index that marks the end of a frame stream. */
+    static final long END_OF_STREAM = -1L;
+
+    /** Size in bytes of the index, length, size and codec prefix of every frame. */
+    static final int FRAME_HEADER_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES + Byte.BYTES;
+
+    /** Time after which an unredeemed ticket is discarded. */
+    static final long TICKET_TTL_MILLIS = 30_000;
+
+    /** Status byte sent after a successful upload. */
+    static final byte STATUS_OK = 1;
+
+    /** Status byte sent after a rejected upload. */
+    static final byte STATUS_REJECTED = 0;
+
+    /**
+     * Status byte sent after an upload that was rejected once earlier batches
+     * were stored; followed by the index ({@code long}) of the last stored
+     * frame.
+     */
+    static final byte STATUS_PARTIAL = 2;
+
+    /** Ticket that has been issued but not yet redeemed. */
+    private static final class PendingTransfer {
+        private final Integer userId;
+        private final TransferTicket ticket;
+
+        private PendingTransfer(Integer userId, TransferTicket ticket) {
+            this.userId = userId;
+            this.ticket = ticket;
+        }
+    }
+
+    private final FileProviderManager fileManager;
+
+    private final BlockValidator blockValidator;
+
+    private final ServerSocketChannel serverChannel;
+
+    private final ExecutorService workers;
+
+    private final Map<String, PendingTransfer> tickets = new ConcurrentHashMap<>();
+
+    private final String host;
+
+    private volatile boolean running = true;
+
+    /**
+     * Opens the bulk transfer endpoint and starts accepting connections.
+     *
+     * @param fileManager Manager used to read and store blocks.
+     * @param host        Host name advertised in issued tickets.
+     * @param port        Port to listen on; {@code 0} picks a free port.
+     * @throws IOException If the server socket cannot be opened.
+     */
+    public BulkTransferServer(FileProviderManager fileManager, String host, int port) throws IOException {
+        this.fileManager = fileManager;
+        this.blockValidator = new DataBlockValidator();
+        this.host = host;
+
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "bulk-transfer-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Thread acceptor = new Thread(this::acceptLoop, "bulk-transfer-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** @return the port the endpoint is listening on */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Issues a single-use ticket for the given user.
+     *
+     * @param userId    ID of the user the transfer is performed for.
+     * @param direction Direction of the transfer.
+     * @param filename  Name of the file.
+     * @param fromIndex Index of the first block.
+     * @param count     Number of blocks.
+     * @return The issued ticket.
+     */
+    public TransferTicket issueTicket(Integer userId, TransferTicket.Direction direction, String filename,
+            long fromIndex, int count) {
+
+        long now = System.currentTimeMillis();
+        tickets.values().removeIf(pending -> pending.ticket.getExpiresAt() < now);
+
+        TransferTicket ticket = new TransferTicket(UUID.randomUUID().toString(), host, getPort(), direction, filename,
+                fromIndex, count, now + TICKET_TTL_MILLIS);
+
+        tickets.put(ticket.getId(), new PendingTransfer(userId, ticket));
+
+        return ticket;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                workers.execute(() -> handle(channel));
+            } catch (IOException e) {
+                if (running) {
+                    logger.log(Level.WARNING, "Failed to accept bulk transfer connection", e);
+                }
+            }
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (SocketChannel socket = channel) {
+            socket.socket().setTcpNoDelay(true);
+
+            ByteBuffer idBuffer = ByteBuffer.allocate(TransferTicket.ID_LENGTH);
+            readFully(socket, idBuffer);
+            String id = new String(idBuffer.array(), StandardCharsets.US_ASCII);
+
+            PendingTransfer pending = tickets.remove(id);
+
+            if (pending == null || pending.ticket.getExpiresAt() < System.currentTimeMillis()) {
+                logger.warning("Rejected bulk transfer with unknown or expired ticket");
+                return;
+            }
+
+            TransferTicket ticket = pending.ticket;
+
+            if (ticket.getDirection() == TransferTicket.Direction.DOWNLOAD) {
+                fileManager.transferBlocks(pending.userId, ticket.getFilename(), ticket.getFromIndex(),
+                        ticket.getCount(), socket);
+            } else {
+                receiveBlocks(pending.userId, ticket.getFilename(), socket);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Bulk transfer failed", e);
+        }
+    }
+
+    private void receiveBlocks(Integer userId, String filename, SocketChannel socket) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        ByteBuffer offset = ByteBuffer.allocate(Long.BYTES);
+        List<Block> batch = new ArrayList<>();
+        List<byte[]> decoded = new ArrayList<>();
+        boolean accepted = true;
+        long lastCommitted = END_OF_STREAM;
+
+        int blockSize = fileManager.getBlockSize(userId, filename);
+        ChunkingMode chunkingMode = fileManager.getChunkingMode(userId, filename);
+        int maxBatchBlocks = FileProvider.maxBatchBlocks(blockSize);
+
+        while (true) {
+            header.clear();
+            readFully(socket, header);
+            header.flip();
+
+            long sequence = header.getLong();
+            int length = header.getInt();
+            int size = header.getInt();
+            byte codec = header.get();
+
+            if (sequence == END_OF_STREAM) {
+                break;
+            }
+
+            if (length <= 0 || length > blockSize || size <= 0 || size > blockSize) {
+                accepted = false;
+                break;
+            }
+
+            Block block = new Block();
+            block.setUserId(userId);
+            block.setSequenceNumber(sequence);
+            block.setFingerprint(readString(socket));
+            block.setChecksum(readString(socket));
+
+            offset.clear();
+            readFully(socket, offset);
+            offset.flip();
+            block.setOffset(offset.getLong());
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(socket, payload);
+            block.setData(payload.array());
+            block.setSize(size);
+
+            try {
+                block.setCodec(BlockCodec.fromId(codec));
+            } catch (IllegalArgumentException e) {
+                accepted = false;
+                break;
+            }
+
+            byte[] data = blockValidator.decode(block, blockSize);
+
+            if (!blockValidator.isBlockValid(block, data, blockSize, chunkingMode)) {
+                accepted = false;
+                break;
+            }
+
+            batch.add(block);
+            decoded.add(data);
+
+            if (batch.size() >= maxBatchBlocks) {
+                accepted = store(userId, filename, batch, decoded);
+
+                if (!accepted) {
+                    break;
+                }
+
+                lastCommitted = sequence;
+                batch = new ArrayList<>();
+                decoded = new ArrayList<>();
+            }
+        }
+
+        if (accepted && !batch.isEmpty()) {
+            accepted = store(userId, filename, batch, decoded);
+        }
+
+        ByteBuffer status = ByteBuffer.allocate(1 + Long.BYTES);
+
+        if (accepted) {
+            status.put(STATUS_OK);
+        } else if (lastCommitted == END_OF_STREAM) {
+            status.put(STATUS_REJECTED);
+        } else {
+            status.put(STATUS_PARTIAL);
+            status.putLong(lastCommitted);
+        }
+
+        status.flip();
+        while (status.hasRemaining()) {
+            socket.write(status);
+        }
+    }
+
+    /**
+     * Uploads one batch of received blocks.
+     *
+     * @return {@code false} if the batch was rejected or could not be stored.
+     */
+    private boolean store(Integer userId, String filename, List<Block> batch, List<byte[]> decoded) {
+        try {
+            return fileManager.uploadBlocks(userId, filename, batch, decoded);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to store bulk upload of '" + filename + "'", e);
+            return false;
+        }
+    }
+
+    private static String readString(ReadableByteChannel channel) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Short.BYTES);
+        readFully(channel, length);
+        length.flip();
+
+        int size = length.getShort();
+        if (size < 0 || size > Byte.MAX_VALUE) {
+            throw new IOException("Malformed frame string of length " + size);
+        }
+
+        ByteBuffer value = ByteBuffer.allocate(size);
+        readFully(channel, value);
+        return new String(value.array(), StandardCharsets.US_ASCII);
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Bulk transfer connection closed");
+            }
+        }
+    }
+
+    /**
+     * Writes a frame header to the given buffer.
+     *
+     * @param buffer   Buffer with at least {@link #FRAME_HEADER_SIZE} bytes
+     *                 remaining.
+     * @param sequence Block index or {@link #END_OF_STREAM}.
+     * @param length   Length of the payload that follows.
+     * @param size     Size of the block after decoding the payload.
+     * @param codec    Encoding of the payload.
+     */
+    static void putFrameHeader(ByteBuffer buffer, long sequence, int length, int size, BlockCodec codec) {
+        buffer.putLong(sequence);
+        buffer.putInt(length);
+        buffer.putInt(size);
+        buffer.put(codec.getId());
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverChannel.close();
+        workers.shutdownNow();
+    }
+}
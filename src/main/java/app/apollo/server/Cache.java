@@ -24,6 +24,31 @@ public interface Cache<K,V> {
      */
     public Optional<V> get(K key);
 
+    /***
+     * Returns an element that refers to given key, loading and caching it on a miss.
+     * Implementations that refresh entries keep the loader to reload the element later.
+     * @param key Key of some element.
+     * @param loader Loader that computes the element when it is not cached.
+     * @return Optionally returns found or loaded element; empty if the loader has no value.
+     */
+    public default Optional<V> get(K key, CacheLoader<? super K, ? extends V> loader) {
+        Optional<V> cached = get(key);
+
+        if (cached.isPresent()) {
+            return cached;
+        }
+
+        V value = loader.load(key);
+
+        if (value == null) {
+            return Optional.empty();
+        }
+
+        put(key, value);
+
+        return Optional.of(value);
+    }
+
     /***
      * Removes element from cache that is coupled with given key.
      * @param key Key that refers to some element in cache.
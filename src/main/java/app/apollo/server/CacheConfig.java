@@ -0,0 +1,94 @@
+package app.apollo.server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of a {@link TinyLfuCache}.
+ * <p>
+ * Besides the capacity, entries can expire a fixed time after they were
+ * written or last read, and entries that were loaded through a
+ * {@link CacheLoader} can be reloaded in the background once they reach a
+ * certain age, so that readers of hot keys keep getting the cached value
+ * instead of waiting for a reload. A duration of {@code 0} disables the
+ * respective policy.
+ * </p>
+ */
+public class CacheConfig {
+
+    /** Largest number of entries kept */
+    private int capacity = 100;
+
+    /** Lifetime of an entry after it was written, in nanoseconds */
+    private long expireAfterWriteNanos;
+
+    /** Lifetime of an entry after it was last read or written, in nanoseconds */
+    private long expireAfterAccessNanos;
+
+    /** Age after which a read triggers a background reload, in nanoseconds */
+    private long refreshAfterWriteNanos;
+
+    /** @return the largest number of entries kept */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the largest number of entries kept.
+     *
+     * @param capacity Number of entries, at least one.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be positive.");
+        }
+        this.capacity = capacity;
+    }
+
+    /** @return the lifetime after a write in nanoseconds; 0 if disabled */
+    public long getExpireAfterWriteNanos() {
+        return expireAfterWriteNanos;
+    }
+
+    /**
+     * Sets how long an entry stays valid after it was written.
+     *
+     * @param duration Lifetime; {@code 0} disables the policy.
+     * @param unit     Unit of {@code duration}.
+     */
+    public void setExpireAfterWrite(long duration, TimeUnit unit) {
+        this.expireAfterWriteNanos = Math.max(0, unit.toNanos(duration));
+    }
+
+    /** @return the lifetime after an access in nanoseconds; 0 if disabled */
+    public long getExpireAfterAccessNanos() {
+        return expireAfterAccessNanos;
+    }
+
+    /**
+     * Sets how long an entry stays valid after it was last read or written.
+     *
+     * @param duration Lifetime; {@code 0} disables the policy.
+     * @param unit     Unit of {@code duration}.
+     */
+    public void setExpireAfterAccess(long duration, TimeUnit unit) {
+        this.expireAfterAccessNanos = Math.max(0, unit.toNanos(duration));
+    }
+
+    /** @return the age that triggers a background reload in nanoseconds; 0 if disabled */
+    public long getRefreshAfterWriteNanos() {
+        return refreshAfterWriteNanos;
+    }
+
+    /**
+     * Sets the age after which reading an entry reloads it in the background.
+     * The read still returns the cached value. Only entries that were loaded
+     * through a {@link CacheLoader} are refreshed; the period should be
+     * shorter than the expiry so that hot entries never expire.
+     *
+     * @param duration Age of the entry; {@code 0} disables refreshing.
+     * @param unit     Unit of {@code duration}.
+     */
+    public void setRefreshAfterWrite(long duration, TimeUnit unit) {
+        this.refreshAfterWriteNanos = Math.max(0, unit.toNanos(duration));
+    }
+}
@@ -0,0 +1,16 @@
+package app.apollo.server;
+
+/***
+ * Computes values for a {@link Cache} on a miss and when entries are refreshed.
+ */
+@FunctionalInterface
+public interface CacheLoader<K, V> {
+
+    /***
+     * Loads the value for a key, typically from the database.
+     * @param key Key whose value is needed.
+     * @return Current value, or null if the key has no value.
+     */
+    public V load(K key);
+
+}
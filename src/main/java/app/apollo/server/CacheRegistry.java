@@ -0,0 +1,245 @@
+package app.apollo.server;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Divides one memory budget among all DAO caches.
+ * <p>
+ * Every cache is registered with an estimate of the heap an entry takes, and
+ * its capacity is its share of the budget divided by that weight. New caches
+ * start with an equal share. A background task then compares the caches
+ * periodically and moves a slice of the budget per round: caches that are
+ * full and keep missing receive it, taken from the cache that either does not
+ * use its share or earns the fewest hits per byte. No cache drops below a
+ * minimum share, so a cache that is idle for a while can recover quickly.
+ * </p>
+ * <p>
+ * Caches are registered by name and a name maps to one cache, so every DAO
+ * instance created with the same registry shares the same caches. Those
+ * caches publish their changes on an {@link InvalidationBus}; registries that
+ * share a bus therefore also keep each other's caches coherent.
+ * </p>
+ */
+public class CacheRegistry implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(CacheRegistry.class.getName());
+
+    /** Share of the budget moved in one rebalancing round. */
+    static final double REBALANCE_STEP = 0.05;
+
+    /** Smallest share of an equal split a cache keeps. */
+    static final double MIN_SHARE = 0.25;
+
+    /** Fill ratio at which a cache counts as full. */
+    static final double FULL_RATIO = 0.95;
+
+    /** Pause between two rebalancing rounds, in seconds. */
+    static final long REBALANCE_INTERVAL_SECONDS = 30;
+
+    /** Registered cache and its statistics at the previous round. */
+    private static final class Registration {
+        private final String name;
+        private final TinyLfuCache<?, ?> cache;
+        private final Cache<?, ?> shared;
+        private final long entryWeight;
+        private long budget;
+        private long lastHits;
+        private long lastMisses;
+
+        private Registration(String name, TinyLfuCache<?, ?> cache, Cache<?, ?> shared, long entryWeight) {
+            this.name = name;
+            this.cache = cache;
+            this.shared = shared;
+            this.entryWeight = entryWeight;
+        }
+
+        private void apply() {
+            cache.setCapacity((int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / entryWeight)));
+        }
+    }
+
+    private final long budget;
+
+    /** Registrations by cache name; guarded by this */
+    private final Map<String, Registration> registrations = new LinkedHashMap<>();
+
+    private final InvalidationBus bus;
+
+    private final ScheduledExecutorService rebalancer;
+
+    /**
+     * Constructs an empty registry with its own invalidation bus and starts
+     * periodic rebalancing.
+     *
+     * @param budget Heap in bytes that all registered caches may use together.
+     */
+    public CacheRegistry(long budget) {
+        this(budget, new InvalidationBus());
+    }
+
+    /**
+     * Constructs an empty registry and starts periodic rebalancing.
+     *
+     * @param budget Heap in bytes that all registered caches may use together.
+     * @param bus    Bus on which the caches publish their changes.
+     */
+    public CacheRegistry(long budget, InvalidationBus bus) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("Cache budget must be positive.");
+        }
+
+        this.budget = budget;
+        this.bus = bus;
+        this.rebalancer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-rebalancer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.rebalancer.scheduleWithFixedDelay(this::rebalance, REBALANCE_INTERVAL_SECONDS,
+                REBALANCE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the cache registered under a name, creating it on first use.
+     * A new cache's capacity is managed by the registry, and the budget is
+     * split equally among all registered caches again.
+     *
+     * @param name        Name of the cache; also its invalidation topic.
+     * @param config      Expiry and refresh settings; the capacity is ignored.
+     *                    Only used when the cache is created.
+     * @param entryWeight Estimated heap taken by one entry, in bytes.
+     * @return The shared cache.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <K, V> Cache<K, V> register(String name, CacheConfig config, long entryWeight) {
+        Registration existing = registrations.get(name);
+
+        if (existing != null) {
+            return (Cache<K, V>) existing.shared;
+        }
+
+        TinyLfuCache<K, V> cache = new TinyLfuCache<>(config);
+        Cache<K, V> shared = new CoherentCache<>(cache, bus, name);
+        registrations.put(name, new Registration(name, cache, shared, Math.max(1, entryWeight)));
+
+        for (Registration registration : registrations.values()) {
+            registration.budget = budget / registrations.size();
+            registration.apply();
+        }
+
+        return shared;
+    }
+
+    /**
+     * Creates a cache, registered with the given registry if there is one.
+     *
+     * @param caches      Registry, or {@code null} for a cache with the fixed
+     *                    capacity of {@code config}.
+     * @param name        Name used in statistics.
+     * @param config      Capacity, expiry and refresh settings.
+     * @param entryWeight Estimated heap taken by one entry, in bytes.
+     * @return The shared cache, or a new private one without a registry.
+     */
+    static <K, V> Cache<K, V> create(CacheRegistry caches, String name, CacheConfig config,
+            long entryWeight) {
+        return caches != null ? caches.register(name, config, entryWeight) : new TinyLfuCache<>(config);
+    }
+
+    /**
+     * Moves one slice of the budget from the cache that benefits least to the
+     * full cache that missed most since the previous round.
+     */
+    synchronized void rebalance() {
+        if (registrations.size() < 2) {
+            return;
+        }
+
+        long step = (long) (budget * REBALANCE_STEP);
+        long minimum = (long) (budget / registrations.size() * MIN_SHARE);
+
+        Registration receiver = null;
+        long receiverMisses = 0;
+        Registration donor = null;
+        double donorValue = Double.MAX_VALUE;
+
+        for (Registration registration : registrations.values()) {
+            long hits = registration.cache.getHitCount();
+            long misses = registration.cache.getMissCount();
+            long intervalHits = hits - registration.lastHits;
+            long intervalMisses = misses - registration.lastMisses;
+            registration.lastHits = hits;
+            registration.lastMisses = misses;
+
+            boolean full = registration.cache.size() >= registration.cache.getCapacity() * FULL_RATIO;
+
+            if (full && intervalMisses > receiverMisses) {
+                receiver = registration;
+                receiverMisses = intervalMisses;
+            }
+
+            if (registration.budget - step >= minimum) {
+                double value = full ? (double) intervalHits / registration.budget : -1;
+                if (value < donorValue) {
+                    donor = registration;
+                    donorValue = value;
+                }
+            }
+        }
+
+        if (receiver == null || donor == null || receiver == donor) {
+            return;
+        }
+
+        donor.budget -= step;
+        receiver.budget += step;
+        donor.apply();
+        receiver.apply();
+
+        logger.fine("Moved " + step + " cache bytes from " + donor.name + " to " + receiver.name);
+    }
+
+    /**
+     * Describes every registered cache.
+     *
+     * @return One line per cache with its budget, capacity, size and hit ratio.
+     */
+    public synchronized List<String> describe() {
+        List<String> lines = new ArrayList<>();
+
+        for (Registration registration : registrations.values()) {
+            TinyLfuCache<?, ?> cache = registration.cache;
+            long hits = cache.getHitCount();
+            long lookups = hits + cache.getMissCount();
+
+            lines.add(String.format("%s budget=%d capacity=%d size=%d hitRatio=%.3f", registration.name,
+                    registration.budget, cache.getCapacity(), cache.size(),
+                    lookups == 0 ? 0.0 : (double) hits / lookups));
+        }
+
+        return lines;
+    }
+
+    /** @return the bus on which the registered caches publish their changes */
+    public InvalidationBus getInvalidationBus() {
+        return bus;
+    }
+
+    /** @return the heap in bytes shared by all registered caches */
+    public long getBudget() {
+        return budget;
+    }
+
+    /** Stops rebalancing. The caches keep their current capacities. */
+    @Override
+    public void close() {
+        rebalancer.shutdownNow();
+    }
+}
@@ -0,0 +1,92 @@
+package app.apollo.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link BlockStore} that serves popular payloads from an
+ * {@link OffHeapBlockCache} in front of another store.
+ * <p>
+ * Payloads are cached when they are read, not when they are written, so only
+ * blocks that are actually downloaded take up cache memory. Payloads never
+ * change under a key, so cached copies only have to be dropped when a
+ * payload is deleted.
+ * </p>
+ * <p>
+ * A read racing with a delete may still cache the deleted payload. Serving
+ * it is harmless, but only the wrapped store decides whether a payload
+ * exists, so that a cached copy never stands in for a stored one.
+ * </p>
+ */
+public class CachingBlockStore implements BlockStore {
+
+    private final BlockStore delegate;
+
+    private final OffHeapBlockCache cache;
+
+    /**
+     * Wraps a store.
+     *
+     * @param delegate Store that holds the payloads.
+     * @param cache    Cache for payloads read from {@code delegate}.
+     */
+    public CachingBlockStore(BlockStore delegate, OffHeapBlockCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public boolean put(String key, byte[] data) throws IOException {
+        return delegate.put(key, data);
+    }
+
+    @Override
+    public boolean contains(String key) throws IOException {
+        return delegate.contains(key);
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        byte[] data = cache.get(key);
+
+        if (data == null) {
+            data = delegate.get(key);
+            cache.put(key, data);
+        }
+
+        return data;
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        long size = cache.size(key);
+        return size >= 0 ? size : delegate.size(key);
+    }
+
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws IOException {
+        long transferred = cache.transferTo(key, target);
+
+        if (transferred >= 0) {
+            return transferred;
+        }
+
+        byte[] data = delegate.get(key);
+        cache.put(key, data);
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+
+        return data.length;
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        cache.invalidate(key);
+        return delegate.delete(key);
+    }
+}
@@ -0,0 +1,167 @@
+package app.apollo.server;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * {@link Cache} that keeps itself coherent with other caches of the same topic
+ * through an {@link InvalidationBus}.
+ * <p>
+ * Every write, removal and clear is applied to the wrapped cache and
+ * published, so the other caches drop the affected keys and reload them from
+ * the database on their next miss. Writes are published too, because a write
+ * usually follows an update that makes other copies stale. Entries loaded on
+ * a miss are not published, since loading changes no data.
+ * </p>
+ */
+public class CoherentCache<K, V> implements Cache<K, V> {
+
+    private final Cache<K, V> local;
+
+    private final InvalidationBus bus;
+
+    private final String topic;
+
+    /**
+     * Wraps a cache and subscribes it to a topic.
+     *
+     * @param local Cache that holds the entries.
+     * @param bus   Bus shared by all caches of the topic.
+     * @param topic Topic of the cache.
+     */
+    public CoherentCache(Cache<K, V> local, InvalidationBus bus, String topic) {
+        this.local = local;
+        this.bus = bus;
+        this.topic = topic;
+        bus.subscribe(topic, this);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        local.put(key, value);
+        bus.publish(topic, this, key);
+    }
+
+    @Override
+    public Optional<V> get(K key) {
+        return local.get(key);
+    }
+
+    @Override
+    public Optional<V> get(K key, CacheLoader<? super K, ? extends V> loader) {
+        return local.get(key, loader);
+    }
+
+    @Override
+    public void remove(K key) {
+        local.remove(key);
+        bus.publish(topic, this, key);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return local.isEmpty();
+    }
+
+    /**
+     * Returns a view of the cached entries. Removing through the view also
+     * removes the keys from the other caches of the topic.
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> entries = local.entrySet();
+
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                Iterator<Entry<K, V>> iterator = entries.iterator();
+
+                return new Iterator<Entry<K, V>>() {
+                    private Entry<K, V> current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        current = iterator.next();
+                        return current;
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                        bus.publish(topic, CoherentCache.this, current.getKey());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    /**
+     * Returns a view of the cached values. Removing through the view also
+     * removes the keys from the other caches of the topic.
+     */
+    @Override
+    public Collection<V> values() {
+        Set<Entry<K, V>> entries = entrySet();
+
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                Iterator<Entry<K, V>> iterator = entries.iterator();
+
+                return new Iterator<V>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public V next() {
+                        return iterator.next().getValue();
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    @Override
+    public void clear() {
+        local.clear();
+        bus.publishAll(topic, this);
+    }
+
+    /** Drops a key on behalf of another cache of the topic. */
+    @SuppressWarnings("unchecked")
+    void evict(Object key) {
+        local.remove((K) key);
+    }
+
+    /** Drops all entries on behalf of another cache of the topic. */
+    void evictAll() {
+        local.clear();
+    }
+}
@@ -0,0 +1,41 @@
+package app.apollo.server;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Source of database connections for the DAO implementations.
+ * <p>
+ * DAOs borrow a connection for every operation and close it when done, which
+ * hands it back to the provider instead of closing the underlying connection.
+ * Read-only operations borrow a reader; anything that modifies the database,
+ * including whole transactions, borrows the writer.
+ * </p>
+ */
+public interface ConnectionProvider extends AutoCloseable {
+
+    /**
+     * Borrows a connection for read-only statements.
+     *
+     * @return A connection that must be closed after use.
+     * @throws SQLException If no connection can be obtained.
+     */
+    public Connection getReader() throws SQLException;
+
+    /**
+     * Borrows the connection used for writes. Only one thread holds the
+     * writer at a time; the same thread may borrow it again while holding it.
+     *
+     * @return A connection that must be closed after use.
+     * @throws SQLException If no connection can be obtained.
+     */
+    public Connection getWriter() throws SQLException;
+
+    /**
+     * Closes all underlying connections.
+     *
+     * @throws SQLException If a connection cannot be closed.
+     */
+    @Override
+    public void close() throws SQLException;
+}
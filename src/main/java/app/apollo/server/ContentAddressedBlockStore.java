@@ -0,0 +1,246 @@
+package app.apollo.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * {@link BlockStore} that keeps every distinct payload in its own file named
+ * after its content hash.
+ * <p>
+ * Files are spread over two levels of directories taken from the leading hex
+ * digits of the key ({@code <root>/ab/cd/abcd...}) so that no directory grows
+ * too large. New payloads are written to a temporary file first and moved into
+ * place atomically, so readers never observe partially written blocks.
+ * </p>
+ * <p>
+ * Unless the store was opened without {@code forceWrites}, the temporary file
+ * is forced to disk before the move and the directories whose entries
+ * changed are forced after it, so a stored payload survives a crash once
+ * {@link #put(String, byte[])} returns and its block row can refer to it.
+ * </p>
+ * <p>
+ * Given a {@link MappedRegionCache}, reads go through memory mappings of
+ * recently used payload files instead of opening and reading the file each
+ * time.
+ * </p>
+ */
+public class ContentAddressedBlockStore implements BlockStore {
+
+    /** Length of a hexadecimal SHA-256 key. */
+    static final int KEY_LENGTH = 64;
+
+    /** Directory that holds all payload files */
+    private final Path root;
+
+    /** Directory for payloads that are still being written */
+    private final Path staging;
+
+    /** Mappings of payload files, or null to read files directly */
+    private final MappedRegionCache mappings;
+
+    /** Whether every stored payload is forced to disk before put returns */
+    private final boolean forceWrites;
+
+    /**
+     * Constructs a store rooted at the given directory.
+     *
+     * @param root Directory under which payloads are kept.
+     */
+    public ContentAddressedBlockStore(Path root) {
+        this(root, null);
+    }
+
+    /**
+     * Constructs a store that reads payloads through memory mappings.
+     *
+     * @param root     Directory under which payloads are kept.
+     * @param mappings Cache of mappings, or {@code null} to read files
+     *                 directly.
+     */
+    public ContentAddressedBlockStore(Path root, MappedRegionCache mappings) {
+        this(root, mappings, true);
+    }
+
+    /**
+     * Constructs a store that optionally forces every stored payload to disk.
+     *
+     * @param root        Directory under which payloads are kept.
+     * @param mappings    Cache of mappings, or {@code null} to read files
+     *                    directly.
+     * @param forceWrites Whether {@link #put(String, byte[])} forces the
+     *                    payload and its directory entry to disk before
+     *                    returning.
+     */
+    public ContentAddressedBlockStore(Path root, MappedRegionCache mappings, boolean forceWrites) {
+        this.root = root;
+        this.staging = root.resolve("tmp");
+        this.mappings = mappings;
+        this.forceWrites = forceWrites;
+    }
+
+    /**
+     * Resolves the file that holds a payload.
+     *
+     * @param key Content key of the payload.
+     * @return Path of the payload file.
+     */
+    Path pathOf(String key) {
+        if (key == null || key.length() != KEY_LENGTH || !key.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            throw new IllegalArgumentException("Malformed content key: " + key);
+        }
+
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    @Override
+    public boolean put(String key, byte[] data) throws IOException {
+        Path target = pathOf(key);
+
+        if (Files.exists(target)) {
+            return false;
+        }
+
+        Path created = createDirectories(target.getParent());
+        Files.createDirectories(staging);
+
+        Path temporary = staging.resolve(UUID.randomUUID().toString());
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            if (forceWrites) {
+                channel.force(true);
+            }
+        }
+
+        try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            try {
+                Files.move(temporary, target);
+            } catch (FileAlreadyExistsException alreadyStored) {
+                Files.deleteIfExists(temporary);
+                return false;
+            }
+        }
+
+        if (forceWrites) {
+            for (Path directory = target.getParent(); directory != null; directory = directory.getParent()) {
+                forceDirectory(directory);
+
+                if (created == null || directory.equals(created)) {
+                    break;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates a directory and its missing parents.
+     *
+     * @param directory Directory to create.
+     * @return The parent of the topmost directory that was created, whose
+     *         entries therefore changed, or {@code null} if the directory
+     *         already existed.
+     * @throws IOException If a directory cannot be created.
+     */
+    private static Path createDirectories(Path directory) throws IOException {
+        Path missing = null;
+
+        for (Path candidate = directory; candidate != null && !Files.isDirectory(candidate); candidate = candidate
+                .getParent()) {
+            missing = candidate;
+        }
+
+        Files.createDirectories(directory);
+
+        return missing != null ? missing.getParent() : null;
+    }
+
+    /**
+     * Forces the entries of a directory to disk, so that files created in or
+     * moved into it survive a crash.
+     *
+     * @param directory Directory to force.
+     * @throws IOException If the directory cannot be opened or forced.
+     */
+    private static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return Files.exists(pathOf(key));
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        if (mappings == null) {
+            return Files.readAllBytes(pathOf(key));
+        }
+
+        ByteBuffer region = mappings.map(pathOf(key));
+        byte[] data = new byte[region.remaining()];
+        region.get(data);
+
+        return data;
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return Files.size(pathOf(key));
+    }
+
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws IOException {
+        if (mappings != null) {
+            ByteBuffer region = mappings.map(pathOf(key));
+            long size = region.remaining();
+
+            while (region.hasRemaining()) {
+                target.write(region);
+            }
+
+            return size;
+        }
+
+        try (FileChannel source = FileChannel.open(pathOf(key), StandardOpenOption.READ)) {
+            long size = source.size();
+            long position = 0;
+
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+
+            return size;
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        Path path = pathOf(key);
+
+        if (mappings != null) {
+            mappings.invalidate(path);
+        }
+
+        return Files.deleteIfExists(path);
+    }
+}
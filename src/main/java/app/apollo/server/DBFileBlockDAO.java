@@ -5,8 +5,13 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import app.apollo.common.Block;
 import app.apollo.common.FrozenPair;
@@ -19,21 +24,55 @@ public class DBFileBlockDAO implements FileBlockDAO {
 
     static final int CACHE_CAPACITY = 100;
 
-    private Connection connection;
+    /** Estimated heap taken by one cached block row, in bytes */
+    static final long BLOCK_ENTRY_WEIGHT = 512;
+
+    /** Estimated heap taken by one cached fingerprint and checksum pair, in bytes */
+    static final long CHECKSUM_PAIR_WEIGHT = 160;
+
+    /** Files with more blocks than this do not have their checksums cached */
+    static final int MAX_CACHED_CHECKSUMS = 200;
+
+    /** Largest heap taken by the cached checksums of one file, in bytes */
+    static final long CHECKSUM_ENTRY_WEIGHT = MAX_CACHED_CHECKSUMS * CHECKSUM_PAIR_WEIGHT;
+
+    private static final String UPSERT_SQL = "INSERT INTO blocks (user_id, metadata_id, sequence_id, size, checksum, " +
+            "fingerprint, content_hash, byte_offset) VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT(user_id, metadata_id, sequence_id) DO UPDATE SET size = excluded.size, checksum = excluded.checksum, " +
+            "fingerprint = excluded.fingerprint, content_hash = excluded.content_hash, byte_offset = excluded.byte_offset";
+
+    private final ConnectionProvider connections;
 
     private final Cache<String, Block> blockCache;
 
     private final Cache<String, List<FrozenPair<String, String>>> checksumCache;
 
     /**
-     * Constructs a new DBFileBlockDAO with the given database connection.
+     * Constructs a new DBFileBlockDAO that borrows connections per operation.
      *
-     * @param connection the SQL connection to be used for database operations
+     * @param connections the provider of SQL connections used for database
+     *                    operations
      */
-    public DBFileBlockDAO(Connection connection) {
-        this.connection = connection;
-        this.blockCache = new LRUCache<>(CACHE_CAPACITY);
-        this.checksumCache = new LRUCache<>(CACHE_CAPACITY);
+    public DBFileBlockDAO(ConnectionProvider connections) {
+        this(connections, null);
+    }
+
+    /**
+     * Constructs a new DBFileBlockDAO whose caches share the budget of a
+     * registry.
+     *
+     * @param connections the provider of SQL connections used for database
+     *                    operations
+     * @param caches      the registry sizing the caches, or {@code null} for
+     *                    fixed-size caches
+     */
+    public DBFileBlockDAO(ConnectionProvider connections, CacheRegistry caches) {
+        this.connections = connections;
+
+        CacheConfig cacheConfig = new CacheConfig();
+        cacheConfig.setCapacity(CACHE_CAPACITY);
+        this.blockCache = CacheRegistry.create(caches, "blocks", cacheConfig, BLOCK_ENTRY_WEIGHT);
+        this.checksumCache = CacheRegistry.create(caches, "checksums", cacheConfig, CHECKSUM_ENTRY_WEIGHT);
     }
 
     private String blockKey(int userId, int metadataId, long sequenceId) {
@@ -44,23 +83,26 @@ public class DBFileBlockDAO implements FileBlockDAO {
         return userId + ":" + metadataId + ":checksums";
     }
 
+    private void bindBlock(PreparedStatement stmt, Block block) throws SQLException {
+        stmt.setInt(1, block.getUserId());
+        stmt.setInt(2, block.getMetadataId());
+        stmt.setLong(3, block.getSequenceNumber());
+        stmt.setInt(4, block.getSize());
+        stmt.setString(5, block.getChecksum());
+        stmt.setString(6, block.getFingerprint());
+        stmt.setString(7, block.getContentHash());
+        stmt.setLong(8, block.getOffset() != null ? block.getOffset() : 0L);
+    }
+
     @Override
     public boolean insert(Block block) {
-        String sql = "INSERT INTO blocks (user_id, metadata_id, sequence_id, size, checksum, fingerprint) " +
-                "VALUES (?, ?, ?, ?, ?, ?) " +
-                "ON CONFLICT(user_id, metadata_id, sequence_id) DO UPDATE SET size = excluded.size, checksum = excluded.checksum";
-
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
-            stmt.setInt(1, block.getUserId());
-            stmt.setInt(2, block.getMetadataId());
-            stmt.setLong(3, block.getSequenceNumber());
-            stmt.setInt(4, block.getSize());
-            stmt.setString(5, block.getChecksum());
-            stmt.setString(6, block.getFingerprint());
+        try (Connection connection = connections.getWriter();
+                PreparedStatement stmt = connection.prepareStatement(UPSERT_SQL)) {
+            bindBlock(stmt, block);
 
             stmt.executeUpdate();
 
-            blockCache.put(blockKey(block.getUserId(), block.getMetadataId(), block.getSequenceNumber()), block);
+            blockCache.put(blockKey(block.getUserId(), block.getMetadataId(), block.getSequenceNumber()), rowOf(block));
             checksumCache.remove(checksumKey(block.getUserId(), block.getMetadataId()));
 
             return true;
@@ -71,23 +113,108 @@ public class DBFileBlockDAO implements FileBlockDAO {
     }
 
     @Override
-    public Block findByUserFilenameAndBlock(Integer userId, Integer metadataId, Long blockId) {
-        String key = blockKey(userId, metadataId, blockId);
-        Optional<Block> cached = blockCache.get(key);
-        if (cached.isPresent()) {
-            return cached.get();
+    public boolean insertAll(List<Block> blocks) {
+        return insertAll(blocks, null);
+    }
+
+    @Override
+    public boolean insertAll(List<Block> blocks, Collection<String> replaced) {
+        if (blocks.isEmpty()) {
+            return true;
         }
 
-        String sql = "SELECT * FROM blocks WHERE user_id = ? AND metadata_id = ? AND sequence_id = ?";
+        try (Connection connection = connections.getWriter()) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement stmt = connection.prepareStatement(UPSERT_SQL)) {
+                Set<String> previous = replaced != null ? findReplacedContent(connection, blocks) : null;
+
+                for (Block block : blocks) {
+                    bindBlock(stmt, block);
+                    stmt.addBatch();
+                }
+
+                stmt.executeBatch();
+                connection.commit();
+
+                if (previous != null) {
+                    replaced.addAll(previous);
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+            for (Block block : blocks) {
+                blockCache.put(blockKey(block.getUserId(), block.getMetadataId(), block.getSequenceNumber()), rowOf(block));
+                checksumCache.remove(checksumKey(block.getUserId(), block.getMetadataId()));
+            }
+
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Reads the content hashes of the rows an insert is about to overwrite,
+     * including rows written earlier in the same insert.
+     *
+     * @param connection the writer connection holding the insert's transaction
+     * @param blocks     the blocks about to be inserted, in insertion order
+     * @return the content hashes of rows that differ from their replacement
+     * @throws SQLException if a database access error occurs
+     */
+    private Set<String> findReplacedContent(Connection connection, List<Block> blocks) throws SQLException {
+        String sql = "SELECT content_hash FROM blocks WHERE user_id = ? AND metadata_id = ? AND sequence_id = ?";
+        Set<String> replaced = new HashSet<>();
+        Map<String, String> current = new HashMap<>();
+
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (Block block : blocks) {
+                String key = blockKey(block.getUserId(), block.getMetadataId(), block.getSequenceNumber());
+                String previous = current.get(key);
+
+                if (previous == null) {
+                    stmt.setInt(1, block.getUserId());
+                    stmt.setInt(2, block.getMetadataId());
+                    stmt.setLong(3, block.getSequenceNumber());
+
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        previous = rs.next() ? rs.getString("content_hash") : null;
+                    }
+                }
+
+                if (previous != null && !previous.equals(block.getContentHash())) {
+                    replaced.add(previous);
+                }
+
+                current.put(key, block.getContentHash());
+            }
+        }
+
+        return replaced;
+    }
+
+    @Override
+    public Block findByUserFilenameAndBlock(Integer userId, Integer metadataId, Long blockId) {
+        return blockCache.get(blockKey(userId, metadataId, blockId), key -> loadBlock(userId, metadataId, blockId))
+                .orElse(null);
+    }
+
+    private Block loadBlock(Integer userId, Integer metadataId, Long blockId) {
+        String sql = "SELECT * FROM blocks WHERE user_id = ? AND metadata_id = ? AND sequence_id = ?";
+        try (Connection connection = connections.getReader();
+                PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, userId);
             stmt.setInt(2, metadataId);
             stmt.setLong(3, blockId);
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
-                Block block = extractBlock(rs);
-                blockCache.put(key, block);
-                return block;
+                return extractBlock(rs);
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -96,34 +223,156 @@ public class DBFileBlockDAO implements FileBlockDAO {
     }
 
     @Override
-    public List<FrozenPair<String, String>> findChecksumByUserAndFilename(Integer userId, Integer metadataId) {
-        String key = checksumKey(userId, metadataId);
-        Optional<List<FrozenPair<String, String>>> cached = checksumCache.get(key);
-        if (cached.isPresent()) {
-            return cached.get();
+    public List<Block> findRangeByUserAndFilename(Integer userId, Integer metadataId, Long fromBlock, Integer count) {
+        String sql = "SELECT * FROM blocks WHERE user_id = ? AND metadata_id = ? AND sequence_id >= ? AND sequence_id < ? " +
+                "ORDER BY sequence_id";
+        List<Block> blocks = new ArrayList<>();
+        try (Connection connection = connections.getReader();
+                PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            stmt.setInt(2, metadataId);
+            stmt.setLong(3, fromBlock);
+            stmt.setLong(4, fromBlock + count);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                blocks.add(extractBlock(rs));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
+        return blocks;
+    }
+
+    @Override
+    public List<FrozenPair<String, String>> findChecksumByUserAndFilename(Integer userId, Integer metadataId) {
+        // Lists above the cap are handed over here instead of being cached
+        AtomicReference<List<FrozenPair<String, String>>> uncached = new AtomicReference<>(new ArrayList<>());
+
+        return checksumCache.get(checksumKey(userId, metadataId), key -> {
+            List<FrozenPair<String, String>> checksums = loadChecksums(userId, metadataId);
 
+            if (checksums != null && checksums.size() > MAX_CACHED_CHECKSUMS) {
+                uncached.set(checksums);
+                return null;
+            }
+
+            return checksums;
+        }).orElseGet(uncached::get);
+    }
+
+    private List<FrozenPair<String, String>> loadChecksums(Integer userId, Integer metadataId) {
         String sql = "SELECT fingerprint, checksum FROM blocks WHERE user_id = ? AND metadata_id = ? ORDER BY sequence_id";
         List<FrozenPair<String, String>> checksums = new ArrayList<>();
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = connections.getReader();
+                PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, userId);
             stmt.setInt(2, metadataId);
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
                 checksums.add(new FrozenPair<>(rs.getString("fingerprint"), rs.getString("checksum")));
             }
+            return checksums;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
 
-            checksumCache.put(key, checksums);
+    @Override
+    public Map<Long, FrozenPair<String, String>> findChecksumsBySequence(Integer userId, Integer metadataId) {
+        String sql = "SELECT sequence_id, fingerprint, checksum FROM blocks WHERE user_id = ? AND metadata_id = ?";
+        Map<Long, FrozenPair<String, String>> checksums = new HashMap<>();
+        try (Connection connection = connections.getReader();
+                PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            stmt.setInt(2, metadataId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                checksums.put(rs.getLong("sequence_id"),
+                        new FrozenPair<>(rs.getString("fingerprint"), rs.getString("checksum")));
+            }
         } catch (SQLException e) {
             e.printStackTrace();
         }
         return checksums;
     }
 
+    @Override
+    public Block findByUserFilenameAndContentHash(Integer userId, Integer metadataId, String contentHash) {
+        String sql = "SELECT * FROM blocks WHERE user_id = ? AND metadata_id = ? AND content_hash = ? LIMIT 1";
+        try (Connection connection = connections.getReader();
+                PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            stmt.setInt(2, metadataId);
+            stmt.setString(3, contentHash);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                return extractBlock(rs);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    public List<String> findContentHashesByUserAndFilename(Integer userId, Integer metadataId) {
+        String sql = "SELECT DISTINCT content_hash FROM blocks WHERE user_id = ? AND metadata_id = ?";
+        List<String> hashes = new ArrayList<>();
+        try (Connection connection = connections.getReader();
+                PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            stmt.setInt(2, metadataId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                hashes.add(rs.getString("content_hash"));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return hashes;
+    }
+
+    @Override
+    public long countByContentHash(String contentHash) {
+        String sql = "SELECT COUNT(*) FROM blocks WHERE content_hash = ?";
+        try (Connection connection = connections.getReader();
+                PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, contentHash);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    @Override
+    public void deleteFromSequence(Integer userId, Integer metadataId, Long fromBlock) {
+        String sql = "DELETE FROM blocks WHERE user_id = ? AND metadata_id = ? AND sequence_id >= ?";
+        try (Connection connection = connections.getWriter();
+                PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            stmt.setInt(2, metadataId);
+            stmt.setLong(3, fromBlock);
+            stmt.executeUpdate();
+
+            String prefix = userId + ":" + metadataId + ":";
+            blockCache.entrySet().removeIf(entry -> entry.getKey().startsWith(prefix)
+                    && entry.getValue().getSequenceNumber() >= fromBlock);
+            checksumCache.remove(checksumKey(userId, metadataId));
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public void deleteByUserFilenameAndBlock(Integer userId, Integer metadataId, Long sequenceId) {
         String sql = "DELETE FROM blocks WHERE user_id = ? AND metadata_id = ? AND sequence_id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = connections.getWriter();
+                PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, userId);
             stmt.setInt(2, metadataId);
             stmt.setLong(3, sequenceId);
@@ -139,7 +388,8 @@ public class DBFileBlockDAO implements FileBlockDAO {
     @Override
     public void deleteByUserAndFilename(Integer userId, Integer metadataId) {
         String sql = "DELETE FROM blocks WHERE user_id = ? AND metadata_id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = connections.getWriter();
+                PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, userId);
             stmt.setInt(2, metadataId);
             stmt.executeUpdate();
@@ -166,13 +416,36 @@ public class DBFileBlockDAO implements FileBlockDAO {
         block.setChecksum(rs.getString("checksum"));
         block.setFingerprint(rs.getString("fingerprint"));
         block.setSize(rs.getInt("size"));
+        block.setContentHash(rs.getString("content_hash"));
+        block.setOffset(rs.getLong("byte_offset"));
         return block;
     }
 
+    /**
+     * Copies the stored columns of a block, so that the cache never holds an
+     * uploaded payload or an instance the caller keeps changing.
+     *
+     * @param block Block as passed to an insert.
+     * @return A new block equal to the row that was written.
+     */
+    private Block rowOf(Block block) {
+        Block row = new Block();
+        row.setUserId(block.getUserId());
+        row.setMetadataId(block.getMetadataId());
+        row.setSequenceNumber(block.getSequenceNumber());
+        row.setChecksum(block.getChecksum());
+        row.setFingerprint(block.getFingerprint());
+        row.setSize(block.getSize());
+        row.setContentHash(block.getContentHash());
+        row.setOffset(block.getOffset() != null ? block.getOffset() : 0L);
+        return row;
+    }
+
     @Override
     public void deleteByMetadataIdAndSequence(Integer metadataId, Long sequenceId) {
         String sql = "DELETE FROM blocks WHERE metadata_id = ? AND sequence_id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = connections.getWriter();
+                PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, metadataId);
             stmt.setLong(2, sequenceId);
             stmt.executeUpdate();
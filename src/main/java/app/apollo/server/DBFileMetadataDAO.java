@@ -4,10 +4,13 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import app.apollo.common.ChunkingMode;
 
 /**
  * Implementation of {@link FileMetadataDAO} to manage file metadata in a SQL
@@ -18,27 +21,65 @@ public class DBFileMetadataDAO implements FileMetadataDAO {
 
     static final Integer CACHE_CAPACITY = 100;
 
-    private Connection connection;
+    /** Age after which a cached entry is reloaded in the background when read */
+    static final long CACHE_REFRESH_SECONDS = 30;
+
+    /** Lifetime of a cached entry that is not refreshed */
+    static final long CACHE_EXPIRY_SECONDS = 300;
+
+    /** Estimated heap taken by one cached metadata row, in bytes */
+    static final long METADATA_ENTRY_WEIGHT = 512;
+
+    /** Estimated heap taken by the cached file list of one owner, in bytes */
+    static final long FILE_LIST_ENTRY_WEIGHT = 8 * 1024;
+
+    private final ConnectionProvider connections;
 
     private final Cache<String, FileMetadata> metadataCache;
 
     private final Cache<Integer, List<FileMetadata>> ownerFileListCache;
 
     /**
-     * Constructs a new DBFileMetadataDAO with the given SQL connection.
+     * Constructs a new DBFileMetadataDAO that borrows connections per operation.
+     *
+     * @param connections the provider of SQL connections to use for database
+     *                    operations
+     */
+    public DBFileMetadataDAO(ConnectionProvider connections) {
+        this(connections, null);
+    }
+
+    /**
+     * Constructs a new DBFileMetadataDAO whose caches share the budget of a
+     * registry.
      *
-     * @param connection the SQL connection to use for database operations
+     * @param connections the provider of SQL connections to use for database
+     *                    operations
+     * @param caches      the registry sizing the caches, or {@code null} for
+     *                    fixed-size caches
      */
-    public DBFileMetadataDAO(Connection connection) {
-        this.connection = connection;
-        this.metadataCache = new LRUCache<>(CACHE_CAPACITY);
-        this.ownerFileListCache = new LRUCache<>(CACHE_CAPACITY);
+    public DBFileMetadataDAO(ConnectionProvider connections, CacheRegistry caches) {
+        this.connections = connections;
+        this.metadataCache = CacheRegistry.create(caches, "metadata", cacheConfig(), METADATA_ENTRY_WEIGHT);
+        this.ownerFileListCache = CacheRegistry.create(caches, "file-lists", cacheConfig(), FILE_LIST_ENTRY_WEIGHT);
+    }
+
+    private static CacheConfig cacheConfig() {
+        CacheConfig config = new CacheConfig();
+        config.setCapacity(CACHE_CAPACITY);
+        config.setRefreshAfterWrite(CACHE_REFRESH_SECONDS, TimeUnit.SECONDS);
+        config.setExpireAfterWrite(CACHE_EXPIRY_SECONDS, TimeUnit.SECONDS);
+        return config;
     }
 
     private String makeFileKey(String filename, Integer ownerId) {
         return ownerId + ":" + filename;
     }
 
+    private ChunkingMode chunkingOf(FileMetadata metadata) {
+        return metadata.getChunkingMode() != null ? metadata.getChunkingMode() : ChunkingMode.FIXED;
+    }
+
     @Override
     public boolean insert(FileMetadata metadata) {
 
@@ -46,19 +87,29 @@ public class DBFileMetadataDAO implements FileMetadataDAO {
             return false;
         }
 
-        final String statementString = "INSERT INTO metadata (filename, owner_id, path, created_at, block_count) VALUES (?, ?, ?, ?, ?)";
+        final String statementString = "INSERT INTO metadata (filename, owner_id, path, created_at, block_count, block_size, chunking) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)";
 
-        try (PreparedStatement statement = connection.prepareStatement(statementString)) {
+        try (Connection connection = connections.getWriter();
+                PreparedStatement statement = connection.prepareStatement(statementString,
+                Statement.RETURN_GENERATED_KEYS)) {
 
             statement.setString(1, metadata.getFilename());
             statement.setInt(2, metadata.getOwnerId());
             statement.setString(3, metadata.getPath());
             statement.setString(4, metadata.getCreatedAt().toString());
             statement.setObject(5, metadata.getBlockCount());
+            statement.setObject(6, metadata.getBlockSize());
+            statement.setString(7, chunkingOf(metadata).name());
 
             boolean success = statement.executeUpdate() > 0;
 
             if (success) {
+                ResultSet keys = statement.getGeneratedKeys();
+                if (keys.next()) {
+                    metadata.setId(keys.getInt(1));
+                }
+
                 metadataCache.put(makeFileKey(metadata.getFilename(), metadata.getOwnerId()), metadata);
                 ownerFileListCache.remove(metadata.getOwnerId());
             }
@@ -74,14 +125,18 @@ public class DBFileMetadataDAO implements FileMetadataDAO {
 
     @Override
     public boolean update(FileMetadata metadata) {
-        final String statementString = "UPDATE metadata SET path=?, created_at=?, block_count=? WHERE filename=? AND owner_id=?";
-        try (PreparedStatement statement = connection.prepareStatement(statementString)) {
+        final String statementString = "UPDATE metadata SET path=?, created_at=?, block_count=?, block_size=?, chunking=? " +
+                "WHERE filename=? AND owner_id=?";
+        try (Connection connection = connections.getWriter();
+                PreparedStatement statement = connection.prepareStatement(statementString)) {
 
             statement.setString(1, metadata.getPath());
             statement.setString(2, metadata.getCreatedAt().toString());
             statement.setObject(3, metadata.getBlockCount());
-            statement.setString(4, metadata.getFilename());
-            statement.setInt(5, metadata.getOwnerId());
+            statement.setObject(4, metadata.getBlockSize());
+            statement.setString(5, chunkingOf(metadata).name());
+            statement.setString(6, metadata.getFilename());
+            statement.setInt(7, metadata.getOwnerId());
 
             boolean success = statement.executeUpdate() > 0;
             if (success) {
@@ -102,7 +157,8 @@ public class DBFileMetadataDAO implements FileMetadataDAO {
     public void delete(String filename, Integer ownerId) {
         final String statementString = "DELETE FROM metadata WHERE owner_id=? AND filename=?";
 
-        try (PreparedStatement statement = connection.prepareStatement(statementString)) {
+        try (Connection connection = connections.getWriter();
+                PreparedStatement statement = connection.prepareStatement(statementString)) {
 
             statement.setInt(1, ownerId);
             statement.setString(2, filename);
@@ -120,15 +176,14 @@ public class DBFileMetadataDAO implements FileMetadataDAO {
 
     @Override
     public List<FileMetadata> findByOwnerId(Integer userId) {
-        Optional<List<FileMetadata>> cached = ownerFileListCache.get(userId);
-
-        if (cached.isPresent()) {
-            return cached.get();
-        }
+        return ownerFileListCache.get(userId, this::loadByOwnerId).orElseGet(ArrayList::new);
+    }
 
+    private List<FileMetadata> loadByOwnerId(Integer userId) {
         final String statementString = "SELECT * FROM metadata WHERE owner_id=?";
 
-        try (PreparedStatement statement = connection.prepareStatement(statementString)) {
+        try (Connection connection = connections.getReader();
+                PreparedStatement statement = connection.prepareStatement(statementString)) {
 
             statement.setInt(1, userId);
 
@@ -143,29 +198,34 @@ public class DBFileMetadataDAO implements FileMetadataDAO {
                 metadata.setFilename(result.getString("filename"));
                 metadata.setOwnerId(result.getInt("owner_id"));
                 metadata.setPath(result.getString("path"));
+                metadata.setBlockCount(result.getLong("block_count"));
+                metadata.setBlockSize(result.getInt("block_size"));
+                metadata.setChunkingMode(ChunkingMode.valueOf(result.getString("chunking")));
                 metadata.setCreatedAt(LocalDateTime.parse(result.getString("created_at")));
 
                 metadatas.add(metadata);
             }
 
+            return metadatas;
+
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
 
-        return new ArrayList<>();
+        return null;
     }
 
     @Override
     public FileMetadata findByNameAndOwner(String filename, Integer ownerId) {
-        Optional<FileMetadata> possibleMetadata = metadataCache.get(makeFileKey(filename, ownerId));
-
-        if (possibleMetadata.isPresent()) {
-            return possibleMetadata.get();
-        }
+        return metadataCache.get(makeFileKey(filename, ownerId), key -> loadByNameAndOwner(filename, ownerId))
+                .orElse(null);
+    }
 
+    private FileMetadata loadByNameAndOwner(String filename, Integer ownerId) {
         final String statementString = "SELECT * FROM metadata WHERE owner_id=? AND filename=?";
 
-        try (PreparedStatement statement = connection.prepareStatement(statementString)){
+        try (Connection connection = connections.getReader();
+                PreparedStatement statement = connection.prepareStatement(statementString)){
 
             statement.setInt(1, ownerId);
             statement.setString(2, filename);
@@ -180,6 +240,8 @@ public class DBFileMetadataDAO implements FileMetadataDAO {
                 metadata.setOwnerId(result.getInt("owner_id"));
                 metadata.setPath(result.getString("path"));
                 metadata.setBlockCount(result.getLong("block_count"));
+                metadata.setBlockSize(result.getInt("block_size"));
+                metadata.setChunkingMode(ChunkingMode.valueOf(result.getString("chunking")));
                 metadata.setCreatedAt(LocalDateTime.parse(result.getString("created_at")));
 
                 return metadata;
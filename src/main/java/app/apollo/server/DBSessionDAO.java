@@ -7,6 +7,7 @@ import java.sql.SQLException;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import app.apollo.common.Session;
 
@@ -18,25 +19,46 @@ public class DBSessionDAO implements SessionDAO {
 
     static final Integer CACHE_CAPACITY = 100;
 
-    private Connection connection;
+    /** Estimated heap taken by one cached session, in bytes */
+    static final long SESSION_ENTRY_WEIGHT = 256;
+
+    private final ConnectionProvider connections;
 
     private final Cache<String, Session> sessionCache;
 
     /**
-     * Constructs a new DBUserDAO with the given database connection.
+     * Constructs a new DBSessionDAO that borrows connections per operation.
+     *
+     * @param connections the provider of database connections
+     */
+    public DBSessionDAO(ConnectionProvider connections) {
+        this(connections, null);
+    }
+
+    /**
+     * Constructs a new DBSessionDAO whose cache shares the budget of a
+     * registry.
      *
-     * @param connection the active database connection
+     * @param connections the provider of database connections
+     * @param caches      the registry sizing the cache, or {@code null} for a
+     *                    fixed-size cache
      */
-    public DBSessionDAO(Connection connection) {
-        this.connection = connection;
-        this.sessionCache = new LRUCache<>(CACHE_CAPACITY);
+    public DBSessionDAO(ConnectionProvider connections, CacheRegistry caches) {
+        this.connections = connections;
+
+        CacheConfig cacheConfig = new CacheConfig();
+        cacheConfig.setCapacity(CACHE_CAPACITY);
+        cacheConfig.setExpireAfterWrite(AuthProviderManager.SESSION_TTL.toMillis(), TimeUnit.MILLISECONDS);
+        this.sessionCache = CacheRegistry.create(caches, "sessions", cacheConfig, SESSION_ENTRY_WEIGHT);
+
         clearAllSessions();
     }
 
     private void clearAllSessions() {
         final String sql = "DELETE FROM sessions";
 
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        try (Connection connection = connections.getWriter();
+                PreparedStatement statement = connection.prepareStatement(sql)) {
             statement.executeUpdate();
             sessionCache.clear();
 
@@ -55,10 +77,9 @@ public class DBSessionDAO implements SessionDAO {
         }
 
         final String statementString = "SELECT * FROM sessions WHERE token=?";
-        PreparedStatement statement = null;
 
-        try {
-            statement = connection.prepareStatement(statementString);
+        try (Connection connection = connections.getReader();
+                PreparedStatement statement = connection.prepareStatement(statementString)) {
 
             statement.setString(1, token);
 
@@ -87,7 +108,8 @@ public class DBSessionDAO implements SessionDAO {
     public boolean insert(Session session) {
         final String statementString = "INSERT INTO sessions (user_id, token, created_at) VALUES (?, ?, ?)";
 
-        try (PreparedStatement statement = connection.prepareStatement(statementString)) {
+        try (Connection connection = connections.getWriter();
+                PreparedStatement statement = connection.prepareStatement(statementString)) {
 
             statement.setInt(1, session.getUserId());
             statement.setString(2, session.getToken());
@@ -113,7 +135,8 @@ public class DBSessionDAO implements SessionDAO {
 
         final String statementString = "DELETE FROM sessions WHERE token = ?";
 
-        try (PreparedStatement statement = connection.prepareStatement(statementString)) {
+        try (Connection connection = connections.getWriter();
+                PreparedStatement statement = connection.prepareStatement(statementString)) {
 
             statement.setString(1, token);
 
@@ -134,7 +157,8 @@ public class DBSessionDAO implements SessionDAO {
 
         final String sql = "DELETE FROM sessions WHERE created_at < ?";
 
-        try (PreparedStatement statement = connection.prepareStatement(sql);) {
+        try (Connection connection = connections.getWriter();
+                PreparedStatement statement = connection.prepareStatement(sql);) {
 
             statement.setString(1, cutoffStr);
 
@@ -159,7 +183,8 @@ public class DBSessionDAO implements SessionDAO {
             }
         }
 
-        try (PreparedStatement statement = connection.prepareStatement(statementString)) {
+        try (Connection connection = connections.getReader();
+                PreparedStatement statement = connection.prepareStatement(statementString)) {
 
             statement.setInt(1, id);
 
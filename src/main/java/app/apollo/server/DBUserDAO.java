@@ -4,6 +4,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Optional;
 
 /**
@@ -14,13 +15,35 @@ public class DBUserDAO implements UserDAO {
 
     static final Integer CACHE_CAPACITY = 100;
 
-    private Connection connection;
+    /** Estimated heap taken by one cached user, in bytes */
+    static final long USER_ENTRY_WEIGHT = 512;
+
+    private final ConnectionProvider connections;
 
     private final Cache<String, User> userCache;
 
-    public DBUserDAO(Connection connection) {
-        this.connection = connection;
-        this.userCache = new LRUCache<>(CACHE_CAPACITY);
+    /**
+     * Constructs a new DBUserDAO that borrows connections per operation.
+     *
+     * @param connections the provider of database connections
+     */
+    public DBUserDAO(ConnectionProvider connections) {
+        this(connections, null);
+    }
+
+    /**
+     * Constructs a new DBUserDAO whose cache shares the budget of a registry.
+     *
+     * @param connections the provider of database connections
+     * @param caches      the registry sizing the cache, or {@code null} for a
+     *                    fixed-size cache
+     */
+    public DBUserDAO(ConnectionProvider connections, CacheRegistry caches) {
+        this.connections = connections;
+
+        CacheConfig cacheConfig = new CacheConfig();
+        cacheConfig.setCapacity(CACHE_CAPACITY);
+        this.userCache = CacheRegistry.create(caches, "users", cacheConfig, USER_ENTRY_WEIGHT);
     }
 
     @Override
@@ -34,7 +57,8 @@ public class DBUserDAO implements UserDAO {
 
         final String statementString = "SELECT * FROM users WHERE username=?";
 
-        try (PreparedStatement statement = connection.prepareStatement(statementString)) {
+        try (Connection connection = connections.getReader();
+                PreparedStatement statement = connection.prepareStatement(statementString)) {
 
             statement.setString(1, username);
 
@@ -65,7 +89,9 @@ public class DBUserDAO implements UserDAO {
     public boolean insert(User user) {
         final String statementString = "INSERT INTO users (username, password) VALUES (?, ?)";
 
-        try (PreparedStatement statement = connection.prepareStatement(statementString)) {
+        try (Connection connection = connections.getWriter();
+                PreparedStatement statement = connection.prepareStatement(statementString,
+                Statement.RETURN_GENERATED_KEYS)) {
 
             statement.setString(1, user.getUsername());
             statement.setString(2, user.getPassword());
@@ -73,6 +99,11 @@ public class DBUserDAO implements UserDAO {
             boolean insterted = statement.executeUpdate() > 0;
 
             if (insterted) {
+                ResultSet keys = statement.getGeneratedKeys();
+                if (keys.next()) {
+                    user.setId(keys.getInt(1));
+                }
+
                 userCache.put(user.getUsername(), user);
             }
 
@@ -96,7 +127,8 @@ public class DBUserDAO implements UserDAO {
 
         final String statementString = "SELECT * FROM users WHERE id=?";
 
-        try (PreparedStatement statement = connection.prepareStatement(statementString)) {
+        try (Connection connection = connections.getReader();
+                PreparedStatement statement = connection.prepareStatement(statementString)) {
 
             statement.setInt(1, id);
 
@@ -1,6 +1,10 @@
 package app.apollo.server;
 
+import java.util.zip.DataFormatException;
+
 import app.apollo.common.Block;
+import app.apollo.common.BlockCodec;
+import app.apollo.common.ChunkingMode;
 import app.apollo.common.CrypticEngine;
 
 /***
@@ -8,28 +12,21 @@ import app.apollo.common.CrypticEngine;
  */
 public class DataBlockValidator implements BlockValidator {
 
-    /** Number of bytes that a block stores */
-    private final Integer blockSize;
-
     /***
-     * Constructs a DataBlockValidator with a required block size.
-     * @param blockSize Number of bytes that block stores; must be non-null and positive.
+     * Constructs a DataBlockValidator. The expected block size is supplied per
+     * validated block since every file chooses its own.
      */
-    public DataBlockValidator(Integer blockSize) {
-        if (blockSize == null || blockSize <= 0) {
-            throw new IllegalArgumentException("blockSize must be a positive integer.");
-        }
-        this.blockSize = blockSize;
+    public DataBlockValidator() {
     }
 
     @Override
-    public boolean isBlockValid(Block block) {
+    public boolean isBlockValid(Block block, byte[] data, Integer blockSize, ChunkingMode chunkingMode) {
 
-        if (block == null) {
+        if (block == null || blockSize == null || blockSize <= 0) {
             return false;
         }
 
-        if (block.getData() == null || block.getFingerprint() == null || block.getChecksum() == null) {
+        if (block.getFingerprint() == null || block.getChecksum() == null) {
             return false;
         }
 
@@ -37,19 +34,29 @@ public class DataBlockValidator implements BlockValidator {
             return false;
         }
 
-        byte[] data = block.getData();
+        if (chunkingMode == ChunkingMode.CONTENT && (block.getOffset() == null || block.getOffset() < 0)) {
+            return false;
+        }
+
+        if (block.getData() == null) {
+            return isReferenceValid(block);
+        }
+
+        if (data == null) {
+            return false;
+        }
 
-        if (data.length != blockSize) {
+        if (chunkingMode == ChunkingMode.CONTENT ? data.length > blockSize : data.length != blockSize) {
             return false;
         }
 
-        String computedFingerprint = CrypticEngine.weakHash(data, blockSize);
+        String computedFingerprint = CrypticEngine.weakHash(data, data.length);
 
         if (!block.getFingerprint().equals(computedFingerprint)) {
             return false;
         }
 
-        String computedChecksum = CrypticEngine.strongHash(computedFingerprint, data, blockSize);
+        String computedChecksum = CrypticEngine.strongHash(computedFingerprint, data, data.length);
 
         if (!block.getChecksum().equals(computedChecksum)) {
             return false;
@@ -57,4 +64,46 @@ public class DataBlockValidator implements BlockValidator {
 
         return true;
     }
+
+    /***
+     * Decodes the data of a block so that its hashes can be verified. The
+     * claimed size is checked against the block size before decompressing.
+     * @param block Block with data
+     * @param blockSize Largest allowed size of the decoded data
+     * @return Decoded data or null if it cannot be decoded
+     */
+    @Override
+    public byte[] decode(Block block, Integer blockSize) {
+        if (block.getData() == null || blockSize == null) {
+            return null;
+        }
+
+        if (block.getCodec() == BlockCodec.RAW) {
+            return block.getData();
+        }
+
+        if (block.getSize() > blockSize) {
+            return null;
+        }
+
+        try {
+            return block.getCodec().decode(block.getData(), block.getSize());
+        } catch (DataFormatException e) {
+            return null;
+        }
+    }
+
+    /***
+     * Checks a block that carries no data and refers to already stored content
+     * instead. Whether the content exists is decided when the block is stored.
+     * @param block Block without data
+     * @return Status of block validation
+     */
+    private boolean isReferenceValid(Block block) {
+        String contentHash = block.getContentHash();
+
+        return contentHash != null
+                && contentHash.length() == ContentAddressedBlockStore.KEY_LENGTH
+                && contentHash.chars().allMatch(c -> Character.digit(c, 16) >= 0);
+    }
 }
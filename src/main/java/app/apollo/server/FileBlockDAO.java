@@ -1,6 +1,8 @@
 package app.apollo.server;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import app.apollo.common.Block;
 import app.apollo.common.FrozenPair;
@@ -20,6 +22,31 @@ public interface FileBlockDAO {
      */
     public boolean insert(Block block);
 
+    /**
+     * Inserts several blocks into the data store as a single transaction.
+     * Either all blocks are stored or none of them are.
+     *
+     * @param blocks The blocks to insert.
+     * @return {@code true} if the insertion was successful, {@code false}
+     *         otherwise.
+     */
+    public boolean insertAll(List<Block> blocks);
+
+    /**
+     * Inserts several blocks as {@link #insertAll(List)} does and reports
+     * which content the overwritten rows referred to. The previous rows are
+     * read in the same transaction as they are overwritten, so concurrent
+     * inserts of the same blocks each report exactly what they replaced.
+     *
+     * @param blocks   The blocks to insert.
+     * @param replaced Receives, once the transaction has committed, the content
+     *                 hashes of overwritten rows that referred to different
+     *                 content than their replacement.
+     * @return {@code true} if the insertion was successful, {@code false}
+     *         otherwise.
+     */
+    public boolean insertAll(List<Block> blocks, Collection<String> replaced);
+
     /**
      * Finds a block by user ID, file ID, and block sequence number.
      *
@@ -30,6 +57,17 @@ public interface FileBlockDAO {
      */
     public Block findByUserFilenameAndBlock(Integer userId, Integer fileId, Long blockId);
 
+    /**
+     * Finds blocks of a file whose sequence numbers fall within the given range.
+     *
+     * @param userId    The ID of the user who owns the file.
+     * @param fileId    The ID of the file metadata.
+     * @param fromBlock The sequence number of the first block.
+     * @param count     The maximum number of blocks to return.
+     * @return List of {@link Block} objects ordered by sequence number.
+     */
+    public List<Block> findRangeByUserAndFilename(Integer userId, Integer fileId, Long fromBlock, Integer count);
+
     /**
      * Retrieves a list of checksums for all blocks of a file for a given user.
      *
@@ -39,6 +77,55 @@ public interface FileBlockDAO {
      */
     public List<FrozenPair<String, String>> findChecksumByUserAndFilename(Integer userId, Integer fileId);
 
+    /**
+     * Retrieves the fingerprint and checksum of every stored block of a file,
+     * keyed by block sequence number.
+     *
+     * @param userId The ID of the user who owns the file.
+     * @param fileId The ID of the file metadata.
+     * @return Map of sequence numbers to fingerprint and checksum pairs.
+     */
+    public Map<Long, FrozenPair<String, String>> findChecksumsBySequence(Integer userId, Integer fileId);
+
+    /**
+     * Finds any block of a file that refers to the given content.
+     *
+     * @param userId      The ID of the user who owns the file.
+     * @param fileId      The ID of the file metadata.
+     * @param contentHash The content hash of the payload.
+     * @return A {@link Block} referring to the content, or {@code null} if the
+     *         file does not hold it.
+     */
+    public Block findByUserFilenameAndContentHash(Integer userId, Integer fileId, String contentHash);
+
+    /**
+     * Retrieves the distinct content hashes referenced by the blocks of a file.
+     *
+     * @param userId The ID of the user who owns the file.
+     * @param fileId The ID of the file metadata.
+     * @return List of content hashes.
+     */
+    public List<String> findContentHashesByUserAndFilename(Integer userId, Integer fileId);
+
+    /**
+     * Counts the blocks that refer to the given content, across all files and
+     * users. This is the reference count of the stored payload.
+     *
+     * @param contentHash The content hash of the payload.
+     * @return Number of referencing blocks.
+     */
+    public long countByContentHash(String contentHash);
+
+    /**
+     * Deletes all blocks of a file whose sequence number is greater than or
+     * equal to the given one.
+     *
+     * @param userId    The ID of the user.
+     * @param fileId    The ID of the file metadata.
+     * @param fromBlock The sequence number of the first block to delete.
+     */
+    public void deleteFromSequence(Integer userId, Integer fileId, Long fromBlock);
+
     /**
      * Deletes a block by metadata ID and sequence number.
      *
@@ -2,10 +2,12 @@ package app.apollo.server;
 
 import java.time.LocalDateTime;
 
+import app.apollo.common.ChunkingMode;
+
 /**
  * Represents metadata information for a file owned by a user.
- * Includes details such as filename, owner, storage path, block count, and
- * creation timestamp.
+ * Includes details such as filename, owner, storage path, block count, block
+ * size, chunking mode and creation timestamp.
  */
 public class FileMetadata {
 
@@ -24,6 +26,12 @@ public class FileMetadata {
     /** Number of blocks composing the file */
     private Long blockCount;
 
+    /** Number of bytes stored in each block of the file */
+    private Integer blockSize;
+
+    /** How the file is split into blocks */
+    private ChunkingMode chunkingMode;
+
     /** Timestamp when the file metadata was created */
     private LocalDateTime createdAt;
 
@@ -92,4 +100,24 @@ public class FileMetadata {
     public void setBlockCount(Long blockCount) {
         this.blockCount = blockCount;
     }
+
+    /** @return the number of bytes stored in each block */
+    public Integer getBlockSize() {
+        return blockSize;
+    }
+
+    /** @param blockSize the number of bytes stored in each block to set */
+    public void setBlockSize(Integer blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /** @return how the file is split into blocks */
+    public ChunkingMode getChunkingMode() {
+        return chunkingMode;
+    }
+
+    /** @param chunkingMode how the file is split into blocks */
+    public void setChunkingMode(ChunkingMode chunkingMode) {
+        this.chunkingMode = chunkingMode;
+    }
 }
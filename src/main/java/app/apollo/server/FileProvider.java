@@ -1,15 +1,20 @@
 package app.apollo.server;
 
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import app.apollo.common.AuthService;
 import app.apollo.common.Block;
+import app.apollo.common.ChunkingMode;
 import app.apollo.common.FileService;
 import app.apollo.common.FrozenPair;
 import app.apollo.common.InvalidBlockException;
 import app.apollo.common.Session;
+import app.apollo.common.TransferTicket;
 
 /**
  * Remote implementation of the {@link FileService} interface for file
@@ -22,13 +27,53 @@ import app.apollo.common.Session;
  * </p>
  *
  * <p>
- * Exposed as an RMI service to support distributed file systems.
+ * Exposed as an RMI service to support distributed file systems. Every
+ * remote method is timed under {@code rpc.FileService.<method>} in
+ * {@link Metrics}.
  * </p>
  */
 public class FileProvider extends UnicastRemoteObject implements FileService {
 
-    /** Fixed block size used across all file operations. */
-    static final Integer BLOCK_SIZE = 1024;
+    /** Block size used by files that did not choose one. */
+    static final Integer DEFAULT_BLOCK_SIZE = 1024;
+
+    /** Maximum number of blocks returned by a single ranged download. */
+    static final Integer MAX_BATCH_BLOCKS = 1024;
+
+    /** Maximum number of payload bytes moved by a single batch. */
+    static final Integer MAX_BATCH_BYTES = 16 * 1024 * 1024;
+
+    private static final OperationTimer SET_FILE_BLOCK_COUNT = Metrics.timer("rpc.FileService.setFileBlockCount");
+
+    private static final OperationTimer GET_FILE_BLOCK_COUNT = Metrics.timer("rpc.FileService.getFileBlockCount");
+
+    private static final OperationTimer UPLOAD_BLOCK = Metrics.timer("rpc.FileService.uploadBlock");
+
+    private static final OperationTimer UPLOAD_BLOCKS = Metrics.timer("rpc.FileService.uploadBlocks");
+
+    private static final OperationTimer DELETE_FILE = Metrics.timer("rpc.FileService.deleteFile");
+
+    private static final OperationTimer GET_CHECKSUMS = Metrics.timer("rpc.FileService.getChecksums");
+
+    private static final OperationTimer GET_MISSING_BLOCKS = Metrics.timer("rpc.FileService.getMissingBlocks");
+
+    private static final OperationTimer DOWNLOAD_BLOCK = Metrics.timer("rpc.FileService.downloadBlock");
+
+    private static final OperationTimer DOWNLOAD_BLOCKS = Metrics.timer("rpc.FileService.downloadBlocks");
+
+    private static final OperationTimer REQUEST_DOWNLOAD_TICKET = Metrics.timer("rpc.FileService.requestDownloadTicket");
+
+    private static final OperationTimer REQUEST_UPLOAD_TICKET = Metrics.timer("rpc.FileService.requestUploadTicket");
+
+    private static final OperationTimer LIST_FILES = Metrics.timer("rpc.FileService.listFiles");
+
+    private static final OperationTimer GET_BLOCK_SIZE = Metrics.timer("rpc.FileService.getBlockSize");
+
+    private static final OperationTimer SET_BLOCK_SIZE = Metrics.timer("rpc.FileService.setBlockSize");
+
+    private static final OperationTimer GET_CHUNKING_MODE = Metrics.timer("rpc.FileService.getChunkingMode");
+
+    private static final OperationTimer SET_CHUNKING_MODE = Metrics.timer("rpc.FileService.setChunkingMode");
 
     /** Service responsible for authorization managing */
     private AuthService authService;
@@ -39,6 +84,9 @@ public class FileProvider extends UnicastRemoteObject implements FileService {
     /** Service respnsible for file managing */
     private FileProviderManager fileManager;
 
+    /** Endpoint for raw block transfers; {@code null} when not enabled */
+    private BulkTransferServer bulkTransferServer;
+
     /**
      * Constructs a new FileProvider service.
      *
@@ -50,111 +98,301 @@ public class FileProvider extends UnicastRemoteObject implements FileService {
         super();
         this.authService = authService;
         this.fileManager = fileManager;
-        this.blockValidator = new DataBlockValidator(BLOCK_SIZE);
+        this.blockValidator = new DataBlockValidator();
     }
 
-    @Override
-    public void setFileBlockCount(String token, String filename, long numBlocks) throws RemoteException {
+    /**
+     * Constructs a new FileProvider service that can hand out bulk transfer
+     * tickets.
+     *
+     * @param authService        The authentication service for validating user
+     *                           tokens.
+     * @param fileManager        The manager handling the actual file storage
+     *                           operations.
+     * @param bulkTransferServer The endpoint that redeems transfer tickets.
+     * @throws RemoteException If an RMI error occurs during initialization.
+     */
+    public FileProvider(AuthService authService, FileProviderManager fileManager,
+            BulkTransferServer bulkTransferServer) throws RemoteException {
+        this(authService, fileManager);
+        this.bulkTransferServer = bulkTransferServer;
+    }
+
+    /**
+     * Resolves the session of a token with a single call to the
+     * authentication service.
+     *
+     * @param token Authentication token of the user.
+     * @return The session of the token.
+     * @throws RemoteException If the token is invalid or expired.
+     */
+    private Session authenticate(String token) throws RemoteException {
+        Session session = authService.login(token);
 
-        if (authService.validateToken(token) == false) {
+        if (session == null) {
             throw new RemoteException("Token expired");
         }
 
-        Session session = authService.login(token);
-
-        fileManager.setFileBlockCount(session.getUserId(), filename, numBlocks);
+        return session;
     }
 
     @Override
-    public long getFileBlockCount(String token, String filename) throws RemoteException {
+    public void setFileBlockCount(String token, String filename, long numBlocks) throws RemoteException {
+        SET_FILE_BLOCK_COUNT.run(() -> {
+            Session session = authenticate(token);
 
-        if (authService.validateToken(token) == false) {
-            throw new RemoteException("Token expired");
-        }
+            fileManager.setFileBlockCount(session.getUserId(), filename, numBlocks);
+        });
+    }
 
-        Session session = authService.login(token);
+    @Override
+    public long getFileBlockCount(String token, String filename) throws RemoteException {
+        return GET_FILE_BLOCK_COUNT.call(() -> {
+            Session session = authenticate(token);
 
-        return fileManager.getFileBlockCount(session.getUserId(), filename);
+            return fileManager.getFileBlockCount(session.getUserId(), filename);
+        });
     }
 
     @Override
     public void uploadBlock(String token, String filename, Block block) throws RemoteException {
+        UPLOAD_BLOCK.run(() -> {
+            Session session = authenticate(token);
 
-        if (authService.validateToken(token) == false) {
-            throw new RemoteException("Token expired");
-        }
+            Integer blockSize = fileManager.getBlockSize(session.getUserId(), filename);
+            ChunkingMode chunkingMode = fileManager.getChunkingMode(session.getUserId(), filename);
 
-        Session session = authService.login(token);
+            byte[] data = block != null ? blockValidator.decode(block, blockSize) : null;
 
-        if(!blockValidator.isBlockValid(block))
-        {
-            throw new InvalidBlockException();
-        }
+            if(!blockValidator.isBlockValid(block, data, blockSize, chunkingMode))
+            {
+                throw new InvalidBlockException();
+            }
 
-        fileManager.uploadBlock(session.getUserId(), filename, block);
+            boolean accepted;
 
+            try {
+                accepted = fileManager.uploadBlocks(session.getUserId(), filename, Collections.singletonList(block),
+                        Collections.singletonList(data));
+            } catch (IOException e) {
+                throw new RemoteException("Failed to store block " + block.getSequenceNumber() + " of '" + filename + "'", e);
+            }
+
+            if (!accepted) {
+                throw new InvalidBlockException("Block " + block.getSequenceNumber() + " refers to unknown content");
+            }
+        });
     }
 
     @Override
-    public void deleteFile(String token, String filename) throws RemoteException {
+    public void uploadBlocks(String token, String filename, List<Block> blocks) throws RemoteException {
+        UPLOAD_BLOCKS.run(() -> {
+            Session session = authenticate(token);
 
-        if (authService.validateToken(token) == false) {
-            throw new RemoteException("Token expired");
-        }
+            if (blocks == null || blocks.isEmpty()) {
+                return;
+            }
 
-        Session session = authService.login(token);
+            Integer blockSize = fileManager.getBlockSize(session.getUserId(), filename);
+            ChunkingMode chunkingMode = fileManager.getChunkingMode(session.getUserId(), filename);
+
+            List<byte[]> decoded = new ArrayList<>(blocks.size());
+
+            for (Block block : blocks) {
+                byte[] data = block != null ? blockValidator.decode(block, blockSize) : null;
+
+                if (!blockValidator.isBlockValid(block, data, blockSize, chunkingMode)) {
+                    throw new InvalidBlockException("Invalid block " + (block != null ? block.getSequenceNumber() : null));
+                }
+
+                decoded.add(data);
+            }
 
-        fileManager.deleteFile(session.getUserId(), filename);
+            boolean accepted;
 
+            try {
+                accepted = fileManager.uploadBlocks(session.getUserId(), filename, blocks, decoded);
+            } catch (IOException e) {
+                throw new RemoteException("Failed to store blocks of '" + filename + "'", e);
+            }
+
+            if (!accepted) {
+                throw new InvalidBlockException("Batch refers to content that is not stored in '" + filename + "'");
+            }
+        });
+    }
+
+    @Override
+    public void deleteFile(String token, String filename) throws RemoteException {
+        DELETE_FILE.run(() -> {
+            Session session = authenticate(token);
+
+            fileManager.deleteFile(session.getUserId(), filename);
+        });
     }
 
     @Override
     public List<FrozenPair<String,String>> getChecksums(String token, String filename) throws RemoteException {
+        return GET_CHECKSUMS.call(() -> {
+            Session session = authenticate(token);
 
-        if (authService.validateToken(token) == false) {
-            throw new RemoteException("Token expired");
-        }
+            List<FrozenPair<String,String>> checksums = fileManager.getChecksums(session.getUserId(), filename);
 
-        Session session = authService.login(token);
+            return checksums;
+        });
+    }
 
-        List<FrozenPair<String,String>> checksums = fileManager.getChecksums(session.getUserId(), filename);
+    @Override
+    public List<Long> getMissingBlocks(String token, String filename, List<FrozenPair<String, String>> checksums)
+            throws RemoteException {
+        return GET_MISSING_BLOCKS.call(() -> {
+            Session session = authenticate(token);
 
-        return checksums;
+            if (checksums == null) {
+                throw new RemoteException("Checksum list is required");
+            }
+
+            List<Long> missing = fileManager.getMissingBlocks(session.getUserId(), filename, checksums);
+
+            return missing;
+        });
     }
 
     @Override
     public Block downloadBlock(String token, String filename, long blockIndex) throws RemoteException {
+        return DOWNLOAD_BLOCK.call(() -> {
+            Session session = authenticate(token);
 
-        if (authService.validateToken(token) == false) {
-            throw new RemoteException("Token expired");
-        }
+            Block block = fileManager.downloadBlock(session.getUserId(), filename, blockIndex);
 
-        Session session = authService.login(token);
+            return block;
+        });
+    }
 
-        Block block = fileManager.downloadBlock(session.getUserId(), filename, blockIndex);
+    @Override
+    public List<Block> downloadBlocks(String token, String filename, long fromIndex, int count) throws RemoteException {
+        return DOWNLOAD_BLOCKS.call(() -> {
+            Session session = authenticate(token);
 
-        return block;
+            List<Block> blocks = fileManager.downloadBlocks(session.getUserId(), filename, fromIndex,
+                    Math.min(count, maxBatchBlocks(fileManager.getBlockSize(session.getUserId(), filename))));
+
+            return blocks;
+        });
     }
 
     @Override
-    public List<String> listFiles(String token) throws RemoteException {
+    public TransferTicket requestDownloadTicket(String token, String filename, long fromIndex, int count)
+            throws RemoteException {
+        return REQUEST_DOWNLOAD_TICKET.call(() -> {
+            Session session = authenticate(token);
+
+            if (bulkTransferServer == null) {
+                throw new RemoteException("Bulk transfer channel is not available");
+            }
+
+            return bulkTransferServer.issueTicket(session.getUserId(), TransferTicket.Direction.DOWNLOAD, filename,
+                    fromIndex, count);
+        });
+    }
 
-        List<String> filenames = null;
+    @Override
+    public TransferTicket requestUploadTicket(String token, String filename) throws RemoteException {
+        return REQUEST_UPLOAD_TICKET.call(() -> {
+            Session session = authenticate(token);
 
-        if (authService.validateToken(token) == false) {
-            throw new RemoteException("Token expired");
-        }
+            if (bulkTransferServer == null) {
+                throw new RemoteException("Bulk transfer channel is not available");
+            }
 
-        Session session = authService.login(token);
+            return bulkTransferServer.issueTicket(session.getUserId(), TransferTicket.Direction.UPLOAD, filename, 0, 0);
+        });
+    }
+
+    @Override
+    public List<String> listFiles(String token) throws RemoteException {
+        return LIST_FILES.call(() -> {
+            List<String> filenames = null;
 
-        filenames = fileManager.listFiles(session.getUserId());
+            Session session = authenticate(token);
 
-        return filenames;
+            filenames = fileManager.listFiles(session.getUserId());
+
+            return filenames;
+        });
     }
 
     @Override
     public long getBlockSize() throws RemoteException {
-        return BLOCK_SIZE;
+        return DEFAULT_BLOCK_SIZE;
+    }
+
+    @Override
+    public long getBlockSize(String token, String filename) throws RemoteException {
+        return GET_BLOCK_SIZE.call(() -> {
+            Session session = authenticate(token);
+
+            return fileManager.getBlockSize(session.getUserId(), filename);
+        });
+    }
+
+    @Override
+    public void setBlockSize(String token, String filename, long blockSize) throws RemoteException {
+        SET_BLOCK_SIZE.run(() -> {
+            Session session = authenticate(token);
+
+            if (!isSupportedBlockSize(blockSize)) {
+                throw new RemoteException("Unsupported block size " + blockSize);
+            }
+
+            if (!fileManager.setBlockSize(session.getUserId(), filename, (int) blockSize)) {
+                throw new RemoteException("Block size of '" + filename + "' cannot change once blocks are stored");
+            }
+        });
+    }
+
+    @Override
+    public ChunkingMode getChunkingMode(String token, String filename) throws RemoteException {
+        return GET_CHUNKING_MODE.call(() -> {
+            Session session = authenticate(token);
+
+            return fileManager.getChunkingMode(session.getUserId(), filename);
+        });
+    }
+
+    @Override
+    public void setChunkingMode(String token, String filename, ChunkingMode chunkingMode) throws RemoteException {
+        SET_CHUNKING_MODE.run(() -> {
+            Session session = authenticate(token);
+
+            if (chunkingMode == null) {
+                throw new RemoteException("Chunking mode is required");
+            }
+
+            if (!fileManager.setChunkingMode(session.getUserId(), filename, chunkingMode)) {
+                throw new RemoteException("Chunking mode of '" + filename + "' cannot change once blocks are stored");
+            }
+        });
+    }
+
+    /**
+     * Checks whether a file may use the given block size.
+     *
+     * @param blockSize Requested block size in bytes.
+     * @return {@code true} for powers of two within the supported range.
+     */
+    static boolean isSupportedBlockSize(long blockSize) {
+        return blockSize >= MIN_BLOCK_SIZE && blockSize <= MAX_BLOCK_SIZE && Long.bitCount(blockSize) == 1;
+    }
+
+    /**
+     * Computes how many blocks of the given size fit into a single batch.
+     *
+     * @param blockSize Block size in bytes.
+     * @return Number of blocks, at least one.
+     */
+    static int maxBatchBlocks(int blockSize) {
+        return Math.max(1, Math.min(MAX_BATCH_BLOCKS, MAX_BATCH_BYTES / blockSize));
     }
 
 }
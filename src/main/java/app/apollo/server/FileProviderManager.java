@@ -1,18 +1,31 @@
 package app.apollo.server;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
 
 import app.apollo.common.Block;
+import app.apollo.common.BlockCodec;
+import app.apollo.common.ChunkingMode;
+import app.apollo.common.CrypticEngine;
 import app.apollo.common.FrozenPair;
 
 /**
@@ -29,38 +42,268 @@ public class FileProviderManager {
 
     private FileMetadataDAO fileMetadataDAO;
     private FileBlockDAO fileBlockDAO;
+    private BlockStore blockStore;
 
     private static final Logger logger = Logger.getLogger(FileProviderManager.class.getName());
 
-    // ** Locks keyed by "userId:filename" */
-    private final ConcurrentHashMap<String, ReentrantLock> fileLocks = new ConcurrentHashMap<>();
+    /** Uploads are logged at most this many times per second */
+    private static final LogSite UPLOAD_LOG = new LogSite(logger, Level.INFO, 20);
+
+    /** Rejected batches, which a broken client may send in a loop */
+    private static final LogSite REJECT_LOG = new LogSite(logger, Level.WARNING, 10);
+
+    /** Lookups of files and blocks that do not exist */
+    private static final LogSite NOT_FOUND_LOG = new LogSite(logger, Level.WARNING, 10);
+
+    /** Time spent waiting for the lock of a file */
+    private static final OperationTimer FILE_LOCK_WAIT = Metrics.timer("lock.file.wait");
+
+    /** Time spent waiting for the content lock */
+    private static final OperationTimer CONTENT_LOCK_WAIT = Metrics.timer("lock.content.wait");
+
+    /**
+     * Locks of files. Changing the layout of a file, truncating or deleting it
+     * holds its lock exclusively; uploads and downloads hold it shared, so
+     * they never see a file half deleted or truncated, while batches of the
+     * same file are uploaded in parallel.
+     */
+    private final StripedLockTable fileLocks = new StripedLockTable(StripedLockTable.DEFAULT_STRIPES);
+
+    /**
+     * Guards stored payloads against being reclaimed while they are being
+     * referenced. Uploads hold it shared from storing a payload until its row
+     * is written, downloads from looking up a row until its payload is read;
+     * reclaiming unreferenced payloads holds it exclusively.
+     */
+    private final ReentrantReadWriteLock contentLock = new ReentrantReadWriteLock();
 
     /**
-     * Constructs a FileProviderManager with the specified DAOFactory.
+     * Constructs a FileProviderManager with the specified DAOFactory that keeps
+     * block payloads in a content-addressed store under {@code storage/blocks}.
      *
      * @param factory DAOFactory to obtain DAO instances for metadata and blocks.
      */
     public FileProviderManager(DAOFactory factory) {
+        this(factory, new ContentAddressedBlockStore(Paths.get("storage", "blocks")));
+    }
+
+    /**
+     * Constructs a FileProviderManager with the specified DAOFactory and block
+     * store.
+     *
+     * @param factory    DAOFactory to obtain DAO instances for metadata and
+     *                   blocks.
+     * @param blockStore Storage engine for block payloads.
+     */
+    public FileProviderManager(DAOFactory factory, BlockStore blockStore) {
         this.fileMetadataDAO = factory.getFileMetadataDAO();
         this.fileBlockDAO = factory.getFileBlockDAO();
+        this.blockStore = blockStore;
+    }
+
+    /**
+     * Acquires the shared lock of a file for an upload and returns the file's
+     * metadata, creating the file if it is missing. Creation briefly takes the
+     * lock exclusively and then downgrades it, so that parallel uploads of a
+     * new file create it only once.
+     *
+     * @param lock     Lock of the file.
+     * @param userId   ID of the file owner.
+     * @param filename Name of the file.
+     * @return The metadata of the file; the caller holds the shared lock.
+     */
+    private FileMetadata lockForUpload(ReentrantReadWriteLock lock, Integer userId, String filename) {
+        acquire(lock.readLock(), FILE_LOCK_WAIT);
+
+        FileMetadata metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
+
+        if (metadata != null) {
+            return metadata;
+        }
+
+        lock.readLock().unlock();
+        acquire(lock.writeLock(), FILE_LOCK_WAIT);
+
+        try {
+            metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
+
+            if (metadata == null) {
+                metadata = createMetadata(userId, filename, FileProvider.DEFAULT_BLOCK_SIZE);
+            }
+
+            lock.readLock().lock();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return metadata;
+    }
+
+    /**
+     * Acquires a lock and records how long that took.
+     *
+     * @param lock Lock to acquire.
+     * @param wait Timer of the wait.
+     */
+    private static void acquire(Lock lock, OperationTimer wait) {
+        long start = System.nanoTime();
+        lock.lock();
+        wait.stop(start);
+    }
+
+    /**
+     * Creates and persists metadata for a new, empty file. Must be called while
+     * holding the file lock exclusively.
+     *
+     * @param userId    ID of the user owning the file.
+     * @param filename  Name of the file.
+     * @param blockSize Number of bytes stored in each block of the file.
+     * @return The persisted metadata.
+     */
+    private FileMetadata createMetadata(Integer userId, String filename, Integer blockSize) {
+        FileMetadata metadata = new FileMetadata();
+        metadata.setOwnerId(userId);
+        metadata.setFilename(filename);
+        metadata.setCreatedAt(LocalDateTime.now());
+
+        Path baseDir = Paths.get("storage", String.valueOf(userId), filename);
+        metadata.setPath(baseDir.toString());
+        metadata.setBlockCount(0L);
+        metadata.setBlockSize(blockSize);
+        metadata.setChunkingMode(ChunkingMode.FIXED);
+
+        fileMetadataDAO.insert(metadata);
+        return fileMetadataDAO.findByNameAndOwner(filename, userId);
+    }
+
+    /**
+     * Retrieves the block size of the specified file.
+     *
+     * @param userId   ID of the file owner.
+     * @param filename Name of the file.
+     * @return The block size of the file, or the default block size if the file
+     *         does not exist.
+     */
+    public Integer getBlockSize(Integer userId, String filename) {
+        FileMetadata metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
+
+        if (metadata != null && metadata.getBlockSize() != null) {
+            return metadata.getBlockSize();
+        }
+
+        return FileProvider.DEFAULT_BLOCK_SIZE;
+    }
+
+    /**
+     * Chooses the block size of the specified file, creating the file if it is
+     * missing. The block size of a file that already stores blocks cannot be
+     * changed.
+     *
+     * @param userId    ID of the file owner.
+     * @param filename  Name of the file.
+     * @param blockSize Number of bytes stored in each block.
+     * @return {@code true} if the file now uses the given block size.
+     */
+    public boolean setBlockSize(Integer userId, String filename, Integer blockSize) {
+
+        Lock lock = fileLocks.get(userId, filename).writeLock();
+        acquire(lock, FILE_LOCK_WAIT);
+
+        logger.info("Setting block size " + blockSize + " for file '" + filename + "' for user " + userId);
+
+        try {
+            FileMetadata metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
+
+            if (metadata == null) {
+                return createMetadata(userId, filename, blockSize) != null;
+            }
+
+            if (blockSize.equals(metadata.getBlockSize())) {
+                return true;
+            }
+
+            if (hasBlocks(metadata)) {
+                return false;
+            }
+
+            metadata.setBlockSize(blockSize);
+            return fileMetadataDAO.update(metadata);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves how the specified file is split into blocks.
+     *
+     * @param userId   ID of the file owner.
+     * @param filename Name of the file.
+     * @return The chunking mode of the file, or {@link ChunkingMode#FIXED} if
+     *         the file does not exist.
+     */
+    public ChunkingMode getChunkingMode(Integer userId, String filename) {
+        FileMetadata metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
+
+        if (metadata != null && metadata.getChunkingMode() != null) {
+            return metadata.getChunkingMode();
+        }
+
+        return ChunkingMode.FIXED;
     }
 
     /**
-     * Provides a thread safe lock when managing same file
+     * Chooses how the specified file is split into blocks, creating the file if
+     * it is missing. The chunking mode of a file that already stores blocks
+     * cannot be changed.
      *
-     * @param userId
-     * @param filename
-     * @return Lock object that ensuers thread safety
-     */
-    private ReentrantLock getLock(Integer userId, String filename) {
-        String key = userId + ":" + filename;
-        fileLocks.putIfAbsent(key, new ReentrantLock());
-        return fileLocks.get(key);
+     * @param userId       ID of the file owner.
+     * @param filename     Name of the file.
+     * @param chunkingMode The chunking mode.
+     * @return {@code true} if the file now uses the given chunking mode.
+     */
+    public boolean setChunkingMode(Integer userId, String filename, ChunkingMode chunkingMode) {
+
+        Lock lock = fileLocks.get(userId, filename).writeLock();
+        acquire(lock, FILE_LOCK_WAIT);
+
+        logger.info("Setting chunking mode " + chunkingMode + " for file '" + filename + "' for user " + userId);
+
+        try {
+            FileMetadata metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
+
+            if (metadata == null) {
+                metadata = createMetadata(userId, filename, FileProvider.DEFAULT_BLOCK_SIZE);
+            }
+
+            if (chunkingMode == metadata.getChunkingMode()) {
+                return true;
+            }
+
+            if (hasBlocks(metadata)) {
+                return false;
+            }
+
+            metadata.setChunkingMode(chunkingMode);
+            return fileMetadataDAO.update(metadata);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether any block of a file is stored.
+     *
+     * @param metadata Metadata of the file.
+     * @return {@code true} if at least one block row exists.
+     */
+    private boolean hasBlocks(FileMetadata metadata) {
+        return !fileBlockDAO.findChecksumByUserAndFilename(metadata.getOwnerId(), metadata.getId()).isEmpty();
     }
 
     /**
      * Sets the number of blocks a file contains. If the new count is less than the
-     * previous count, removes extra blocks from storage and database.
+     * previous count, drops the references held by the extra blocks and removes
+     * payloads that are no longer referenced by any file.
      *
      * @param userId    ID of the user owning the file.
      * @param filename  Name of the file.
@@ -68,8 +311,8 @@ public class FileProviderManager {
      */
     public void setFileBlockCount(Integer userId, String filename, long numBlocks) {
 
-        ReentrantLock lock = getLock(userId, filename);
-        lock.lock();
+        Lock lock = fileLocks.get(userId, filename).writeLock();
+        acquire(lock, FILE_LOCK_WAIT);
 
         logger.info("Setting block count for file '" + filename + "' for user " + userId);
 
@@ -80,32 +323,26 @@ public class FileProviderManager {
                 long oldBlockCount = metadata.getBlockCount();
 
                 if (numBlocks < oldBlockCount) {
-                    for (long i = numBlocks; i < oldBlockCount; i++) {
-                        Path blockPath = Paths.get(metadata.getPath(), String.valueOf(i));
+                    Set<String> released = new HashSet<>();
 
-                        try {
-                            Files.deleteIfExists(blockPath);
-                        } catch (IOException e) {
-                            System.out.println(e.getMessage());
-                        }
+                    for (long i = numBlocks; i < oldBlockCount; i += FileProvider.MAX_BATCH_BLOCKS) {
+                        int count = (int) Math.min(FileProvider.MAX_BATCH_BLOCKS, oldBlockCount - i);
 
-                        fileBlockDAO.deleteByMetadataIdAndSequence(metadata.getId(), i);
+                        for (Block row : fileBlockDAO.findRangeByUserAndFilename(userId, metadata.getId(), i, count)) {
+                            released.add(row.getContentHash());
+                        }
                     }
+
+                    fileBlockDAO.deleteFromSequence(userId, metadata.getId(), numBlocks);
+                    reclaim(released);
                 }
 
                 metadata.setBlockCount(numBlocks);
                 fileMetadataDAO.update(metadata);
             } else {
-                metadata = new FileMetadata();
-                metadata.setOwnerId(userId);
-                metadata.setFilename(filename);
-                metadata.setCreatedAt(LocalDateTime.now());
-
-                Path baseDir = Paths.get("storage", String.valueOf(userId), filename);
-                metadata.setPath(baseDir.toString());
+                metadata = createMetadata(userId, filename, FileProvider.DEFAULT_BLOCK_SIZE);
                 metadata.setBlockCount(numBlocks);
-
-                fileMetadataDAO.insert(metadata);
+                fileMetadataDAO.update(metadata);
             }
         } finally {
             lock.unlock();
@@ -131,65 +368,388 @@ public class FileProviderManager {
 
     /**
      * Uploads a block for the specified file. Creates file metadata if missing.
-     * Stores block data on disk and inserts block info into database.
+     * Stores block data in the block store and inserts block info into database.
      *
      * @param userId   ID of the user uploading the block.
      * @param filename Name of the file.
      * @param block    Block data and metadata.
+     * @return {@code false} if the block refers to content the file does not
+     *         hold.
+     * @throws IOException if the block could not be stored.
      */
-    public void uploadBlock(Integer userId, String filename, Block block) {
+    public boolean uploadBlock(Integer userId, String filename, Block block) throws IOException {
+        return uploadBlocks(userId, filename, Collections.singletonList(block));
+    }
 
-        ReentrantLock lock = getLock(userId, filename);
-        lock.lock();
+    /**
+     * Uploads several blocks for the specified file as one unit. Creates file
+     * metadata if missing. The file lock is held shared and the metadata is
+     * looked up once for the whole batch, so batches of the same file are
+     * uploaded in parallel, and all block rows are written in a single
+     * transaction. Payloads already present in the block store, from this or
+     * any other file, are not written again. New payloads are stored
+     * compressed when that makes them smaller, reusing the client's compressed
+     * data where possible.
+     * <p>
+     * Blocks without data refer to content already stored in the same file by
+     * their content hash. If any reference cannot be resolved the whole batch
+     * is rejected and nothing is stored.
+     * </p>
+     *
+     * @param userId   ID of the user uploading the blocks.
+     * @param filename Name of the file.
+     * @param blocks   Blocks data and metadata.
+     * @return {@code false} if the batch was rejected because of an unresolved
+     *         reference.
+     * @throws IOException if a payload or the block rows could not be stored;
+     *                     the file then keeps its previous blocks.
+     */
+    public boolean uploadBlocks(Integer userId, String filename, List<Block> blocks) throws IOException {
+        return uploadBlocks(userId, filename, blocks, null);
+    }
+
+    /**
+     * Uploads several blocks whose data the caller already decoded while
+     * validating them, so that compressed blocks are inflated only once.
+     *
+     * @param userId   ID of the user uploading the blocks.
+     * @param filename Name of the file.
+     * @param blocks   Blocks data and metadata.
+     * @param decoded  Decoded data of each block, in the order of the blocks,
+     *                 or {@code null} to decode them here.
+     * @return {@code false} if the batch was rejected because of an unresolved
+     *         reference.
+     * @throws IOException if a payload or the block rows could not be stored;
+     *                     the file then keeps its previous blocks.
+     * @see #uploadBlocks(Integer, String, List)
+     */
+    public boolean uploadBlocks(Integer userId, String filename, List<Block> blocks, List<byte[]> decoded)
+            throws IOException {
+
+        ReentrantReadWriteLock lock = fileLocks.get(userId, filename);
+        FileMetadata metadata = lockForUpload(lock, userId, filename);
 
-        logger.info("Uploading block " + block.getSequenceNumber() + " for file '" + filename + "' by user " + userId);
+        UPLOAD_LOG.log("Uploading {0,number,#} block(s) for file ''{1}'' by user {2,number,#}", blocks.size(), filename,
+                userId);
 
         try {
-            FileMetadata metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
+            Map<Long, Block> existing = findExistingBlocks(metadata, blocks);
+            List<Block> stored = new ArrayList<>(blocks.size());
+            Set<String> replaced = new HashSet<>();
+            Set<String> written = new HashSet<>();
+            IOException failure = null;
 
-            if (metadata == null) {
-                metadata = new FileMetadata();
-                metadata.setOwnerId(userId);
-                metadata.setFilename(filename);
-                metadata.setCreatedAt(LocalDateTime.now());
+            acquire(contentLock.readLock(), CONTENT_LOCK_WAIT);
+
+            try {
+                Map<String, Block> uploaded = new HashMap<>();
+                Map<String, byte[]> compressed = new HashMap<>();
+
+                for (int i = 0; i < blocks.size(); i++) {
+                    Block block = blocks.get(i);
+
+                    if (metadata.getChunkingMode() != ChunkingMode.CONTENT) {
+                        block.setOffset(block.getSequenceNumber() * metadata.getBlockSize());
+                    }
+
+                    if (block.getData() != null) {
+                        byte[] data = decoded != null && decoded.get(i) != null ? decoded.get(i) : decode(block);
 
-                Path baseDir = Paths.get("storage", String.valueOf(userId), filename);
-                metadata.setPath(baseDir.toString());
+                        if (data == null) {
+                            REJECT_LOG.log("Rejected block {0,number,#} of ''{1}'' with undecodable data",
+                                    block.getSequenceNumber(), filename);
+                            return false;
+                        }
 
-                fileMetadataDAO.insert(metadata);
-                metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
+                        block.setContentHash(CrypticEngine.contentHash(data, data.length));
+                        uploaded.put(block.getContentHash(), block);
+
+                        if (block.getCodec() == BlockCodec.DEFLATE && block.getData().length < data.length) {
+                            compressed.put(block.getContentHash(), block.getData());
+                        }
+
+                        block.setData(data);
+                        block.setSize(data.length);
+                        block.setCodec(BlockCodec.RAW);
+                    }
+                }
+
+                for (Block block : blocks) {
+                    if (block.getData() == null && !resolveReference(metadata, uploaded, block)) {
+                        REJECT_LOG.log("Rejected block {0,number,#} of ''{1}'' referring to unknown content",
+                                block.getSequenceNumber(), filename);
+                        return false;
+                    }
+                }
+
+                for (Block block : blocks) {
+                    Block previous = existing.get(block.getSequenceNumber());
+
+                    if (isUnchanged(previous, block)) {
+                        continue;
+                    }
+
+                    try {
+                        String contentHash = block.getContentHash();
+
+                        if (block.getData() != null && !blockStore.contains(contentHash)
+                                && blockStore.put(contentHash, encode(block.getData(), compressed.get(contentHash)))) {
+                            written.add(contentHash);
+                        }
+
+                        block.setMetadataId(metadata.getId());
+                        block.setUserId(metadata.getOwnerId());
+
+                        stored.add(block);
+                    } catch (IOException e) {
+                        logger.log(Level.SEVERE, "Failed to upload block " + block.getSequenceNumber(), e);
+                        failure = e;
+                        break;
+                    }
+                }
+
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "Skipped {0,number,#} unchanged block(s) of ''{1}''",
+                            new Object[] { blocks.size() - stored.size(), filename });
+                }
+
+                if (failure == null && !fileBlockDAO.insertAll(stored, replaced)) {
+                    logger.severe("Failed to store block rows for file '" + filename + "' by user " + userId);
+                    failure = new IOException("Failed to store block rows of '" + filename + "'");
+                }
+            } finally {
+                contentLock.readLock().unlock();
             }
 
-            Path blockPath = Paths.get(metadata.getPath(), String.valueOf(block.getSequenceNumber()));
+            if (failure != null) {
+                // The previous rows still stand, so only what this batch wrote
+                // may have lost its last reference
+                reclaim(written);
+                throw failure;
+            }
 
-            try {
-                Files.createDirectories(blockPath.getParent());
-                Files.write(blockPath, block.getData());
+            // The rows this batch overwrote, as read in its own transaction,
+            // which also covers rows a parallel batch wrote in the meantime
+            reclaim(replaced);
 
-                block.setMetadataId(metadata.getId());
-                block.setUserId(metadata.getOwnerId());
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
 
-                fileBlockDAO.insert(block);
-            } catch (IOException e) {
-                logger.log(Level.SEVERE, "Failed to upload block", e);
+    }
+
+    /**
+     * Decodes the data of an uploaded block.
+     *
+     * @param block Block with data.
+     * @return The decoded data, or {@code null} if it cannot be decoded.
+     */
+    private byte[] decode(Block block) {
+        try {
+            return block.getCodec().decode(block.getData(), block.getSize());
+        } catch (DataFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Chooses the stored form of a payload. Payloads are kept compressed only
+     * when that makes them smaller, so the codec of a stored payload follows
+     * from its size alone, see {@link #codecOf(long, Block)}.
+     *
+     * @param data       Decoded payload.
+     * @param compressed Compressed payload sent by the client, may be
+     *                   {@code null}.
+     * @return The bytes to store.
+     */
+    private byte[] encode(byte[] data, byte[] compressed) {
+        if (compressed == null) {
+            compressed = BlockCodec.deflate(data);
+        }
+
+        return compressed != null ? compressed : data;
+    }
+
+    /**
+     * Determines how a stored payload is encoded.
+     *
+     * @param storedSize Number of bytes held by the block store.
+     * @param row        Block row referring to the payload.
+     * @return {@link BlockCodec#DEFLATE} if the payload is smaller than the
+     *         block, {@link BlockCodec#RAW} otherwise.
+     */
+    private static BlockCodec codecOf(long storedSize, Block row) {
+        return storedSize < row.getSize() ? BlockCodec.DEFLATE : BlockCodec.RAW;
+    }
+
+    /**
+     * Completes a block that carries no data from a block with the same content
+     * that is either part of the same batch or already stored in the file. Must
+     * be called while holding the file lock and the shared content lock, so
+     * that the content cannot be reclaimed before the new reference is written.
+     *
+     * @param metadata Metadata of the file.
+     * @param uploaded Blocks with data in the current batch, keyed by content
+     *                 hash.
+     * @param block    Block without data.
+     * @return {@code true} if the content is available and matches the block's
+     *         fingerprint and checksum.
+     */
+    private boolean resolveReference(FileMetadata metadata, Map<String, Block> uploaded, Block block) {
+        Block source = uploaded.get(block.getContentHash());
+
+        if (source == null) {
+            source = fileBlockDAO.findByUserFilenameAndContentHash(metadata.getOwnerId(), metadata.getId(),
+                    block.getContentHash());
+        }
+
+        if (source == null || !source.getFingerprint().equals(block.getFingerprint())
+                || !source.getChecksum().equals(block.getChecksum())) {
+            return false;
+        }
+
+        block.setSize(source.getSize());
+        return true;
+    }
+
+    /**
+     * Loads the stored rows for the index range covered by a batch of blocks.
+     *
+     * @param metadata Metadata of the file.
+     * @param blocks   Blocks about to be uploaded.
+     * @return Stored rows keyed by sequence number.
+     */
+    private Map<Long, Block> findExistingBlocks(FileMetadata metadata, List<Block> blocks) {
+        Map<Long, Block> existing = new HashMap<>();
+
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+
+        for (Block block : blocks) {
+            first = Math.min(first, block.getSequenceNumber());
+            last = Math.max(last, block.getSequenceNumber());
+        }
+
+        if (first > last || last - first >= Integer.MAX_VALUE) {
+            return existing;
+        }
+
+        for (Block row : fileBlockDAO.findRangeByUserAndFilename(metadata.getOwnerId(), metadata.getId(), first,
+                (int) (last - first + 1))) {
+            existing.put(row.getSequenceNumber(), row);
+        }
+
+        return existing;
+    }
+
+    /**
+     * Checks whether an incoming block carries the same content as the stored
+     * one, in which case neither the disk nor the database needs updating.
+     *
+     * @param stored   Stored row, may be {@code null}.
+     * @param incoming Uploaded block.
+     * @return {@code true} if the block is already stored as is.
+     */
+    private boolean isUnchanged(Block stored, Block incoming) {
+        return stored != null
+                && Objects.equals(stored.getOffset(), incoming.getOffset())
+                && stored.getSize().equals(incoming.getSize())
+                && stored.getFingerprint().equals(incoming.getFingerprint())
+                && stored.getChecksum().equals(incoming.getChecksum());
+    }
+
+    /**
+     * Computes the indices of blocks that differ between the client's view of
+     * a file and the stored blocks. For content-chunked files only blocks whose
+     * content is not stored anywhere in the file are reported.
+     *
+     * @param userId    ID of the file owner.
+     * @param filename  Name of the file.
+     * @param checksums Client fingerprint and checksum pairs ordered by index.
+     * @return Indices of blocks the server needs, in ascending order.
+     */
+    public List<Long> getMissingBlocks(Integer userId, String filename, List<FrozenPair<String, String>> checksums) {
+
+        Lock lock = fileLocks.get(userId, filename).readLock();
+        acquire(lock, FILE_LOCK_WAIT);
+
+        try {
+            List<Long> missing = new ArrayList<>();
+            Map<Long, FrozenPair<String, String>> stored = new HashMap<>();
+
+            FileMetadata metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
+
+            if (metadata != null) {
+                stored = fileBlockDAO.findChecksumsBySequence(userId, metadata.getId());
             }
+
+            if (metadata != null && metadata.getChunkingMode() == ChunkingMode.CONTENT) {
+                Set<FrozenPair<String, String>> contents = new HashSet<>(stored.values());
+
+                for (int i = 0; i < checksums.size(); i++) {
+                    if (!contents.contains(checksums.get(i))) {
+                        missing.add((long) i);
+                    }
+                }
+
+                return missing;
+            }
+
+            for (int i = 0; i < checksums.size(); i++) {
+                if (!checksums.get(i).equals(stored.get((long) i))) {
+                    missing.add((long) i);
+                }
+            }
+
+            return missing;
         } finally {
             lock.unlock();
         }
+    }
 
+    /**
+     * Removes payloads that are no longer referenced by any block row. Runs
+     * under the exclusive content lock so that no upload can start referencing
+     * a payload between the reference count check and its removal.
+     *
+     * @param contentHashes Content hashes whose references were dropped.
+     */
+    private void reclaim(Collection<String> contentHashes) {
+        if (contentHashes.isEmpty()) {
+            return;
+        }
+
+        acquire(contentLock.writeLock(), CONTENT_LOCK_WAIT);
+
+        try {
+            for (String contentHash : contentHashes) {
+                if (fileBlockDAO.countByContentHash(contentHash) > 0) {
+                    continue;
+                }
+
+                try {
+                    blockStore.delete(contentHash);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to delete block content " + contentHash, e);
+                }
+            }
+        } finally {
+            contentLock.writeLock().unlock();
+        }
     }
 
     /**
-     * Deletes the specified file along with all its blocks from both disk and
-     * database.
+     * Deletes the specified file along with all its block references. Payloads
+     * are only removed from disk once no other file refers to them.
      *
      * @param userId   ID of the file owner.
      * @param filename Name of the file to delete.
      */
     public void deleteFile(Integer userId, String filename) {
 
-        ReentrantLock lock = getLock(userId, filename);
-        lock.lock();
+        Lock lock = fileLocks.get(userId, filename).writeLock();
+        acquire(lock, FILE_LOCK_WAIT);
 
         logger.info("Deleting file '" + filename + "' for user " + userId);
 
@@ -200,26 +760,13 @@ public class FileProviderManager {
                 return;
             }
 
-            try {
-                Path fileDir = Paths.get(metadata.getPath()).getParent();
-                if (fileDir != null && Files.exists(fileDir)) {
-                    Files.walk(fileDir)
-                            .sorted((a, b) -> b.compareTo(a))
-                            .forEach(path -> {
-                                try {
-                                    Files.deleteIfExists(path);
-                                } catch (IOException e) {
-                                    logger.log(Level.WARNING, "Failed to delete: " + path, e);
-
-                                }
-                            });
-                }
+            List<String> released = fileBlockDAO.findContentHashesByUserAndFilename(metadata.getOwnerId(),
+                    metadata.getId());
 
-                fileBlockDAO.deleteByUserAndFilename(metadata.getOwnerId(), metadata.getId());
-                fileMetadataDAO.delete(filename, userId);
-            } catch (IOException e) {
-                logger.log(Level.SEVERE, "Error deleting file", e);
-            }
+            fileBlockDAO.deleteByUserAndFilename(metadata.getOwnerId(), metadata.getId());
+            fileMetadataDAO.delete(filename, userId);
+
+            reclaim(released);
         } finally {
             lock.unlock();
         }
@@ -235,18 +782,29 @@ public class FileProviderManager {
      */
     public List<FrozenPair<String, String>> getChecksums(Integer userId, String filename) {
 
-        FileMetadata metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
+        Lock lock = fileLocks.get(userId, filename).readLock();
+        acquire(lock, FILE_LOCK_WAIT);
 
-        if (metadata == null) {
-            return new ArrayList<>();
-        }
+        try {
+            FileMetadata metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
 
-        return fileBlockDAO.findChecksumByUserAndFilename(userId, metadata.getId());
+            if (metadata == null) {
+                return new ArrayList<>();
+            }
+
+            return fileBlockDAO.findChecksumByUserAndFilename(userId, metadata.getId());
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * Downloads a specific block of a file.
-     * Reads block data from disk and returns a Block object with its data.
+     * Reads block data from the block store and returns a Block object with its
+     * data in stored form, so compressed payloads are sent without being
+     * inflated; the block's codec tells the client how to decode them. The
+     * row is looked up and its payload read under the shared content lock, so
+     * that a parallel upload cannot reclaim the payload in between.
      *
      * @param userId     ID of the file owner.
      * @param filename   Name of the file.
@@ -255,32 +813,225 @@ public class FileProviderManager {
      */
     public Block downloadBlock(Integer userId, String filename, long blockIndex) {
 
-        FileMetadata metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
-        if (metadata == null) {
-            logger.warning("Metadata not found for user " + userId + " and file '" + filename + "'");
+        Lock lock = fileLocks.get(userId, filename).readLock();
+        acquire(lock, FILE_LOCK_WAIT);
+
+        try {
+            FileMetadata metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
+            if (metadata == null) {
+                NOT_FOUND_LOG.log("Metadata not found for user {0,number,#} and file ''{1}''", userId, filename);
+                return null;
+            }
+
+            acquire(contentLock.readLock(), CONTENT_LOCK_WAIT);
+
+            try {
+                Block block = fileBlockDAO.findByUserFilenameAndBlock(userId, metadata.getId(), blockIndex);
+                if (block == null) {
+                    NOT_FOUND_LOG.log("Block not found for file ''{0}'', block {1,number,#}", filename, blockIndex);
+                    return null;
+                }
+
+                byte[] data = blockStore.get(block.getContentHash());
+                BlockCodec codec = codecOf(data.length, block);
+
+                block = copyOf(block);
+                block.setData(data);
+                block.setCodec(codec);
+                block.setSequenceNumber(blockIndex);
+
+                return block;
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Failed to read block from disk", e);
+            } finally {
+                contentLock.readLock().unlock();
+            }
+
             return null;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        Block block = fileBlockDAO.findByUserFilenameAndBlock(userId, metadata.getId(), blockIndex);
-        if (block == null) {
-            logger.warning("Block not found for file '" + filename + "', block " + blockIndex);
-            return null;
+    /**
+     * Downloads a contiguous run of blocks of a file.
+     * Looks up the metadata and block rows once and reads the block data from
+     * the block store in sequence order, leaving compressed payloads compressed.
+     * The run stops at the first missing or unreadable block. The shared
+     * content lock is held from the row lookup until the last payload is read.
+     *
+     * @param userId    ID of the file owner.
+     * @param filename  Name of the file.
+     * @param fromIndex Index of the first block to download.
+     * @param count     Maximum number of blocks to download.
+     * @return Blocks containing the data and metadata; empty if none found.
+     */
+    public List<Block> downloadBlocks(Integer userId, String filename, long fromIndex, int count) {
+
+        Lock lock = fileLocks.get(userId, filename).readLock();
+        acquire(lock, FILE_LOCK_WAIT);
+
+        try {
+            List<Block> blocks = new ArrayList<>();
+
+            if (count <= 0 || fromIndex < 0) {
+                return blocks;
+            }
+
+            FileMetadata metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
+            if (metadata == null) {
+                NOT_FOUND_LOG.log("Metadata not found for user {0,number,#} and file ''{1}''", userId, filename);
+                return blocks;
+            }
+
+            long expectedIndex = fromIndex;
+
+            acquire(contentLock.readLock(), CONTENT_LOCK_WAIT);
+
+            try {
+                for (Block row : fileBlockDAO.findRangeByUserAndFilename(userId, metadata.getId(), fromIndex, count)) {
+                    if (row.getSequenceNumber() != expectedIndex) {
+                        NOT_FOUND_LOG.log("Block not found for file ''{0}'', block {1,number,#}", filename,
+                                expectedIndex);
+                        break;
+                    }
+
+                    try {
+                        byte[] data = blockStore.get(row.getContentHash());
+
+                        Block block = copyOf(row);
+                        block.setData(data);
+                        block.setCodec(codecOf(data.length, row));
+
+                        blocks.add(block);
+                    } catch (IOException e) {
+                        logger.log(Level.SEVERE, "Failed to read block from disk", e);
+                        break;
+                    }
+
+                    expectedIndex++;
+                }
+            } finally {
+                contentLock.readLock().unlock();
+            }
+
+            return blocks;
+        } finally {
+            lock.unlock();
         }
+    }
+
+    /**
+     * Streams a contiguous run of blocks to a channel using zero-copy file
+     * transfers. Each block is preceded by a frame header and the stream is
+     * terminated with {@link BulkTransferServer#END_OF_STREAM}. The run stops
+     * at the first missing block.
+     * <p>
+     * The shared content lock is taken for one block at a time, so that
+     * reclaiming, and with it every upload, waits for at most one block of a
+     * slow client rather than for the whole transfer. A row read before the
+     * lock may meanwhile have been replaced and its payload reclaimed; such a
+     * block is looked up again under the lock.
+     * </p>
+     *
+     * @param userId    ID of the file owner.
+     * @param filename  Name of the file.
+     * @param fromIndex Index of the first block to send.
+     * @param count     Maximum number of blocks to send.
+     * @param target    Channel that receives the frames.
+     * @return Number of blocks sent.
+     * @throws IOException If writing to the channel fails.
+     */
+    public long transferBlocks(Integer userId, String filename, long fromIndex, int count, WritableByteChannel target)
+            throws IOException {
 
-        Path blockPath = Paths.get(metadata.getPath(), String.valueOf(blockIndex));
+        Lock lock = fileLocks.get(userId, filename).readLock();
+        acquire(lock, FILE_LOCK_WAIT);
 
         try {
-            byte[] data = Files.readAllBytes(blockPath);
-            block.setData(data);
-            block.setSize(data.length);
-            block.setSequenceNumber(blockIndex);
-
-            return block;
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Failed to read block from disk", e);
+            ByteBuffer header = ByteBuffer.allocate(BulkTransferServer.FRAME_HEADER_SIZE);
+            long sent = 0;
+
+            FileMetadata metadata = fileMetadataDAO.findByNameAndOwner(filename, userId);
+
+            if (metadata != null && count > 0 && fromIndex >= 0) {
+                long expectedIndex = fromIndex;
+
+                for (Block row : fileBlockDAO.findRangeByUserAndFilename(userId, metadata.getId(), fromIndex, count)) {
+                    if (row.getSequenceNumber() != expectedIndex) {
+                        break;
+                    }
+
+                    acquire(contentLock.readLock(), CONTENT_LOCK_WAIT);
+
+                    try {
+                        Block current = row;
+                        long size;
+
+                        try {
+                            size = blockStore.size(current.getContentHash());
+                        } catch (NoSuchFileException e) {
+                            current = fileBlockDAO.findByUserFilenameAndBlock(userId, metadata.getId(), expectedIndex);
+
+                            if (current == null) {
+                                break;
+                            }
+
+                            size = blockStore.size(current.getContentHash());
+                        }
+
+                        header.clear();
+                        BulkTransferServer.putFrameHeader(header, expectedIndex, (int) size, current.getSize(),
+                                codecOf(size, current));
+                        writeFully(target, header);
+
+                        blockStore.transferTo(current.getContentHash(), target);
+                    } finally {
+                        contentLock.readLock().unlock();
+                    }
+
+                    sent++;
+                    expectedIndex++;
+                }
+            } else {
+                NOT_FOUND_LOG.log("Metadata not found for user {0,number,#} and file ''{1}''", userId, filename);
+            }
+
+            header.clear();
+            BulkTransferServer.putFrameHeader(header, BulkTransferServer.END_OF_STREAM, 0, 0, BlockCodec.RAW);
+            writeFully(target, header);
+
+            return sent;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        return null;
+    private static void writeFully(WritableByteChannel target, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * Creates a detached copy of a block row so that cached instances are never
+     * handed out with payload attached.
+     *
+     * @param row Block as returned by the DAO.
+     * @return A new block with the same metadata and no data.
+     */
+    private Block copyOf(Block row) {
+        Block block = new Block();
+        block.setUserId(row.getUserId());
+        block.setMetadataId(row.getMetadataId());
+        block.setSequenceNumber(row.getSequenceNumber());
+        block.setChecksum(row.getChecksum());
+        block.setFingerprint(row.getFingerprint());
+        block.setSize(row.getSize());
+        block.setContentHash(row.getContentHash());
+        block.setOffset(row.getOffset());
+        return block;
     }
 
     /**
@@ -0,0 +1,288 @@
+package app.apollo.server;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import app.apollo.common.Block;
+import app.apollo.common.FrozenPair;
+
+/**
+ * {@link FileBlockDAO} that commits block rows from concurrent uploaders
+ * together.
+ * <p>
+ * Inserts are queued and a single writer thread stores them, up to a row
+ * limit, in one transaction through the wrapped DAO. An insert that arrives
+ * while the writer is idle is committed right away. Inserts that arrive while
+ * a commit is running share the next one, which waits until the first of
+ * them has been queued for a short window, so batches only form when uploads
+ * actually overlap. Callers block until the transaction holding their rows
+ * has committed, so an insert is acknowledged only once it is durable, but
+ * many uploaders share the cost of one commit. If a combined transaction fails,
+ * every queued insert is retried on its own so that one bad row cannot fail
+ * unrelated uploads. All other operations go straight to the wrapped DAO.
+ * </p>
+ */
+public class GroupCommitFileBlockDAO implements FileBlockDAO, Closeable {
+
+    private static final Logger logger = Logger.getLogger(GroupCommitFileBlockDAO.class.getName());
+
+    /** Rows of one insert call waiting to be committed. */
+    private static final class PendingWrite {
+        private final List<Block> blocks;
+
+        /** Receives the content the rows replaced, or null if not wanted */
+        private final Collection<String> replaced;
+
+        private final CompletableFuture<Boolean> committed = new CompletableFuture<>();
+
+        /** {@link System#nanoTime()} at which the rows were queued */
+        private final long queuedAt = System.nanoTime();
+
+        private PendingWrite(List<Block> blocks, Collection<String> replaced) {
+            this.blocks = blocks;
+            this.replaced = replaced;
+        }
+    }
+
+    private final FileBlockDAO delegate;
+
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+
+    private final long windowNanos;
+
+    private final int maxRows;
+
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    /**
+     * Wraps a DAO and starts the writer thread.
+     *
+     * @param delegate DAO that performs the transactions.
+     * @param window   Longest time rows queued during a commit wait for more
+     *                 rows to join their transaction.
+     * @param unit     Unit of {@code window}.
+     * @param maxRows  Number of rows that triggers a commit without waiting
+     *                 for the window to pass.
+     */
+    public GroupCommitFileBlockDAO(FileBlockDAO delegate, long window, TimeUnit unit, int maxRows) {
+        this.delegate = delegate;
+        this.windowNanos = unit.toNanos(window);
+        this.maxRows = Math.max(1, maxRows);
+
+        this.writer = new Thread(this::run, "block-group-commit");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public boolean insert(Block block) {
+        List<Block> blocks = new ArrayList<>(1);
+        blocks.add(block);
+        return insertAll(blocks);
+    }
+
+    @Override
+    public boolean insertAll(List<Block> blocks) {
+        return insertAll(blocks, null);
+    }
+
+    /**
+     * Queues the rows like {@link #insertAll(List)}. Rows committed together
+     * with other callers' rows report everything the combined transaction
+     * replaced; the caller's reclaim checks whether it is still referenced.
+     */
+    @Override
+    public boolean insertAll(List<Block> blocks, Collection<String> replaced) {
+        if (blocks.isEmpty()) {
+            return true;
+        }
+
+        if (!running) {
+            return delegate.insertAll(blocks, replaced);
+        }
+
+        PendingWrite write = new PendingWrite(blocks, replaced);
+        queue.add(write);
+
+        if (!running && queue.remove(write)) {
+            return delegate.insertAll(blocks, replaced);
+        }
+
+        return write.committed.join();
+    }
+
+    private void run() {
+        List<PendingWrite> group = new ArrayList<>();
+        long lastCommitEnd = System.nanoTime();
+
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+                if (first == null) {
+                    continue;
+                }
+
+                group.add(first);
+                int rows = first.blocks.size();
+
+                // rows that arrived while the writer was idle are committed
+                // with whatever is queued now instead of waiting for company
+                long deadline = first.queuedAt - lastCommitEnd < 0 ? first.queuedAt + windowNanos
+                        : System.nanoTime();
+
+                while (rows < maxRows) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+
+                    if (next == null) {
+                        break;
+                    }
+
+                    group.add(next);
+                    rows += next.blocks.size();
+                }
+            } catch (InterruptedException e) {
+                if (running) {
+                    continue;
+                }
+            }
+
+            commit(group);
+            group.clear();
+            lastCommitEnd = System.nanoTime();
+        }
+    }
+
+    private void commit(List<PendingWrite> group) {
+        if (group.isEmpty()) {
+            return;
+        }
+
+        if (group.size() > 1) {
+            List<Block> rows = new ArrayList<>();
+            for (PendingWrite write : group) {
+                rows.addAll(write.blocks);
+            }
+
+            Set<String> replaced = new HashSet<>();
+
+            if (insertQuietly(rows, replaced)) {
+                for (PendingWrite write : group) {
+                    if (write.replaced != null) {
+                        write.replaced.addAll(replaced);
+                    }
+                    write.committed.complete(true);
+                }
+                return;
+            }
+
+            logger.warning("Group commit of " + rows.size() + " rows failed, retrying " + group.size()
+                    + " inserts separately");
+        }
+
+        for (PendingWrite write : group) {
+            write.committed.complete(insertQuietly(write.blocks, write.replaced));
+        }
+    }
+
+    private boolean insertQuietly(List<Block> rows, Collection<String> replaced) {
+        try {
+            return delegate.insertAll(rows, replaced);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Failed to commit block rows", e);
+            return false;
+        }
+    }
+
+    @Override
+    public Block findByUserFilenameAndBlock(Integer userId, Integer fileId, Long blockId) {
+        return delegate.findByUserFilenameAndBlock(userId, fileId, blockId);
+    }
+
+    @Override
+    public List<Block> findRangeByUserAndFilename(Integer userId, Integer fileId, Long fromBlock, Integer count) {
+        return delegate.findRangeByUserAndFilename(userId, fileId, fromBlock, count);
+    }
+
+    @Override
+    public List<FrozenPair<String, String>> findChecksumByUserAndFilename(Integer userId, Integer fileId) {
+        return delegate.findChecksumByUserAndFilename(userId, fileId);
+    }
+
+    @Override
+    public Map<Long, FrozenPair<String, String>> findChecksumsBySequence(Integer userId, Integer fileId) {
+        return delegate.findChecksumsBySequence(userId, fileId);
+    }
+
+    @Override
+    public Block findByUserFilenameAndContentHash(Integer userId, Integer fileId, String contentHash) {
+        return delegate.findByUserFilenameAndContentHash(userId, fileId, contentHash);
+    }
+
+    @Override
+    public List<String> findContentHashesByUserAndFilename(Integer userId, Integer fileId) {
+        return delegate.findContentHashesByUserAndFilename(userId, fileId);
+    }
+
+    @Override
+    public long countByContentHash(String contentHash) {
+        return delegate.countByContentHash(contentHash);
+    }
+
+    @Override
+    public void deleteFromSequence(Integer userId, Integer fileId, Long fromBlock) {
+        delegate.deleteFromSequence(userId, fileId, fromBlock);
+    }
+
+    @Override
+    public void deleteByMetadataIdAndSequence(Integer metadataId, Long sequenceId) {
+        delegate.deleteByMetadataIdAndSequence(metadataId, sequenceId);
+    }
+
+    @Override
+    public void deleteByUserFilenameAndBlock(Integer userId, Integer fileId, Long blockId) {
+        delegate.deleteByUserFilenameAndBlock(userId, fileId, blockId);
+    }
+
+    @Override
+    public void deleteByUserAndFilename(Integer userId, Integer fileId) {
+        delegate.deleteByUserAndFilename(userId, fileId);
+    }
+
+    /**
+     * Commits the rows that are still queued and stops the writer thread.
+     * Later inserts are committed directly by the calling thread.
+     */
+    @Override
+    public void close() {
+        running = false;
+        writer.interrupt();
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<PendingWrite> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+
+        for (PendingWrite write : remaining) {
+            write.committed.complete(insertQuietly(write.blocks, write.replaced));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package app.apollo.server;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Timer that schedules large numbers of short tasks with coarse precision.
+ * <p>
+ * Time is divided into ticks and every task is placed in the bucket of the
+ * tick in which it expires, wrapping around a fixed number of buckets. A
+ * single daemon thread advances one bucket per tick and runs the tasks that
+ * are due, so scheduling and cancelling are O(1) and never contend with each
+ * other. Tasks fire up to one tick late and run on the timer thread, so they
+ * must be short and must not block.
+ * </p>
+ */
+public class HashedTimerWheel implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(HashedTimerWheel.class.getName());
+
+    /** Handle of a scheduled task. */
+    public static final class Timeout {
+
+        private final Runnable task;
+
+        /** Deadline in nanoseconds relative to the start of the wheel */
+        private final long deadline;
+
+        /** Full turns of the wheel left before the task is due */
+        private long remainingRounds;
+
+        private volatile boolean cancelled;
+
+        private volatile boolean expired;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Prevents the task from running. The handle is dropped from the
+         * wheel the next time its bucket is visited.
+         *
+         * @return {@code true} if the task had not run yet.
+         */
+        public boolean cancel() {
+            cancelled = true;
+            return !expired;
+        }
+
+        /** @return {@code true} if the task was cancelled */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /** @return {@code true} if the task has run */
+        public boolean isExpired() {
+            return expired;
+        }
+    }
+
+    private final long tickNanos;
+
+    private final int mask;
+
+    private final List<List<Timeout>> buckets;
+
+    /** Tasks scheduled since the last tick, moved into buckets by the timer thread */
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    private final long startTime;
+
+    private final Thread worker;
+
+    private volatile boolean running = true;
+
+    /**
+     * Creates a wheel and starts its timer thread.
+     *
+     * @param name      Name of the timer thread.
+     * @param tick      Duration of one tick.
+     * @param unit      Unit of {@code tick}.
+     * @param wheelSize Number of buckets; rounded up to a power of two.
+     */
+    public HashedTimerWheel(String name, long tick, TimeUnit unit, int wheelSize) {
+        if (tick <= 0 || wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("Tick and wheel size must be positive.");
+        }
+
+        int size = Integer.highestOneBit(wheelSize) == wheelSize ? wheelSize : Integer.highestOneBit(wheelSize) << 1;
+
+        this.tickNanos = unit.toNanos(tick);
+        this.mask = size - 1;
+        this.buckets = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ArrayList<>());
+        }
+
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules a task to run once after the given delay.
+     *
+     * @param task  Task to run on the timer thread.
+     * @param delay Delay before the task runs.
+     * @param unit  Unit of {@code delay}.
+     * @return Handle that can cancel the task.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) {
+            throw new IllegalStateException("Timer wheel is closed");
+        }
+
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        long tick = 0;
+
+        while (running) {
+            long now = waitForTick(tick);
+
+            if (!running) {
+                break;
+            }
+
+            transferPending(tick);
+            expire(buckets.get((int) (tick & mask)), now);
+            tick++;
+        }
+    }
+
+    private long waitForTick(long tick) {
+        long deadline = tickNanos * (tick + 1);
+
+        while (true) {
+            long now = System.nanoTime() - startTime;
+            long sleepNanos = deadline - now;
+
+            if (sleepNanos <= 0 || !running) {
+                return now;
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return now;
+                }
+            }
+        }
+    }
+
+    private void transferPending(long tick) {
+        Timeout timeout;
+
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+
+            long due = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (due - tick) / buckets.size();
+
+            buckets.get((int) (Math.max(due, tick) & mask)).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket, long now) {
+        int kept = 0;
+
+        for (int i = 0; i < bucket.size(); i++) {
+            Timeout timeout = bucket.get(i);
+
+            if (timeout.cancelled) {
+                continue;
+            }
+
+            if (timeout.remainingRounds > 0 || timeout.deadline > now) {
+                timeout.remainingRounds--;
+                bucket.set(kept++, timeout);
+                continue;
+            }
+
+            timeout.expired = true;
+
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Timer task failed", e);
+            }
+        }
+
+        bucket.subList(kept, bucket.size()).clear();
+    }
+
+    /**
+     * Stops the timer thread. Tasks that have not run yet are dropped.
+     */
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+}
@@ -0,0 +1,77 @@
+package app.apollo.server;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers cache invalidations to every cache that holds the same kind of
+ * data.
+ * <p>
+ * Caches subscribe under a topic, typically the name of the DAO cache. When
+ * one of them changes or drops an entry, the bus removes that key from all
+ * other caches of the topic on the publishing thread, so no cache serves a
+ * value that another one has replaced. Subscribers are held weakly, so caches
+ * of discarded DAO instances do not have to unsubscribe.
+ * </p>
+ */
+public class InvalidationBus {
+
+    /** Subscribers by topic */
+    private final Map<String, List<WeakReference<CoherentCache<?, ?>>>> topics = new ConcurrentHashMap<>();
+
+    /**
+     * Subscribes a cache to a topic.
+     *
+     * @param topic Topic of the cache.
+     * @param cache Cache that receives invalidations.
+     */
+    void subscribe(String topic, CoherentCache<?, ?> cache) {
+        topics.computeIfAbsent(topic, name -> new CopyOnWriteArrayList<>()).add(new WeakReference<>(cache));
+    }
+
+    /**
+     * Removes a key from every other cache of a topic.
+     *
+     * @param topic  Topic of the publishing cache.
+     * @param origin Cache that changed the entry.
+     * @param key    Key of the entry.
+     */
+    void publish(String topic, CoherentCache<?, ?> origin, Object key) {
+        deliver(topic, origin, key, false);
+    }
+
+    /**
+     * Empties every other cache of a topic.
+     *
+     * @param topic  Topic of the publishing cache.
+     * @param origin Cache that was cleared.
+     */
+    void publishAll(String topic, CoherentCache<?, ?> origin) {
+        deliver(topic, origin, null, true);
+    }
+
+    private void deliver(String topic, CoherentCache<?, ?> origin, Object key, boolean all) {
+        List<WeakReference<CoherentCache<?, ?>>> subscribers = topics.get(topic);
+
+        if (subscribers == null) {
+            return;
+        }
+
+        for (WeakReference<CoherentCache<?, ?>> reference : subscribers) {
+            CoherentCache<?, ?> subscriber = reference.get();
+
+            if (subscriber == null) {
+                subscribers.remove(reference);
+            } else if (subscriber != origin) {
+                if (all) {
+                    subscriber.evictAll();
+                } else {
+                    subscriber.evict(key);
+                }
+            }
+        }
+    }
+}
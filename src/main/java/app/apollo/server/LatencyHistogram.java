@@ -0,0 +1,130 @@
+package app.apollo.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of latencies in nanoseconds with bounded relative
+ * error, in the style of HdrHistogram.
+ * <p>
+ * Values below {@link #SUB_BUCKET_COUNT} are counted exactly. Above that, every
+ * power of two is split into {@code SUB_BUCKET_COUNT / 2} equally wide buckets,
+ * so a reported value is never more than 1/64 above the recorded one while
+ * the whole range up to about a minute takes less than 2,000 counters.
+ * Recording is a single atomic increment and allocates nothing.
+ * </p>
+ */
+public class LatencyHistogram {
+
+    /** Number of exactly counted values; a power of two */
+    static final int SUB_BUCKET_COUNT = 128;
+
+    /** Largest trackable value; larger values are counted as this one */
+    static final long MAX_VALUE = (1L << 36) - 1;
+
+    private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKET_COUNT);
+
+    private static final int HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+
+    private final LongAdder total = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_COUNT + (int) (value >>> shift) - HALF_COUNT;
+    }
+
+    /** Largest value counted in a bucket. */
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = (index - SUB_BUCKET_COUNT) / HALF_COUNT + 1;
+        long lowest = (long) ((index - SUB_BUCKET_COUNT) % HALF_COUNT + HALF_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos Latency in nanoseconds; negative values count as zero.
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+
+        counts.incrementAndGet(indexOf(value));
+        total.increment();
+        sum.add(value);
+
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Returns the value below which a share of the recorded values fall.
+     *
+     * @param percentile Share in percent, between 0 and 100.
+     * @return Latency in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long valueAtPercentile(double percentile) {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+        long seen = 0;
+
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueAt(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    /** @return the number of recorded values */
+    public long getCount() {
+        return total.sum();
+    }
+
+    /** @return the mean of the recorded values in nanoseconds */
+    public double getMean() {
+        long count = total.sum();
+        return count == 0 ? 0.0 : (double) sum.sum() / count;
+    }
+
+    /** @return the largest recorded value in nanoseconds */
+    public long getMax() {
+        return max.get();
+    }
+
+    /** Forgets all recorded values. Values recorded concurrently may survive. */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.set(0);
+    }
+}
@@ -0,0 +1,104 @@
+package app.apollo.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Log statement that is emitted at most a fixed number of times per second.
+ * <p>
+ * High-volume events, such as every uploaded batch or every rejected token,
+ * keep a log site in a static field and log through it. Messages use
+ * {@link java.text.MessageFormat} patterns and are only formatted when they
+ * are written, so a suppressed or disabled message costs a level check and a
+ * counter. The next message that gets through reports how many were
+ * suppressed before it.
+ * </p>
+ */
+public final class LogSite {
+
+    private static final long SECOND_NANOS = 1_000_000_000L;
+
+    private final Logger logger;
+
+    private final Level level;
+
+    private final int permitsPerSecond;
+
+    /** Start of the current one-second window and messages logged in it */
+    private final AtomicLong window;
+
+    private final AtomicLong permits = new AtomicLong();
+
+    private final LongAdder suppressed = new LongAdder();
+
+    /**
+     * Creates a log site.
+     *
+     * @param logger           Logger receiving the messages.
+     * @param level            Level of the messages.
+     * @param permitsPerSecond Largest number of messages logged per second.
+     */
+    public LogSite(Logger logger, Level level, int permitsPerSecond) {
+        this.logger = logger;
+        this.level = level;
+        this.permitsPerSecond = permitsPerSecond;
+        this.window = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Checks whether a message would be logged now and takes a permit if so.
+     * Use it to avoid computing parameters of messages that are dropped.
+     *
+     * @return {@code true} if the caller should log.
+     */
+    public boolean isLoggable() {
+        if (!logger.isLoggable(level)) {
+            return false;
+        }
+
+        long now = System.nanoTime();
+        long start = window.get();
+
+        if (now - start >= SECOND_NANOS && window.compareAndSet(start, now)) {
+            permits.set(0);
+        }
+
+        if (permits.incrementAndGet() > permitsPerSecond) {
+            suppressed.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Logs a message if a permit is available.
+     *
+     * @param pattern Message pattern with {@code {0}}-style placeholders.
+     * @param params  Values of the placeholders.
+     */
+    public void log(String pattern, Object... params) {
+        if (isLoggable()) {
+            emit(pattern, params);
+        }
+    }
+
+    /**
+     * Logs a message without taking a permit; for callers that checked
+     * {@link #isLoggable()} themselves.
+     *
+     * @param pattern Message pattern with {@code {0}}-style placeholders.
+     * @param params  Values of the placeholders.
+     */
+    public void emit(String pattern, Object... params) {
+        long skipped = suppressed.sumThenReset();
+
+        LogRecord record = new LogRecord(level, skipped > 0 ? pattern + " (" + skipped + " similar suppressed)" : pattern);
+        record.setLoggerName(logger.getName());
+        record.setParameters(params);
+        logger.log(record);
+    }
+}
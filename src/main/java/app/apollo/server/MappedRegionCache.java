@@ -0,0 +1,143 @@
+package app.apollo.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of read-only memory mappings of immutable files.
+ * <p>
+ * Block stores use it to serve repeated reads of the same files straight from
+ * the page cache: a cached mapping costs no open, read or close call and no
+ * intermediate buffer. The least recently used mappings are dropped once
+ * either the number of mappings or the number of mapped bytes exceeds its
+ * limit. A dropped mapping is released by the garbage collector once no
+ * reader holds a view of it any more.
+ * </p>
+ * <p>
+ * Only files that are never modified after they are written may be mapped;
+ * callers must {@link #invalidate(Path) invalidate} a path before its file is
+ * deleted or replaced.
+ * </p>
+ */
+public class MappedRegionCache {
+
+    private final int maxMappings;
+
+    private final long maxMappedBytes;
+
+    /** Mappings by file, in access order */
+    private final LinkedHashMap<Path, MappedByteBuffer> mappings = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Sum of the capacities of all cached mappings */
+    private long mappedBytes;
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param maxMappings    Largest number of cached mappings.
+     * @param maxMappedBytes Largest number of bytes mapped by cached mappings.
+     */
+    public MappedRegionCache(int maxMappings, long maxMappedBytes) {
+        if (maxMappings < 1 || maxMappedBytes < 1) {
+            throw new IllegalArgumentException("Mapping limits must be positive.");
+        }
+        this.maxMappings = maxMappings;
+        this.maxMappedBytes = maxMappedBytes;
+    }
+
+    /**
+     * Returns a view of a whole file.
+     *
+     * @param path File to map.
+     * @return Read-only buffer positioned at the start of the file.
+     * @throws IOException If the file cannot be mapped.
+     */
+    public ByteBuffer map(Path path) throws IOException {
+        return map(path, -1);
+    }
+
+    /**
+     * Returns a view of the first bytes of a file. A cached mapping that is
+     * shorter than requested is replaced.
+     *
+     * @param path   File to map.
+     * @param length Number of bytes that must be mapped, or {@code -1} for the
+     *               whole file.
+     * @return Read-only buffer positioned at the start of the file and
+     *         covering at least {@code length} bytes.
+     * @throws IOException If the file cannot be mapped.
+     */
+    public ByteBuffer map(Path path, long length) throws IOException {
+        MappedByteBuffer mapping;
+
+        synchronized (this) {
+            mapping = mappings.get(path);
+        }
+
+        if (mapping == null || mapping.capacity() < length) {
+            mapping = open(path, length);
+
+            synchronized (this) {
+                MappedByteBuffer previous = mappings.put(path, mapping);
+                if (previous != null) {
+                    mappedBytes -= previous.capacity();
+                }
+                mappedBytes += mapping.capacity();
+                evict();
+            }
+        }
+
+        return mapping.duplicate();
+    }
+
+    private static MappedByteBuffer open(Path path, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = length < 0 ? channel.size() : length;
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + path);
+            }
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /** Drops least recently used mappings until both limits hold. Requires the monitor. */
+    private void evict() {
+        Iterator<Map.Entry<Path, MappedByteBuffer>> eldest = mappings.entrySet().iterator();
+
+        while ((mappings.size() > maxMappings || mappedBytes > maxMappedBytes) && eldest.hasNext()) {
+            mappedBytes -= eldest.next().getValue().capacity();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops the mapping of a file.
+     *
+     * @param path File that is about to change or disappear.
+     */
+    public synchronized void invalidate(Path path) {
+        MappedByteBuffer mapping = mappings.remove(path);
+        if (mapping != null) {
+            mappedBytes -= mapping.capacity();
+        }
+    }
+
+    /** @return the number of cached mappings */
+    public synchronized int size() {
+        return mappings.size();
+    }
+
+    /** @return the number of bytes mapped by cached mappings */
+    public synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+}
@@ -0,0 +1,89 @@
+package app.apollo.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide registry of {@link OperationTimer operation timers}.
+ * <p>
+ * Timers are looked up by name like loggers, so instrumented classes keep
+ * them in static fields. Names are dotted paths whose first part says what
+ * is timed:
+ * </p>
+ * <ul>
+ * <li>{@code rpc.*} remote calls, measured inside the server, so they
+ * exclude the (de)serialization of arguments and results. Comparing them
+ * with the latency seen by clients shows the cost of RMI itself.</li>
+ * <li>{@code db.*} time spent holding and waiting for database
+ * connections.</li>
+ * <li>{@code disk.*} block store operations that are not served from the
+ * block cache.</li>
+ * <li>{@code lock.*} time spent waiting for file and content locks.</li>
+ * </ul>
+ * <p>
+ * Every timer is registered as an MBean named
+ * {@code app.apollo:type=Metrics,name=<name>} on the platform MBean server.
+ * </p>
+ */
+public final class Metrics {
+
+    private static final Logger logger = Logger.getLogger(Metrics.class.getName());
+
+    /** JMX domain of the timer MBeans */
+    static final String DOMAIN = "app.apollo";
+
+    private static final ConcurrentMap<String, OperationTimer> timers = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the timer of an operation, creating and publishing it on first
+     * use.
+     *
+     * @param name Name of the operation.
+     * @return The shared timer.
+     */
+    public static OperationTimer timer(String name) {
+        OperationTimer timer = timers.get(name);
+
+        if (timer != null) {
+            return timer;
+        }
+
+        return timers.computeIfAbsent(name, key -> {
+            OperationTimer created = new OperationTimer(key);
+            publish(created);
+            return created;
+        });
+    }
+
+    private static void publish(OperationTimer timer) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(timer.getName()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(timer, objectName);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Failed to publish metric " + timer.getName(), e);
+        }
+    }
+
+    /**
+     * Returns all timers created so far.
+     *
+     * @return The timers ordered by name.
+     */
+    public static List<OperationTimer> timers() {
+        List<OperationTimer> sorted = new ArrayList<>(timers.values());
+        sorted.sort(Comparator.comparing(OperationTimer::getName));
+        return sorted;
+    }
+}
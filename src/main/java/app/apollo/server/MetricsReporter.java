@@ -0,0 +1,114 @@
+package app.apollo.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically writes all {@link Metrics} to a plain text file.
+ * <p>
+ * The file holds one line per timer with its totals, its rate during the
+ * last period and its latency percentiles since the start. It is replaced as
+ * a whole, so readers never see a partly written report.
+ * </p>
+ */
+public class MetricsReporter implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(MetricsReporter.class.getName());
+
+    private final Path file;
+
+    private final ScheduledExecutorService scheduler;
+
+    /** Counts at the previous report by timer name; only used by the scheduler */
+    private final Map<String, Long> lastCounts = new HashMap<>();
+
+    private long lastReportNanos = System.nanoTime();
+
+    /**
+     * Starts reporting.
+     *
+     * @param file            File that receives the reports.
+     * @param intervalSeconds Pause between two reports.
+     */
+    public MetricsReporter(Path file, long intervalSeconds) {
+        if (intervalSeconds < 1) {
+            throw new IllegalArgumentException("Report interval must be positive.");
+        }
+
+        this.file = file.toAbsolutePath();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Formats all timers.
+     *
+     * @param rates Rates per second by timer name, or {@code null} to leave
+     *              them out.
+     * @return The report.
+     */
+    public static String format(Map<String, Double> rates) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-40s %10s %8s %10s %9s %9s %9s %9s %9s %9s%n", "operation", "count", "errors",
+                "rate/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p999 ms", "max ms"));
+
+        for (OperationTimer timer : Metrics.timers()) {
+            Double rate = rates != null ? rates.get(timer.getName()) : null;
+
+            report.append(String.format("%-40s %10d %8d %10s %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                    timer.getName(), timer.getCount(), timer.getErrorCount(),
+                    rate != null ? String.format("%.1f", rate) : "-", timer.getMeanMillis(),
+                    timer.getP50Millis(), timer.getP90Millis(), timer.getP99Millis(), timer.getP999Millis(),
+                    timer.getMaxMillis()));
+        }
+
+        return report.toString();
+    }
+
+    /** Writes one report. */
+    void report() {
+        long now = System.nanoTime();
+        double seconds = (now - lastReportNanos) / 1e9;
+        lastReportNanos = now;
+
+        Map<String, Double> rates = new HashMap<>();
+
+        for (OperationTimer timer : Metrics.timers()) {
+            long count = timer.getCount();
+            Long last = lastCounts.put(timer.getName(), count);
+            rates.put(timer.getName(), (count - (last != null ? last : 0)) / seconds);
+        }
+
+        String report = "# " + LocalDateTime.now() + System.lineSeparator() + format(rates);
+
+        try {
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temporary, report.getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write metrics to " + file, e);
+        }
+    }
+
+    /** Stops reporting. */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
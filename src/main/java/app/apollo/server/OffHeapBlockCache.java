@@ -0,0 +1,364 @@
+package app.apollo.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Byte-budgeted cache of block payloads kept outside the Java heap.
+ * <p>
+ * Payloads are copied into fixed-size pages carved out of large direct
+ * buffers, so cached bytes add no garbage collection work no matter how many
+ * blocks are cached. A payload occupies as many pages as it needs, which need
+ * not be adjacent, and eviction frees the least recently used payloads until
+ * enough pages are available, so large payloads displace proportionally more
+ * small ones. The cache is split into shards by key, each with its own lock,
+ * page budget and arenas, which are allocated only as the shard fills.
+ * </p>
+ */
+public class OffHeapBlockCache {
+
+    /** Size of one page in bytes. */
+    static final int PAGE_SIZE = 4096;
+
+    /** Largest size of one direct buffer backing a shard. */
+    static final int ARENA_SIZE = 64 * 1024 * 1024;
+
+    /** Number of independently locked shards. */
+    static final int SHARD_COUNT = 16;
+
+    /** Largest share of a shard a single payload may take. */
+    static final int MAX_ENTRY_SHARE = 8;
+
+    /** Cached payload and the pages that hold it. */
+    private static final class Entry {
+        private final int[] pages;
+        private final int length;
+
+        private Entry(int[] pages, int length) {
+            this.pages = pages;
+            this.length = length;
+        }
+    }
+
+    /** Independently locked part of the cache. */
+    private static final class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** Entries in access order; eldest first */
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        private final List<ByteBuffer> arenas = new ArrayList<>();
+
+        private final int maxPages;
+        private final int pagesPerArena;
+
+        /** Stack of free page numbers */
+        private final int[] freePages;
+        private int freeCount;
+
+        /** Pages backed by allocated arenas */
+        private int allocatedPages;
+
+        private Shard(int maxPages) {
+            this.maxPages = maxPages;
+            this.pagesPerArena = Math.min(maxPages, ARENA_SIZE / PAGE_SIZE);
+            this.freePages = new int[maxPages];
+        }
+
+        /** Makes at least {@code count} pages free, evicting if necessary. Requires the lock. */
+        private boolean reserve(int count) {
+            while (freeCount < count && allocatedPages < maxPages) {
+                int pages = Math.min(pagesPerArena, maxPages - allocatedPages);
+
+                try {
+                    arenas.add(ByteBuffer.allocateDirect(pages * PAGE_SIZE));
+                } catch (OutOfMemoryError e) {
+                    break;
+                }
+
+                for (int i = pages - 1; i >= 0; i--) {
+                    freePages[freeCount++] = allocatedPages + i;
+                }
+                allocatedPages += pages;
+            }
+
+            Iterator<Entry> eldest = entries.values().iterator();
+
+            while (freeCount < count && eldest.hasNext()) {
+                release(eldest.next());
+                eldest.remove();
+            }
+
+            return freeCount >= count;
+        }
+
+        private void release(Entry entry) {
+            for (int page : entry.pages) {
+                freePages[freeCount++] = page;
+            }
+        }
+
+        /** Limits the arena holding a page to the first bytes of the page. Requires the lock. */
+        private ByteBuffer seek(int page, int length) {
+            ByteBuffer arena = arenas.get(page / pagesPerArena);
+            int start = (page % pagesPerArena) * PAGE_SIZE;
+            arena.limit(start + length).position(start);
+            return arena;
+        }
+
+        private void write(Entry entry, byte[] data) {
+            for (int i = 0; i < entry.pages.length; i++) {
+                int offset = i * PAGE_SIZE;
+                int length = Math.min(PAGE_SIZE, data.length - offset);
+                seek(entry.pages[i], length).put(data, offset, length);
+            }
+        }
+
+        private void read(Entry entry, byte[] target) {
+            for (int i = 0; i < entry.pages.length; i++) {
+                int offset = i * PAGE_SIZE;
+                int length = Math.min(PAGE_SIZE, entry.length - offset);
+                seek(entry.pages[i], length).get(target, offset, length);
+            }
+        }
+
+        private void read(Entry entry, ByteBuffer target) {
+            for (int i = 0; i < entry.pages.length; i++) {
+                int length = Math.min(PAGE_SIZE, entry.length - i * PAGE_SIZE);
+                target.put(seek(entry.pages[i], length));
+            }
+        }
+    }
+
+    /** Direct buffer per thread used to hand payloads to channels */
+    private static final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<>();
+
+    private final Shard[] shards = new Shard[SHARD_COUNT];
+
+    private final long capacity;
+
+    private final int maxEntrySize;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructs an empty cache. Memory is allocated as the cache fills.
+     *
+     * @param capacity Byte budget of all cached payloads, at least one page
+     *                 per shard.
+     */
+    public OffHeapBlockCache(long capacity) {
+        long pagesPerShard = capacity / PAGE_SIZE / SHARD_COUNT;
+
+        if (pagesPerShard < 1 || pagesPerShard > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported cache capacity: " + capacity);
+        }
+
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard((int) pagesPerShard);
+        }
+
+        this.capacity = pagesPerShard * PAGE_SIZE * SHARD_COUNT;
+        this.maxEntrySize = (int) Math.min(Integer.MAX_VALUE, pagesPerShard * PAGE_SIZE / MAX_ENTRY_SHARE);
+    }
+
+    private Shard shardOf(String key) {
+        int hash = key.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & (SHARD_COUNT - 1)];
+    }
+
+    /**
+     * Caches a payload unless it is already cached or too large.
+     *
+     * @param key  Content key of the payload.
+     * @param data Payload bytes.
+     * @return {@code true} if the payload was cached.
+     */
+    public boolean put(String key, byte[] data) {
+        if (data.length > maxEntrySize) {
+            return false;
+        }
+
+        Shard shard = shardOf(key);
+        int count = Math.max(1, (data.length + PAGE_SIZE - 1) / PAGE_SIZE);
+
+        shard.lock.lock();
+
+        try {
+            if (shard.entries.containsKey(key) || !shard.reserve(count)) {
+                return false;
+            }
+
+            int[] pages = new int[count];
+            for (int i = 0; i < count; i++) {
+                pages[i] = shard.freePages[--shard.freeCount];
+            }
+
+            Entry entry = new Entry(pages, data.length);
+            shard.write(entry, data);
+            shard.entries.put(key, entry);
+
+            return true;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Copies a cached payload onto the heap.
+     *
+     * @param key Content key of the payload.
+     * @return Payload bytes, or {@code null} if the payload is not cached.
+     */
+    public byte[] get(String key) {
+        Shard shard = shardOf(key);
+
+        shard.lock.lock();
+
+        try {
+            Entry entry = shard.entries.get(key);
+
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+
+            hits.increment();
+
+            byte[] data = new byte[entry.length];
+            shard.read(entry, data);
+
+            return data;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes a cached payload to a channel. The payload is copied to a
+     * per-thread direct buffer so that the shard is not locked while the
+     * channel blocks.
+     *
+     * @param key    Content key of the payload.
+     * @param target Channel receiving the payload.
+     * @return Number of bytes written, or {@code -1} if the payload is not
+     *         cached.
+     * @throws IOException If the channel cannot be written.
+     */
+    public long transferTo(String key, WritableByteChannel target) throws IOException {
+        Shard shard = shardOf(key);
+        ByteBuffer buffer;
+
+        shard.lock.lock();
+
+        try {
+            Entry entry = shard.entries.get(key);
+
+            if (entry == null) {
+                misses.increment();
+                return -1;
+            }
+
+            hits.increment();
+
+            buffer = scratch.get();
+            if (buffer == null || buffer.capacity() < entry.length) {
+                buffer = ByteBuffer.allocateDirect(Math.max(entry.length, PAGE_SIZE));
+                scratch.set(buffer);
+            }
+
+            buffer.clear();
+            shard.read(entry, buffer);
+            buffer.flip();
+        } finally {
+            shard.lock.unlock();
+        }
+
+        long length = buffer.remaining();
+
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+
+        return length;
+    }
+
+    /**
+     * Returns the size of a cached payload.
+     *
+     * @param key Content key of the payload.
+     * @return Size in bytes, or {@code -1} if the payload is not cached.
+     */
+    public long size(String key) {
+        Shard shard = shardOf(key);
+
+        shard.lock.lock();
+
+        try {
+            Entry entry = shard.entries.get(key);
+            return entry == null ? -1 : entry.length;
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Drops a payload from the cache.
+     *
+     * @param key Content key of the payload.
+     */
+    public void invalidate(String key) {
+        Shard shard = shardOf(key);
+
+        shard.lock.lock();
+
+        try {
+            Entry entry = shard.entries.remove(key);
+            if (entry != null) {
+                shard.release(entry);
+            }
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /** @return the byte budget of the cache */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /** @return the number of bytes held by cached payloads, rounded up to pages */
+    public long getUsedBytes() {
+        long used = 0;
+
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                used += (long) (shard.allocatedPages - shard.freeCount) * PAGE_SIZE;
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+
+        return used;
+    }
+
+    /** @return the number of reads served from the cache */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** @return the number of reads that missed the cache */
+    public long getMissCount() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,197 @@
+package app.apollo.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the executions of one kind of operation and records their
+ * latencies.
+ * <p>
+ * Recording takes a few atomic increments and no locks, so a timer can be
+ * shared by all threads running the operation. Timers are obtained from
+ * {@link Metrics}, which also publishes them through JMX.
+ * </p>
+ * <p>
+ * Every recorded operation is also a span of the {@link Tracer trace}
+ * running on the recording thread. Timers of remote calls, whose names
+ * start with {@value #ROOT_PREFIX}, start the traces themselves when run
+ * through {@link #call(Call)} or {@link #run(Task)}.
+ * </p>
+ */
+public class OperationTimer implements OperationTimerMBean {
+
+    /**
+     * Operation that returns a value.
+     *
+     * @param <T> Type of the result.
+     * @param <E> Type of the checked exception thrown.
+     */
+    @FunctionalInterface
+    public interface Call<T, E extends Exception> {
+        /**
+         * Runs the operation.
+         *
+         * @return The result.
+         * @throws E If the operation fails.
+         */
+        T call() throws E;
+    }
+
+    /**
+     * Operation without a result.
+     *
+     * @param <E> Type of the checked exception thrown.
+     */
+    @FunctionalInterface
+    public interface Task<E extends Exception> {
+        /**
+         * Runs the operation.
+         *
+         * @throws E If the operation fails.
+         */
+        void run() throws E;
+    }
+
+    /** Name prefix of timers whose operations start traces */
+    static final String ROOT_PREFIX = "rpc.";
+
+    private final String name;
+
+    private final boolean root;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    private final LongAdder errors = new LongAdder();
+
+    OperationTimer(String name) {
+        this.name = name;
+        this.root = name.startsWith(ROOT_PREFIX);
+    }
+
+    /**
+     * Records a completed operation.
+     *
+     * @param startNanos Value of {@link System#nanoTime()} when it started.
+     */
+    public void stop(long startNanos) {
+        long end = System.nanoTime();
+        latencies.record(end - startNanos);
+        Tracer.span(name, startNanos, end, false);
+    }
+
+    /**
+     * Records an operation that ended with an exception.
+     *
+     * @param startNanos Value of {@link System#nanoTime()} when it started.
+     */
+    public void fail(long startNanos) {
+        long end = System.nanoTime();
+        errors.increment();
+        latencies.record(end - startNanos);
+        Tracer.span(name, startNanos, end, true);
+    }
+
+    /**
+     * Runs and times an operation that returns a value.
+     *
+     * @param call Operation to run.
+     * @return The result of the operation.
+     * @throws E If the operation fails; the failure is counted.
+     */
+    public <T, E extends Exception> T call(Call<T, E> call) throws E {
+        long start = System.nanoTime();
+        boolean traced = root && Tracer.start(name, start);
+        boolean failed = true;
+
+        try {
+            T result = call.call();
+            failed = false;
+            return result;
+        } finally {
+            finish(start, traced, failed);
+        }
+    }
+
+    /**
+     * Runs and times an operation without a result.
+     *
+     * @param task Operation to run.
+     * @throws E If the operation fails; the failure is counted.
+     */
+    public <E extends Exception> void run(Task<E> task) throws E {
+        long start = System.nanoTime();
+        boolean traced = root && Tracer.start(name, start);
+        boolean failed = true;
+
+        try {
+            task.run();
+            failed = false;
+        } finally {
+            finish(start, traced, failed);
+        }
+    }
+
+    private void finish(long startNanos, boolean traced, boolean failed) {
+        if (traced) {
+            long end = System.nanoTime();
+            latencies.record(end - startNanos);
+            if (failed) {
+                errors.increment();
+            }
+            Tracer.finish(end, failed);
+        } else if (failed) {
+            fail(startNanos);
+        } else {
+            stop(startNanos);
+        }
+    }
+
+    /** @return the name of the timed operation */
+    public String getName() {
+        return name;
+    }
+
+    /** @return the recorded latencies in nanoseconds */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public long getCount() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latencies.getMean() / 1e6;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latencies.valueAtPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return latencies.valueAtPercentile(90) / 1e6;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latencies.valueAtPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return latencies.valueAtPercentile(99.9) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latencies.getMax() / 1e6;
+    }
+}
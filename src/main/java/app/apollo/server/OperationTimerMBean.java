@@ -0,0 +1,32 @@
+package app.apollo.server;
+
+/**
+ * Management interface of an {@link OperationTimer}. Latencies are in
+ * milliseconds and cover the whole lifetime of the server.
+ */
+public interface OperationTimerMBean {
+
+    /** @return the number of completed operations, failed ones included */
+    public long getCount();
+
+    /** @return the number of operations that ended with an exception */
+    public long getErrorCount();
+
+    /** @return the mean latency */
+    public double getMeanMillis();
+
+    /** @return the median latency */
+    public double getP50Millis();
+
+    /** @return the 90th percentile latency */
+    public double getP90Millis();
+
+    /** @return the 99th percentile latency */
+    public double getP99Millis();
+
+    /** @return the 99.9th percentile latency */
+    public double getP999Millis();
+
+    /** @return the largest latency */
+    public double getMaxMillis();
+}
@@ -0,0 +1,286 @@
+package app.apollo.server;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link ConnectionProvider} for SQLite.
+ * <p>
+ * In pooled mode the database runs in WAL journal mode with one dedicated
+ * writer connection and a fixed set of read-only connections, so reads
+ * proceed in parallel with each other and with the writer. In shared mode a
+ * single connection serves both roles, as SQLite connections were shared
+ * before pooling existed; readers and writers take turns on it through the
+ * writer lock, so a read never runs inside another thread's transaction.
+ * </p>
+ *
+ * <p>
+ * The time spent waiting for a connection and the time a connection is held
+ * are recorded under the {@code db.*} {@link Metrics}. While a
+ * {@link Tracer trace} runs, the statements of a lease are traced as well.
+ * </p>
+ */
+public class SQLiteConnectionPool implements ConnectionProvider {
+
+    private static final OperationTimer READ_WAIT = Metrics.timer("db.read.wait");
+
+    private static final OperationTimer READ = Metrics.timer("db.read");
+
+    private static final OperationTimer WRITE_WAIT = Metrics.timer("db.write.wait");
+
+    private static final OperationTimer WRITE = Metrics.timer("db.write");
+
+    /** Connection that performs all writes */
+    private final Connection writer;
+
+    /**
+     * Guards the writer, and in shared mode readers too; reentrant so a
+     * transaction may borrow it again
+     */
+    private final ReentrantLock writerLock = new ReentrantLock();
+
+    /** Idle read-only connections, or null in shared mode */
+    private final BlockingQueue<Connection> readers;
+
+    /** Every connection opened by the pool */
+    private final List<Connection> connections = new ArrayList<>();
+
+    private final long acquireTimeoutMillis;
+
+    /**
+     * Opens a single connection shared by readers and the writer.
+     *
+     * @param url JDBC URL of the database.
+     * @throws SQLException If the connection cannot be opened.
+     */
+    public SQLiteConnectionPool(String url) throws SQLException {
+        this.writer = DriverManager.getConnection(url);
+        this.connections.add(writer);
+        this.readers = null;
+        this.acquireTimeoutMillis = 0;
+    }
+
+    /**
+     * Opens a pool of one writer and {@link SQLitePoolConfig#getReaderCount()}
+     * readers and switches the database to WAL journal mode.
+     *
+     * @param url    JDBC URL of a file database.
+     * @param config Pool size and pragmas.
+     * @throws SQLException If a connection cannot be opened or configured.
+     */
+    public SQLiteConnectionPool(String url, SQLitePoolConfig config) throws SQLException {
+        this.acquireTimeoutMillis = config.getAcquireTimeoutMillis();
+        this.readers = new ArrayBlockingQueue<>(config.getReaderCount());
+
+        try {
+            this.writer = open(url, config);
+            execute(writer, "PRAGMA journal_mode=WAL");
+            execute(writer, "PRAGMA synchronous=" + config.getSynchronous());
+
+            for (int i = 0; i < config.getReaderCount(); i++) {
+                Connection reader = open(url, config);
+                execute(reader, "PRAGMA query_only=ON");
+                readers.add(reader);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private Connection open(String url, SQLitePoolConfig config) throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        connections.add(connection);
+
+        execute(connection, "PRAGMA busy_timeout=" + config.getBusyTimeoutMillis());
+        execute(connection, "PRAGMA cache_size=" + config.getCacheSize());
+        execute(connection, "PRAGMA mmap_size=" + config.getMmapSize());
+
+        return connection;
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    @Override
+    public Connection getReader() throws SQLException {
+        if (readers == null) {
+            lockWriter(READ_WAIT);
+            return lease(writer, READ, writerLock::unlock);
+        }
+
+        Connection reader;
+        long start = System.nanoTime();
+
+        try {
+            reader = readers.poll(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            READ_WAIT.fail(start);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a reader connection", e);
+        }
+
+        if (reader == null) {
+            READ_WAIT.fail(start);
+            throw new SQLException("Timed out waiting for a reader connection");
+        }
+
+        READ_WAIT.stop(start);
+
+        return lease(reader, READ, () -> readers.add(reader));
+    }
+
+    @Override
+    public Connection getWriter() throws SQLException {
+        lockWriter(WRITE_WAIT);
+        return lease(writer, WRITE, writerLock::unlock);
+    }
+
+    /**
+     * Acquires the writer lock, waiting as long as it takes in shared mode and
+     * up to the acquire timeout in pooled mode.
+     *
+     * @param wait Timer recording how long the caller waited.
+     * @throws SQLException If the wait timed out or was interrupted.
+     */
+    private void lockWriter(OperationTimer wait) throws SQLException {
+        long start = System.nanoTime();
+
+        try {
+            if (readers == null) {
+                writerLock.lockInterruptibly();
+            } else if (!writerLock.tryLock(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                wait.fail(start);
+                throw new SQLException("Timed out waiting for the writer connection");
+            }
+        } catch (InterruptedException e) {
+            wait.fail(start);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the writer connection", e);
+        }
+
+        wait.stop(start);
+    }
+
+    /**
+     * Wraps a pooled connection so that closing it runs the release action
+     * once instead of closing the connection.
+     *
+     * @param target  Pooled connection.
+     * @param timer   Timer recording how long the lease is held.
+     * @param release Action run when the lease is closed.
+     * @return The lease.
+     */
+    private static Connection lease(Connection target, OperationTimer timer, Runnable release) {
+        long leased = System.nanoTime();
+
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean released;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!released) {
+                            released = true;
+                            timer.stop(leased);
+                            release.run();
+                        }
+                        return null;
+                    case "isClosed":
+                        return released || target.isClosed();
+                    default:
+                        Object result;
+
+                        try {
+                            result = method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+
+                        if (result instanceof Statement && Tracer.isTracing()) {
+                            String sql = args != null && args.length > 0 && args[0] instanceof String
+                                    ? (String) args[0]
+                                    : null;
+                            return traced(result, method.getReturnType(), sql);
+                        }
+
+                        return result;
+                }
+            }
+        };
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, handler);
+    }
+
+    /**
+     * Wraps a statement so that every execution becomes a span of the
+     * current trace.
+     *
+     * @param statement Statement created by a leased connection.
+     * @param type      Statement interface to implement.
+     * @param sql       Prepared SQL, or null if it is passed on execution.
+     * @return The wrapped statement.
+     */
+    private static Object traced(Object statement, Class<?> type, String sql) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (!method.getName().startsWith("execute")) {
+                try {
+                    return method.invoke(statement, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+
+            String text = sql != null ? sql
+                    : args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : "batch";
+            long start = System.nanoTime();
+            boolean failed = true;
+
+            try {
+                Object result = method.invoke(statement, args);
+                failed = false;
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                Tracer.span(Tracer.statementName(text), start, System.nanoTime(), failed);
+            }
+        };
+
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        SQLException failure = null;
+
+        for (Connection connection : connections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -1,8 +1,8 @@
 package app.apollo.server;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.io.IOException;
 import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * SQLite-specific implementation of the {@link DAOFactory}.
@@ -10,11 +10,39 @@ import java.sql.SQLException;
  * This factory sets up a JDBC connection to an SQLite database
  * and provides DAO instances that share this connection.
  * </p>
+ *
+ * <p>
+ * With a {@link SQLitePoolConfig} the factory uses a pool of one writer and
+ * several reader connections in WAL mode instead, and the DAOs borrow a
+ * connection for every operation.
+ * </p>
+ *
+ * <p>
+ * Each DAO is created once and shared by all callers, so that every DAO cache
+ * exists only once. With a {@link CacheRegistry} those caches share one memory
+ * budget instead of having fixed capacities, DAO instances built elsewhere
+ * with the same registry use the same caches, and every change is published
+ * on the registry's {@link InvalidationBus}.
+ * </p>
  */
 public class SQLiteDAOFactory implements DAOFactory {
 
-    /** Shared SQLite database connection for all DAO instances. */
-    private Connection connection;
+    /** Source of SQLite database connections for all DAO instances. */
+    private ConnectionProvider connections;
+
+    /** Pool settings, or null when a single connection is shared. */
+    private SQLitePoolConfig config;
+
+    /** Registry sizing the DAO caches, or null for fixed-size caches. */
+    private CacheRegistry caches;
+
+    private SessionDAO sessionDAO;
+
+    private UserDAO userDAO;
+
+    private FileMetadataDAO fileMetadataDAO;
+
+    private FileBlockDAO fileBlockDAO;
 
     /**
      * Constructs a new {@code SQLiteDAOFactory} with the given SQLite database URL.
@@ -23,49 +51,114 @@ public class SQLiteDAOFactory implements DAOFactory {
      */
     public SQLiteDAOFactory(String url) {
         try {
-            connection = DriverManager.getConnection(url);
+            connections = new SQLiteConnectionPool(url);
+        } catch (SQLException e) {
+            System.err.println("Failed to connect to SQLite database: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Constructs a new {@code SQLiteDAOFactory} backed by a connection pool.
+     *
+     * @param url    the JDBC connection string of a database file.
+     * @param config the pool size and pragmas.
+     */
+    public SQLiteDAOFactory(String url, SQLitePoolConfig config) {
+        try {
+            connections = new SQLiteConnectionPool(url, config);
+            this.config = config;
         } catch (SQLException e) {
             System.err.println("Failed to connect to SQLite database: " + e.getMessage());
         }
     }
 
+    /**
+     * Constructs a new {@code SQLiteDAOFactory} backed by a connection pool
+     * whose DAO caches share the budget of a registry.
+     *
+     * @param url    the JDBC connection string of a database file.
+     * @param config the pool size and pragmas.
+     * @param caches the registry sizing the DAO caches.
+     */
+    public SQLiteDAOFactory(String url, SQLitePoolConfig config, CacheRegistry caches) {
+        this(url, config);
+        this.caches = caches;
+    }
+
+    /**
+     * Migrates a database created with an older schema, see
+     * {@link SchemaMigration}. Must be called before any DAO is used.
+     *
+     * @param blockStore the store receiving payloads of the old storage layout.
+     * @return {@code true} if the database was changed.
+     * @throws SQLException if the database is missing or cannot be migrated.
+     * @throws IOException  if an old payload cannot be imported.
+     */
+    public synchronized boolean migrate(BlockStore blockStore) throws SQLException, IOException {
+        if (connections == null) {
+            throw new SQLException("Not connected to the database");
+        }
+
+        return SchemaMigration.migrate(connections, blockStore);
+    }
+
     /**
      * Provides a DAO for managing user sessions.
      *
-     * @return a new instance of {@link DBSessionDAO}.
+     * @return the shared instance of {@link DBSessionDAO}.
      */
     @Override
-    public SessionDAO getSessionDAO() {
-        return new DBSessionDAO(connection);
+    public synchronized SessionDAO getSessionDAO() {
+        if (sessionDAO == null) {
+            sessionDAO = new DBSessionDAO(connections, caches);
+        }
+        return sessionDAO;
     }
 
     /**
      * Provides a DAO for managing users.
      *
-     * @return a new instance of {@link DBUserDAO}.
+     * @return the shared instance of {@link DBUserDAO}.
      */
     @Override
-    public UserDAO getUserDAO() {
-        return new DBUserDAO(connection);
+    public synchronized UserDAO getUserDAO() {
+        if (userDAO == null) {
+            userDAO = new DBUserDAO(connections, caches);
+        }
+        return userDAO;
     }
 
     /**
      * Provides a DAO for managing file metadata.
      *
-     * @return a new instance of {@link DBFileMetadataDAO}.
+     * @return the shared instance of {@link DBFileMetadataDAO}.
      */
     @Override
-    public FileMetadataDAO getFileMetadataDAO() {
-        return new DBFileMetadataDAO(connection);
+    public synchronized FileMetadataDAO getFileMetadataDAO() {
+        if (fileMetadataDAO == null) {
+            fileMetadataDAO = new DBFileMetadataDAO(connections, caches);
+        }
+        return fileMetadataDAO;
     }
 
     /**
-     * Provides a DAO for managing file blocks.
+     * Provides a DAO for managing file blocks. With a connection pool that
+     * enables group commit, block inserts of concurrent uploads share
+     * transactions.
      *
-     * @return a new instance of {@link DBFileBlockDAO}.
+     * @return the shared instance of {@link DBFileBlockDAO}, wrapped in a
+     *         {@link GroupCommitFileBlockDAO} when group commit is enabled.
      */
     @Override
-    public FileBlockDAO getFileBlockDAO() {
-        return new DBFileBlockDAO(connection);
+    public synchronized FileBlockDAO getFileBlockDAO() {
+        if (fileBlockDAO == null) {
+            fileBlockDAO = new DBFileBlockDAO(connections, caches);
+
+            if (config != null && config.getGroupCommitWindowMicros() > 0) {
+                fileBlockDAO = new GroupCommitFileBlockDAO(fileBlockDAO, config.getGroupCommitWindowMicros(),
+                        TimeUnit.MICROSECONDS, config.getGroupCommitMaxRows());
+            }
+        }
+        return fileBlockDAO;
     }
 }
@@ -0,0 +1,169 @@
+package app.apollo.server;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of a pooled {@link SQLiteConnectionPool}.
+ * <p>
+ * The pool always runs the database in WAL journal mode so that readers are
+ * never blocked by the writer. The remaining pragmas trade durability and
+ * memory for speed and can be tuned per deployment. Block rows of concurrent
+ * uploads are committed together within a short window, which keeps fully
+ * synchronous commits affordable.
+ * </p>
+ */
+public class SQLitePoolConfig {
+
+    /** Values accepted by {@code PRAGMA synchronous} */
+    private static final List<String> SYNCHRONOUS_MODES = Arrays.asList("OFF", "NORMAL", "FULL", "EXTRA");
+
+    /** Number of read-only connections */
+    private int readerCount = Runtime.getRuntime().availableProcessors();
+
+    /** Value of {@code PRAGMA synchronous}; FULL makes every commit durable */
+    private String synchronous = "FULL";
+
+    /** Value of {@code PRAGMA mmap_size} in bytes */
+    private long mmapSize = 256L * 1024 * 1024;
+
+    /** Value of {@code PRAGMA cache_size}; negative values are in KiB */
+    private int cacheSize = -16 * 1024;
+
+    /** Value of {@code PRAGMA busy_timeout} in milliseconds */
+    private int busyTimeoutMillis = 5_000;
+
+    /** Time to wait for a free connection before giving up, in milliseconds */
+    private long acquireTimeoutMillis = 30_000;
+
+    /** Longest time block rows wait to share a commit, in microseconds; 0 disables group commit */
+    private long groupCommitWindowMicros = 2_000;
+
+    /** Number of queued block rows that triggers a commit right away */
+    private int groupCommitMaxRows = 4_096;
+
+    /** @return the number of read-only connections */
+    public int getReaderCount() {
+        return readerCount;
+    }
+
+    /**
+     * Sets the number of read-only connections.
+     *
+     * @param readerCount Number of readers, at least one.
+     */
+    public void setReaderCount(int readerCount) {
+        if (readerCount < 1) {
+            throw new IllegalArgumentException("A pool needs at least one reader.");
+        }
+        this.readerCount = readerCount;
+    }
+
+    /** @return the value of {@code PRAGMA synchronous} */
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    /**
+     * Sets how often SQLite syncs to disk.
+     *
+     * @param synchronous One of {@code OFF}, {@code NORMAL}, {@code FULL} or
+     *                    {@code EXTRA}.
+     */
+    public void setSynchronous(String synchronous) {
+        String mode = synchronous.toUpperCase();
+        if (!SYNCHRONOUS_MODES.contains(mode)) {
+            throw new IllegalArgumentException("Unsupported synchronous mode: " + synchronous);
+        }
+        this.synchronous = mode;
+    }
+
+    /** @return the value of {@code PRAGMA mmap_size} in bytes */
+    public long getMmapSize() {
+        return mmapSize;
+    }
+
+    /**
+     * Sets how much of the database file each connection may memory-map.
+     *
+     * @param mmapSize Size in bytes; {@code 0} disables memory mapping.
+     */
+    public void setMmapSize(long mmapSize) {
+        this.mmapSize = Math.max(0, mmapSize);
+    }
+
+    /** @return the value of {@code PRAGMA cache_size} */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Sets the page cache size of each connection.
+     *
+     * @param cacheSize Number of pages, or the size in KiB when negative.
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /** @return the value of {@code PRAGMA busy_timeout} in milliseconds */
+    public int getBusyTimeoutMillis() {
+        return busyTimeoutMillis;
+    }
+
+    /**
+     * Sets how long a connection retries when the database is locked.
+     *
+     * @param busyTimeoutMillis Timeout in milliseconds.
+     */
+    public void setBusyTimeoutMillis(int busyTimeoutMillis) {
+        this.busyTimeoutMillis = Math.max(0, busyTimeoutMillis);
+    }
+
+    /** @return the time to wait for a free connection in milliseconds */
+    public long getAcquireTimeoutMillis() {
+        return acquireTimeoutMillis;
+    }
+
+    /**
+     * Sets how long borrowing waits for a free connection.
+     *
+     * @param acquireTimeoutMillis Timeout in milliseconds.
+     */
+    public void setAcquireTimeoutMillis(long acquireTimeoutMillis) {
+        this.acquireTimeoutMillis = Math.max(0, acquireTimeoutMillis);
+    }
+
+    /** @return the group commit window in microseconds; 0 if disabled */
+    public long getGroupCommitWindowMicros() {
+        return groupCommitWindowMicros;
+    }
+
+    /**
+     * Sets how long block rows wait for rows of other uploads to share their
+     * commit.
+     *
+     * @param window Length of the window; {@code 0} commits every insert on
+     *               its own.
+     * @param unit   Unit of {@code window}.
+     */
+    public void setGroupCommitWindow(long window, TimeUnit unit) {
+        this.groupCommitWindowMicros = Math.max(0, unit.toMicros(window));
+    }
+
+    /** @return the number of queued block rows that triggers a commit */
+    public int getGroupCommitMaxRows() {
+        return groupCommitMaxRows;
+    }
+
+    /**
+     * Sets how many queued block rows trigger a commit before the window
+     * ends.
+     *
+     * @param groupCommitMaxRows Number of rows, at least one.
+     */
+    public void setGroupCommitMaxRows(int groupCommitMaxRows) {
+        this.groupCommitMaxRows = Math.max(1, groupCommitMaxRows);
+    }
+}
@@ -0,0 +1,181 @@
+package app.apollo.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import app.apollo.common.CrypticEngine;
+
+/**
+ * Brings a database created with an older {@code schema/schema.sql} up to
+ * date before the server uses it.
+ * <p>
+ * Missing columns are added with the defaults of the current schema. Block
+ * rows written before payloads were content-addressed have no content hash;
+ * their payloads are still in the per-file directories of the old layout,
+ * {@code <metadata.path>/<sequence>}, so each one is imported into the block
+ * store and its row is given the payload's hash. Rows whose payload file is
+ * gone cannot be served and are dropped. The old files are left in place and
+ * can be removed once the server runs on the migrated database.
+ * </p>
+ * <p>
+ * The schema changes and row updates run in one transaction, so an
+ * interrupted migration leaves the database as it was and simply runs again;
+ * payloads imported by the interrupted run are found in the store.
+ * </p>
+ */
+public final class SchemaMigration {
+
+    private static final Logger logger = Logger.getLogger(SchemaMigration.class.getName());
+
+    /** Block size of every file created before block sizes were per file */
+    static final int LEGACY_BLOCK_SIZE = 1024;
+
+    private SchemaMigration() {
+    }
+
+    /**
+     * Migrates the database if it uses an older schema.
+     *
+     * @param connections Provider of the database connections.
+     * @param blockStore  Store receiving the payloads of the old layout.
+     * @return {@code true} if the database was changed.
+     * @throws SQLException If the database cannot be read or changed.
+     * @throws IOException  If an old payload cannot be read or stored.
+     */
+    public static boolean migrate(ConnectionProvider connections, BlockStore blockStore)
+            throws SQLException, IOException {
+        try (Connection connection = connections.getWriter()) {
+            Set<String> metadataColumns = columnsOf(connection, "metadata");
+            Set<String> blockColumns = columnsOf(connection, "blocks");
+
+            if (metadataColumns.isEmpty() || blockColumns.isEmpty()) {
+                throw new SQLException("Database has no metadata or blocks table; initialize it with firstrun.sh");
+            }
+
+            boolean outdated = !metadataColumns.contains("block_size") || !metadataColumns.contains("chunking")
+                    || !blockColumns.contains("byte_offset") || !blockColumns.contains("content_hash");
+
+            if (!outdated) {
+                return false;
+            }
+
+            logger.info("Migrating database to the current schema");
+
+            connection.setAutoCommit(false);
+
+            try {
+                if (!metadataColumns.contains("block_size")) {
+                    execute(connection, "ALTER TABLE metadata ADD COLUMN block_size INTEGER NOT NULL DEFAULT "
+                            + LEGACY_BLOCK_SIZE);
+                }
+
+                if (!metadataColumns.contains("chunking")) {
+                    execute(connection, "ALTER TABLE metadata ADD COLUMN chunking TEXT NOT NULL DEFAULT 'FIXED'");
+                }
+
+                if (!blockColumns.contains("byte_offset")) {
+                    execute(connection, "ALTER TABLE blocks ADD COLUMN byte_offset INTEGER NOT NULL DEFAULT 0");
+                    execute(connection, "UPDATE blocks SET byte_offset = sequence_id * "
+                            + "(SELECT block_size FROM metadata WHERE metadata.id = blocks.metadata_id)");
+                }
+
+                if (!blockColumns.contains("content_hash")) {
+                    execute(connection, "ALTER TABLE blocks ADD COLUMN content_hash TEXT NOT NULL DEFAULT ''");
+                    execute(connection, "CREATE INDEX IF NOT EXISTS idx_blocks_content_hash ON blocks(content_hash)");
+                    importPayloads(connection, blockStore);
+                }
+
+                connection.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+
+            logger.info("Database migrated to the current schema");
+
+            return true;
+        }
+    }
+
+    /**
+     * Moves the payloads of the old per-file layout into the block store and
+     * records their hashes in the block rows.
+     */
+    private static void importPayloads(Connection connection, BlockStore blockStore)
+            throws SQLException, IOException {
+        String select = "SELECT blocks.id, blocks.sequence_id, metadata.path FROM blocks "
+                + "JOIN metadata ON metadata.id = blocks.metadata_id WHERE blocks.content_hash = ''";
+        long imported = 0;
+        long dropped = 0;
+
+        try (Statement query = connection.createStatement();
+                ResultSet rs = query.executeQuery(select);
+                PreparedStatement update = connection
+                        .prepareStatement("UPDATE blocks SET content_hash = ?, size = ? WHERE id = ?");
+                PreparedStatement delete = connection.prepareStatement("DELETE FROM blocks WHERE id = ?")) {
+            while (rs.next()) {
+                Path file = Paths.get(rs.getString("path"), String.valueOf(rs.getLong("sequence_id")));
+                byte[] data;
+
+                try {
+                    data = Files.readAllBytes(file);
+                } catch (NoSuchFileException e) {
+                    delete.setLong(1, rs.getLong("id"));
+                    delete.addBatch();
+                    dropped++;
+                    continue;
+                }
+
+                String contentHash = CrypticEngine.contentHash(data, data.length);
+
+                if (!blockStore.contains(contentHash)) {
+                    blockStore.put(contentHash, data);
+                }
+
+                update.setString(1, contentHash);
+                update.setInt(2, data.length);
+                update.setLong(3, rs.getLong("id"));
+                update.addBatch();
+                imported++;
+            }
+
+            update.executeBatch();
+            delete.executeBatch();
+        }
+
+        logger.info("Imported " + imported + " block payload(s) into the block store, dropped " + dropped
+                + " block(s) without payload");
+    }
+
+    private static Set<String> columnsOf(Connection connection, String table) throws SQLException {
+        Set<String> columns = new HashSet<>();
+
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                columns.add(rs.getString("name"));
+            }
+        }
+
+        return columns;
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+}
@@ -0,0 +1,783 @@
+package app.apollo.server;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * {@link BlockStore} that appends payloads to large segment files.
+ * <p>
+ * Every payload is written as a record at the end of the active segment, and
+ * an in-memory index maps each key to the segment, offset and length of its
+ * payload. Writes are therefore sequential appends and reads are positional
+ * reads from a handful of open file channels, instead of one file per
+ * payload. Removing a payload appends a small tombstone record. The index is
+ * rebuilt at startup by scanning the segments in order; a torn record at the
+ * end of the last segment is cut off.
+ * </p>
+ *
+ * <p>
+ * A segment is forced to disk when it is sealed. Payloads are forced as they
+ * are stored if the store was opened with {@code forceWrites}, so that a
+ * payload is durable before the database row referring to it is committed.
+ * </p>
+ *
+ * <p>
+ * A background task compacts sealed segments in which most bytes belong to
+ * removed payloads by copying their live records to the active segment,
+ * forcing it to disk and deleting the old file. A tombstone names the segment
+ * holding the payload it removes and is only copied while that segment
+ * exists.
+ * </p>
+ *
+ * <p>
+ * Given a {@link MappedRegionCache}, payloads in sealed segments are read
+ * through memory mappings of the recently used segments; the active segment is
+ * always read through its channel.
+ * </p>
+ *
+ * <p>
+ * Record layout: magic ({@code int}), type ({@code byte}), key length
+ * ({@code short}), payload length ({@code int}), CRC32 of key and payload
+ * ({@code int}), key bytes, payload bytes. The payload of a tombstone is the
+ * id ({@code int}) of the segment holding the removed payload.
+ * </p>
+ */
+public class SegmentBlockStore implements BlockStore, Closeable {
+
+    private static final Logger logger = Logger.getLogger(SegmentBlockStore.class.getName());
+
+    /** Marks the start of every record. */
+    static final int RECORD_MAGIC = 0x4D4E5347;
+
+    /** Record type of a stored payload. */
+    static final byte TYPE_PUT = 1;
+
+    /** Record type of a removed payload. */
+    static final byte TYPE_DELETE = 2;
+
+    /** Size in bytes of the fixed part of a record. */
+    static final int HEADER_SIZE = Integer.BYTES + Byte.BYTES + Short.BYTES + Integer.BYTES + Integer.BYTES;
+
+    /** Size after which the active segment is sealed and a new one started. */
+    static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /** Share of dead bytes that makes a sealed segment worth compacting. */
+    static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    /** Pause between two compaction runs, in seconds. */
+    static final long COMPACTION_INTERVAL_SECONDS = 30;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{8})\\.dat");
+
+    /** Target of tombstones written before they named their segment */
+    private static final int UNKNOWN_SEGMENT = -1;
+
+    /** One segment file. */
+    private static final class Segment {
+        private final int id;
+        private final Path path;
+
+        /** Bytes of records whose payload is still referenced by the index */
+        private final AtomicLong liveBytes = new AtomicLong();
+
+        private volatile FileChannel channel;
+
+        private volatile boolean writable;
+
+        /** Length of the valid part of the file */
+        private volatile long size;
+
+        private volatile boolean removed;
+
+        private Segment(int id, Path path) {
+            this.id = id;
+            this.path = path;
+        }
+
+        /**
+         * Returns the open channel of the segment, reopening it if an
+         * interrupted thread closed it.
+         */
+        private FileChannel channel() throws IOException {
+            FileChannel current = channel;
+
+            if (current.isOpen()) {
+                return current;
+            }
+
+            synchronized (this) {
+                if (removed) {
+                    throw new ClosedChannelException();
+                }
+
+                if (!channel.isOpen()) {
+                    channel = writable
+                            ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                            : FileChannel.open(path, StandardOpenOption.READ);
+                    if (writable) {
+                        channel.position(size);
+                    }
+                }
+
+                return channel;
+            }
+        }
+
+        private double deadRatio() {
+            return size == 0 ? 0 : 1.0 - (double) liveBytes.get() / size;
+        }
+    }
+
+    /** Position of a stored payload. */
+    private static final class Location {
+        private final Segment segment;
+
+        /** Offset of the payload within the segment */
+        private final long position;
+
+        private final int length;
+
+        /** Size of the whole record including header and key */
+        private final int recordSize;
+
+        private Location(Segment segment, long position, int length, int recordSize) {
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+            this.recordSize = recordSize;
+        }
+    }
+
+    /** Record read back from a segment. */
+    private static final class Record {
+        private final byte type;
+        private final String key;
+        private final byte[] payload;
+        private final long start;
+        private final int size;
+
+        private Record(byte type, String key, byte[] payload, long start, int size) {
+            this.type = type;
+            this.key = key;
+            this.payload = payload;
+            this.start = start;
+            this.size = size;
+        }
+    }
+
+    private final Path root;
+
+    private final long maxSegmentSize;
+
+    private final double compactionThreshold;
+
+    /** Mappings of sealed segments, or null to read through the channels */
+    private final MappedRegionCache mappings;
+
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    /** Serializes appends and every index change that must match the log order */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /** Segment receiving appends; only replaced under the write lock */
+    private volatile Segment active;
+
+    /** Whether every stored payload is forced to disk before put returns */
+    private final boolean forceWrites;
+
+    private final ScheduledExecutorService compactor;
+
+    /**
+     * Opens a store with default segment size and compaction threshold.
+     *
+     * @param root Directory holding the segment files.
+     * @throws IOException If the segments cannot be opened or scanned.
+     */
+    public SegmentBlockStore(Path root) throws IOException {
+        this(root, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens a store, rebuilds its index from the existing segments and starts
+     * background compaction.
+     *
+     * @param root                Directory holding the segment files.
+     * @param maxSegmentSize      Size after which a segment is sealed.
+     * @param compactionThreshold Share of dead bytes, between 0 and 1, at which
+     *                            a sealed segment is compacted.
+     * @throws IOException If the segments cannot be opened or scanned.
+     */
+    public SegmentBlockStore(Path root, long maxSegmentSize, double compactionThreshold) throws IOException {
+        this(root, maxSegmentSize, compactionThreshold, null);
+    }
+
+    /**
+     * Opens a store that reads sealed segments through memory mappings.
+     *
+     * @param root                Directory holding the segment files.
+     * @param maxSegmentSize      Size after which a segment is sealed.
+     * @param compactionThreshold Share of dead bytes, between 0 and 1, at which
+     *                            a sealed segment is compacted.
+     * @param mappings            Cache of mappings, or {@code null} to read
+     *                            through the segment channels.
+     * @throws IOException If the segments cannot be opened or scanned.
+     */
+    public SegmentBlockStore(Path root, long maxSegmentSize, double compactionThreshold,
+            MappedRegionCache mappings) throws IOException {
+        this(root, maxSegmentSize, compactionThreshold, mappings, false);
+    }
+
+    /**
+     * Opens a store that optionally forces every stored payload to disk.
+     *
+     * @param root                Directory holding the segment files.
+     * @param maxSegmentSize      Size after which a segment is sealed.
+     * @param compactionThreshold Share of dead bytes, between 0 and 1, at which
+     *                            a sealed segment is compacted.
+     * @param mappings            Cache of mappings, or {@code null} to read
+     *                            through the segment channels.
+     * @param forceWrites         Whether {@link #put(String, byte[])} forces
+     *                            the payload to disk before returning.
+     * @throws IOException If the segments cannot be opened or scanned.
+     */
+    public SegmentBlockStore(Path root, long maxSegmentSize, double compactionThreshold,
+            MappedRegionCache mappings, boolean forceWrites) throws IOException {
+        this.root = root;
+        this.forceWrites = forceWrites;
+        this.maxSegmentSize = maxSegmentSize;
+        this.compactionThreshold = compactionThreshold;
+        this.mappings = mappings;
+
+        Files.createDirectories(root);
+        recover();
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compactor.scheduleWithFixedDelay(this::compactQuietly, COMPACTION_INTERVAL_SECONDS,
+                COMPACTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void recover() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, "segment-*.dat")) {
+            for (Path file : files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    ids.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+
+        ids.sort(null);
+
+        for (int i = 0; i < ids.size(); i++) {
+            boolean last = i == ids.size() - 1;
+            Segment segment = openSegment(ids.get(i), last);
+            long end = replay(segment);
+
+            if (end < segment.channel.size()) {
+                if (last) {
+                    logger.warning("Truncating torn tail of " + segment.path + " at " + end);
+                    segment.channel.truncate(end);
+                } else {
+                    logger.warning("Ignoring unreadable records in " + segment.path + " after " + end);
+                }
+            }
+
+            segment.size = end;
+            if (last) {
+                segment.channel.position(end);
+            }
+        }
+
+        if (!segments.isEmpty()) {
+            active = segments.lastEntry().getValue();
+        }
+
+        if (active == null || active.size >= maxSegmentSize) {
+            roll();
+        }
+    }
+
+    private long replay(Segment segment) throws IOException {
+        long position = 0;
+        Record record;
+
+        while ((record = readRecord(segment.channel, position)) != null) {
+            if (record.type == TYPE_PUT) {
+                Location location = new Location(segment, record.start + record.size - record.payload.length,
+                        record.payload.length, record.size);
+                release(index.put(record.key, location));
+                segment.liveBytes.addAndGet(record.size);
+            } else {
+                release(index.remove(record.key));
+            }
+
+            position = record.start + record.size;
+        }
+
+        return position;
+    }
+
+    private static void release(Location location) {
+        if (location != null) {
+            location.segment.liveBytes.addAndGet(-location.recordSize);
+        }
+    }
+
+    private Segment openSegment(int id, boolean writable) throws IOException {
+        Segment segment = new Segment(id, root.resolve(String.format("segment-%08d.dat", id)));
+        segment.writable = writable;
+        segment.channel = writable
+                ? FileChannel.open(segment.path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)
+                : FileChannel.open(segment.path, StandardOpenOption.READ);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /** Seals the active segment and starts a new one. Requires the write lock or exclusive access. */
+    private void roll() throws IOException {
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        Segment next = openSegment(id, true);
+
+        if (active != null) {
+            active.channel().force(false);
+            active.writable = false;
+        }
+
+        active = next;
+    }
+
+    /**
+     * Reads the record starting at the given position.
+     *
+     * @return The record, or {@code null} at the end of the valid data.
+     */
+    private static Record readRecord(FileChannel channel, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        if (!readFully(channel, header, position)) {
+            return null;
+        }
+
+        header.flip();
+
+        int magic = header.getInt();
+        byte type = header.get();
+        int keyLength = header.getShort();
+        int payloadLength = header.getInt();
+        int checksum = header.getInt();
+
+        if (magic != RECORD_MAGIC || (type != TYPE_PUT && type != TYPE_DELETE) || keyLength <= 0
+                || payloadLength < 0 || position + HEADER_SIZE + keyLength + payloadLength > channel.size()) {
+            return null;
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(keyLength + payloadLength);
+
+        if (!readFully(channel, body, position + HEADER_SIZE)) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, body.capacity());
+
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+
+        byte[] payload = new byte[payloadLength];
+        System.arraycopy(body.array(), keyLength, payload, 0, payloadLength);
+
+        return new Record(type, new String(body.array(), 0, keyLength, StandardCharsets.US_ASCII), payload, position,
+                HEADER_SIZE + keyLength + payloadLength);
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Appends a record to the active segment. Requires the write lock. */
+    private Location append(byte type, byte[] key, byte[] payload) throws IOException {
+        int recordSize = HEADER_SIZE + key.length + payload.length;
+
+        if (active.size > 0 && active.size + recordSize > maxSegmentSize) {
+            roll();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        crc.update(payload);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(RECORD_MAGIC);
+        header.put(type);
+        header.putShort((short) key.length);
+        header.putInt(payload.length);
+        header.putInt((int) crc.getValue());
+        header.flip();
+
+        ByteBuffer[] record = { header, ByteBuffer.wrap(key), ByteBuffer.wrap(payload) };
+        FileChannel channel = active.channel();
+        long start = active.size;
+
+        try {
+            while (record[2].hasRemaining() || record[1].hasRemaining() || record[0].hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException e) {
+            active.channel().truncate(start);
+            active.channel().position(start);
+            throw e;
+        }
+
+        active.size = start + recordSize;
+
+        return new Location(active, start + HEADER_SIZE + key.length, payload.length, recordSize);
+    }
+
+    private static byte[] keyBytes(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.US_ASCII);
+
+        if (bytes.length == 0 || bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Malformed content key: " + key);
+        }
+
+        return bytes;
+    }
+
+    @Override
+    public boolean put(String key, byte[] data) throws IOException {
+        byte[] keyBytes = keyBytes(key);
+
+        if (index.containsKey(key)) {
+            return false;
+        }
+
+        writeLock.lock();
+
+        try {
+            if (index.containsKey(key)) {
+                return false;
+            }
+
+            Location location = append(TYPE_PUT, keyBytes, data);
+
+            if (forceWrites) {
+                location.segment.channel().force(false);
+            }
+
+            location.segment.liveBytes.addAndGet(location.recordSize);
+            index.put(key, location);
+
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        for (int attempt = 0;; attempt++) {
+            Location location = locate(key);
+
+            try {
+                ByteBuffer region = mapped(location);
+
+                if (region != null) {
+                    byte[] data = new byte[location.length];
+                    region.get(data);
+                    return data;
+                }
+
+                ByteBuffer buffer = ByteBuffer.allocate(location.length);
+
+                if (!readFully(location.segment.channel(), buffer, location.position)) {
+                    throw new EOFException("Segment " + location.segment.path + " ends inside " + key);
+                }
+
+                return buffer.array();
+            } catch (ClosedChannelException e) {
+                if (attempt > 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return locate(key).length;
+    }
+
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws IOException {
+        for (int attempt = 0;; attempt++) {
+            Location location = locate(key);
+            long transferred = 0;
+
+            try {
+                ByteBuffer region = mapped(location);
+
+                if (region != null) {
+                    while (region.hasRemaining()) {
+                        transferred += target.write(region);
+                    }
+                    return transferred;
+                }
+
+                FileChannel channel = location.segment.channel();
+
+                while (transferred < location.length) {
+                    transferred += channel.transferTo(location.position + transferred,
+                            location.length - transferred, target);
+                }
+
+                return transferred;
+            } catch (ClosedChannelException e) {
+                if (attempt > 0 || transferred > 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a view of a payload in a sealed segment.
+     *
+     * @return The payload bytes, or {@code null} if the payload must be read
+     *         through the segment channel.
+     */
+    private ByteBuffer mapped(Location location) throws IOException {
+        Segment segment = location.segment;
+
+        if (mappings == null || segment.writable || segment.size > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        ByteBuffer region;
+
+        try {
+            region = mappings.map(segment.path, segment.size);
+        } catch (NoSuchFileException e) {
+            if (segment.removed) {
+                throw new ClosedChannelException();
+            }
+            throw e;
+        }
+
+        region.position((int) location.position);
+        region.limit((int) location.position + location.length);
+
+        return region;
+    }
+
+    private Location locate(String key) throws NoSuchFileException {
+        Location location = index.get(key);
+
+        if (location == null) {
+            throw new NoSuchFileException(key);
+        }
+
+        return location;
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        byte[] keyBytes = keyBytes(key);
+
+        writeLock.lock();
+
+        try {
+            Location location = index.remove(key);
+
+            if (location == null) {
+                return false;
+            }
+
+            release(location);
+            append(TYPE_DELETE, keyBytes, tombstone(location.segment.id));
+
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static byte[] tombstone(int segmentId) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(segmentId).array();
+    }
+
+    /** @return the id of the segment a tombstone refers to */
+    private static int tombstoneTarget(Record record) {
+        return record.payload.length == Integer.BYTES ? ByteBuffer.wrap(record.payload).getInt() : UNKNOWN_SEGMENT;
+    }
+
+    /**
+     * Compacts every sealed segment whose share of dead bytes reached the
+     * compaction threshold.
+     *
+     * @return Number of segments that were compacted.
+     * @throws IOException If a segment cannot be read or rewritten.
+     */
+    public int compact() throws IOException {
+        int compacted = 0;
+
+        for (Segment segment : segments.values()) {
+            if (!segment.writable && segment != active && segment.deadRatio() >= compactionThreshold) {
+                compact(segment);
+                compacted++;
+            }
+        }
+
+        return compacted;
+    }
+
+    private void compactQuietly() {
+        try {
+            int compacted = compact();
+            if (compacted > 0) {
+                logger.info("Compacted " + compacted + " block segment(s)");
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Block segment compaction failed", e);
+        }
+    }
+
+    /**
+     * Copies the live records of a sealed segment to the active segment and
+     * deletes it once the copies are on disk. Each record is moved under the
+     * write lock, so the log order always matches the index and writers are
+     * only paused per record. A tombstone is only copied while the segment
+     * holding the payload it removes still exists.
+     */
+    private void compact(Segment segment) throws IOException {
+        long position = 0;
+        Record record;
+
+        while (position < segment.size && (record = readRecord(segment.channel(), position)) != null) {
+            writeLock.lock();
+
+            try {
+                Location current = index.get(record.key);
+
+                if (record.type == TYPE_PUT) {
+                    if (current != null && current.segment == segment && current.position - record.start
+                            == record.size - record.payload.length) {
+                        Location moved = append(TYPE_PUT, keyBytes(record.key), record.payload);
+                        moved.segment.liveBytes.addAndGet(moved.recordSize);
+                        index.put(record.key, moved);
+                        release(current);
+                    }
+                } else if (current == null && isNeeded(record, segment)) {
+                    append(TYPE_DELETE, keyBytes(record.key), record.payload);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+
+            position = record.start + record.size;
+        }
+
+        writeLock.lock();
+
+        try {
+            active.channel().force(false);
+            segments.remove(segment.id);
+        } finally {
+            writeLock.unlock();
+        }
+
+        synchronized (segment) {
+            segment.removed = true;
+            segment.channel.close();
+        }
+
+        if (mappings != null) {
+            mappings.invalidate(segment.path);
+        }
+
+        Files.deleteIfExists(segment.path);
+    }
+
+    /**
+     * Checks whether a tombstone of a compacted segment must be kept because
+     * an older segment may still hold the payload it removes.
+     */
+    private boolean isNeeded(Record tombstone, Segment segment) {
+        int target = tombstoneTarget(tombstone);
+
+        if (target == UNKNOWN_SEGMENT) {
+            return segments.firstKey() != segment.id;
+        }
+
+        return target != segment.id && segments.containsKey(target);
+    }
+
+    /** @return the number of segment files */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdownNow();
+
+        writeLock.lock();
+
+        try {
+            for (Segment segment : segments.values()) {
+                synchronized (segment) {
+                    segment.removed = true;
+                    segment.channel.close();
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
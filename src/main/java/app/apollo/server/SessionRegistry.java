@@ -0,0 +1,161 @@
+package app.apollo.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import app.apollo.common.Session;
+
+/**
+ * In-memory table of active sessions.
+ * <p>
+ * Sessions are indexed by token and by user in concurrent maps, so looking
+ * up a token never takes a lock or touches the database. Every session
+ * expires a fixed time after it was registered; expiry is driven by a
+ * {@link HashedTimerWheel}, and lookups additionally check the deadline so
+ * that a session is never honoured past it, even before the timer fires.
+ * </p>
+ */
+public class SessionRegistry {
+
+    /** Session together with its expiry bookkeeping. */
+    private static final class Entry {
+        private final Session session;
+
+        /** Value of {@link System#nanoTime()} after which the session is invalid */
+        private final long expiresAt;
+
+        private HashedTimerWheel.Timeout timeout;
+
+        private Entry(Session session, long expiresAt) {
+            this.session = session;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> byToken = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Integer, Entry> byUser = new ConcurrentHashMap<>();
+
+    private final HashedTimerWheel timer;
+
+    private final long ttlNanos;
+
+    private final Consumer<Session> expiryListener;
+
+    /**
+     * Constructs a registry.
+     *
+     * @param timer          Timer wheel that expires sessions.
+     * @param ttl            Lifetime of a session.
+     * @param unit           Unit of {@code ttl}.
+     * @param expiryListener Called on the timer thread for every session that
+     *                       expires; must not block.
+     */
+    public SessionRegistry(HashedTimerWheel timer, long ttl, TimeUnit unit, Consumer<Session> expiryListener) {
+        this.timer = timer;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.expiryListener = expiryListener;
+    }
+
+    /**
+     * Finds the live session of a token.
+     *
+     * @param token Session token.
+     * @return The session, or {@code null} if the token is unknown or expired.
+     */
+    public Session findByToken(String token) {
+        if (token == null) {
+            return null;
+        }
+
+        Entry entry = byToken.get(token);
+
+        if (entry == null || entry.isExpired(System.nanoTime())) {
+            return null;
+        }
+
+        return entry.session;
+    }
+
+    /**
+     * Finds the live session of a user.
+     *
+     * @param userId ID of the user.
+     * @return The session, or {@code null} if the user has none.
+     */
+    public Session findByUserId(Integer userId) {
+        Entry entry = byUser.get(userId);
+
+        if (entry == null || entry.isExpired(System.nanoTime())) {
+            return null;
+        }
+
+        return entry.session;
+    }
+
+    /**
+     * Registers a new session and schedules its expiry. A previous session of
+     * the same user is replaced.
+     *
+     * @param session Session to register.
+     */
+    public void register(Session session) {
+        Entry entry = new Entry(session, System.nanoTime() + ttlNanos);
+
+        Entry previous = byUser.put(session.getUserId(), entry);
+        if (previous != null) {
+            remove(previous);
+        }
+
+        byToken.put(session.getToken(), entry);
+        entry.timeout = timer.schedule(() -> expire(entry), ttlNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Removes the session of a token.
+     *
+     * @param token Session token.
+     * @return The removed session, or {@code null} if none was registered.
+     */
+    public Session remove(String token) {
+        if (token == null) {
+            return null;
+        }
+
+        Entry entry = byToken.get(token);
+
+        if (entry == null || !remove(entry)) {
+            return null;
+        }
+
+        return entry.session;
+    }
+
+    private boolean remove(Entry entry) {
+        byUser.remove(entry.session.getUserId(), entry);
+
+        if (entry.timeout != null) {
+            entry.timeout.cancel();
+        }
+
+        return byToken.remove(entry.session.getToken(), entry);
+    }
+
+    private void expire(Entry entry) {
+        byUser.remove(entry.session.getUserId(), entry);
+
+        if (byToken.remove(entry.session.getToken(), entry)) {
+            expiryListener.accept(entry.session);
+        }
+    }
+
+    /** @return the number of registered sessions */
+    public int size() {
+        return byToken.size();
+    }
+}
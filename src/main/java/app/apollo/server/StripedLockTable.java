@@ -0,0 +1,56 @@
+package app.apollo.server;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Fixed table of read/write locks shared by an unbounded set of files.
+ * <p>
+ * Every file is mapped to one of the locks by hashing its owner and name, so
+ * the table never grows or needs cleaning up, however many files are used.
+ * Files that share a lock only contend with each other; they never deadlock
+ * as long as callers hold the lock of at most one file at a time.
+ * </p>
+ */
+public final class StripedLockTable {
+
+    /** Default number of locks */
+    static final int DEFAULT_STRIPES = 1024;
+
+    private final ReentrantReadWriteLock[] stripes;
+
+    private final int mask;
+
+    /**
+     * Creates the locks.
+     *
+     * @param stripes Number of locks, rounded up to a power of two.
+     */
+    public StripedLockTable(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+
+        this.stripes = new ReentrantReadWriteLock[size];
+        this.mask = size - 1;
+
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Returns the lock of a file.
+     *
+     * @param userId   ID of the file owner.
+     * @param filename Name of the file.
+     * @return The lock guarding the file; the same instance for every call
+     *         with the same arguments.
+     */
+    public ReentrantReadWriteLock get(Integer userId, String filename) {
+        int hash = 31 * userId.hashCode() + filename.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    /** @return the number of locks */
+    public int size() {
+        return stripes.length;
+    }
+}
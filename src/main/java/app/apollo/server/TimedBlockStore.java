@@ -0,0 +1,64 @@
+package app.apollo.server;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link BlockStore} that times every operation of another store under the
+ * {@code disk.*} {@link Metrics}.
+ */
+public class TimedBlockStore implements BlockStore {
+
+    private static final OperationTimer PUT = Metrics.timer("disk.put");
+
+    private static final OperationTimer CONTAINS = Metrics.timer("disk.contains");
+
+    private static final OperationTimer GET = Metrics.timer("disk.get");
+
+    private static final OperationTimer SIZE = Metrics.timer("disk.size");
+
+    private static final OperationTimer TRANSFER = Metrics.timer("disk.transferTo");
+
+    private static final OperationTimer DELETE = Metrics.timer("disk.delete");
+
+    private final BlockStore delegate;
+
+    /**
+     * Wraps a store.
+     *
+     * @param delegate Store whose operations are timed.
+     */
+    public TimedBlockStore(BlockStore delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean put(String key, byte[] data) throws IOException {
+        return PUT.call(() -> delegate.put(key, data));
+    }
+
+    @Override
+    public boolean contains(String key) throws IOException {
+        return CONTAINS.call(() -> delegate.contains(key));
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        return GET.call(() -> delegate.get(key));
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return SIZE.call(() -> delegate.size(key));
+    }
+
+    @Override
+    public long transferTo(String key, WritableByteChannel target) throws IOException {
+        return TRANSFER.call(() -> delegate.transferTo(key, target));
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return DELETE.call(() -> delegate.delete(key));
+    }
+}
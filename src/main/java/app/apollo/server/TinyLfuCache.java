@@ -0,0 +1,1024 @@
+package app.apollo.server;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thread-safe {@link Cache} with a W-TinyLFU eviction policy.
+ * <p>
+ * Entries live in a {@link ConcurrentHashMap}, so lookups never block. The
+ * eviction policy keeps three intrusive LRU lists: a small admission window
+ * for new entries and a main space split into a probation and a protected
+ * segment. When the window overflows, its oldest entry competes with the
+ * oldest probation entry and only the one that was used more often, according
+ * to a compact frequency sketch, stays. A burst of entries that are used once,
+ * such as a scan over a large file, therefore cannot flush the entries that
+ * are used all the time.
+ * </p>
+ * <p>
+ * Every operation is O(1). Hits are recorded in striped, lossy ring buffers
+ * and replayed against the policy later, so readers neither wait for the lock
+ * nor contend on a shared list; a hit that does not fit into a full buffer is
+ * simply not counted. Writes change the map right away and queue their policy
+ * update in striped write buffers, which are drained by whichever thread gets
+ * the lock without waiting for it. Writes are never lost, so a writer only
+ * waits for the lock when its buffer is full. Until its update is drained, a
+ * new entry is readable but does not count towards the capacity.
+ * </p>
+ * <p>
+ * A {@link CacheConfig} adds time-based expiry and refresh-ahead. Expired
+ * entries are never returned; they are removed by a shared timer wheel that
+ * checks each entry once its deadline may have passed and reschedules it if
+ * the entry was written or read again in the meantime, so expiry costs O(1)
+ * per entry instead of periodic scans. Entries loaded through
+ * {@link #get(Object, CacheLoader)} remember their loader and are reloaded on
+ * a background thread when they are read after the refresh period.
+ * </p>
+ * <p>
+ * A value loaded while its key is written or removed is returned to the
+ * caller but not cached, since it may have been read from the backing store
+ * before the change that the write or removal reflects. Writes are counted
+ * per stripe of keys, so a load is also dropped when another key of its
+ * stripe changes, which costs a later miss but never a stale entry.
+ * </p>
+ */
+public class TinyLfuCache<K, V> implements Cache<K, V> {
+
+    private static final Logger logger = Logger.getLogger(TinyLfuCache.class.getName());
+
+    /** Share of the capacity reserved for the admission window. */
+    static final double WINDOW_SHARE = 0.01;
+
+    /** Share of the main space reserved for the protected segment. */
+    static final double PROTECTED_SHARE = 0.8;
+
+    /** Number of hits one read buffer stripe holds. */
+    static final int READ_BUFFER_SIZE = 16;
+
+    /** Number of policy updates one write buffer stripe holds. */
+    static final int WRITE_BUFFER_SIZE = 64;
+
+    /** Number of key stripes whose writes are counted. */
+    static final int VERSION_STRIPES = 64;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int DEAD = 3;
+    private static final int PENDING = 4;
+
+    /** Timer and threads shared by all caches that use time-based policies. */
+    private static final class Scheduling {
+        private static final HashedTimerWheel TIMER = new HashedTimerWheel("cache-expiry", 1, TimeUnit.SECONDS,
+                512);
+
+        private static final ExecutorService REFRESHER = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Cached entry and its position in one of the policy lists. */
+    private static final class Node<K, V> {
+        private final K key;
+        private volatile V value;
+
+        /** Loader used to refresh the entry, if it was loaded */
+        private volatile CacheLoader<? super K, ? extends V> loader;
+
+        /** {@link System#nanoTime()} of the last write, if time-based policies are set */
+        private volatile long writeTime;
+
+        /** {@link System#nanoTime()} of the last read or write, if expiry after access is set */
+        private volatile long accessTime;
+
+        /** List holding the node; guarded by the policy lock */
+        private int queue = PENDING;
+        private Node<K, V> previous;
+        private Node<K, V> next;
+
+        /** Pending expiry check; guarded by the policy lock */
+        private HashedTimerWheel.Timeout expiry;
+
+        private Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /** Doubly-linked LRU list with a sentinel; head is the eldest node. */
+    private static final class AccessOrder<K, V> {
+        private final Node<K, V> sentinel = new Node<>(null, null);
+        private int size;
+
+        private AccessOrder() {
+            sentinel.previous = sentinel;
+            sentinel.next = sentinel;
+        }
+
+        private Node<K, V> eldest() {
+            return sentinel.next == sentinel ? null : sentinel.next;
+        }
+
+        private void addLast(Node<K, V> node) {
+            node.previous = sentinel.previous;
+            node.next = sentinel;
+            sentinel.previous.next = node;
+            sentinel.previous = node;
+            size++;
+        }
+
+        private void remove(Node<K, V> node) {
+            node.previous.next = node.next;
+            node.next.previous = node.previous;
+            node.previous = null;
+            node.next = null;
+            size--;
+        }
+
+        private void moveToEnd(Node<K, V> node) {
+            remove(node);
+            addLast(node);
+        }
+
+        private void clear() {
+            sentinel.previous = sentinel;
+            sentinel.next = sentinel;
+            size = 0;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, four per key, packed into longs.
+     * Counters are halved periodically so that old popularity fades.
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+                0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(int maximum) {
+            int size = Integer.highestOneBit(Math.max(16, maximum) - 1) << 1;
+            this.table = new long[size];
+            this.tableMask = size - 1;
+            this.sampleSize = 10 * size;
+        }
+
+        private int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+
+            return frequency;
+        }
+
+        private void increment(Object key) {
+            int hash = spread(key.hashCode());
+            int start = (hash & 3) << 2;
+            boolean added = false;
+
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+
+            if (added && ++additions == sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions >>>= 1;
+            }
+        }
+
+        private boolean incrementAt(int index, int counter) {
+            int offset = counter << 2;
+            long mask = 0xfL << offset;
+
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                return true;
+            }
+
+            return false;
+        }
+
+        private int indexOf(int hash, int i) {
+            long mixed = (hash + SEEDS[i]) * SEEDS[i];
+            mixed += mixed >>> 32;
+            return (int) mixed & tableMask;
+        }
+
+        private static int spread(int hash) {
+            hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+            hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+            return (hash >>> 16) ^ hash;
+        }
+    }
+
+    /** Lossy ring buffer of hits written by readers and drained under the lock. */
+    private static final class ReadBuffer<K, V> {
+        private final AtomicReferenceArray<Node<K, V>> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter;
+
+        /** @return {@code false} if the buffer is full */
+        private boolean offer(Node<K, V> node) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+
+            if (tail - head >= READ_BUFFER_SIZE) {
+                return false;
+            }
+
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int) (tail & (READ_BUFFER_SIZE - 1)), node);
+            }
+
+            return true;
+        }
+    }
+
+    private final Map<K, Node<K, V>> data = new ConcurrentHashMap<>();
+
+    private final ReentrantLock policyLock = new ReentrantLock();
+
+    /** Guarded by the policy lock */
+    private FrequencySketch sketch;
+
+    private final AccessOrder<K, V> window = new AccessOrder<>();
+    private final AccessOrder<K, V> probation = new AccessOrder<>();
+    private final AccessOrder<K, V> protectedSegment = new AccessOrder<>();
+
+    private final ReadBuffer<K, V>[] readBuffers;
+
+    /** Policy updates of writes that were not applied yet */
+    private final BlockingQueue<Runnable>[] writeBuffers;
+
+    /** Number of updates in the write buffers */
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+
+    /** Number of puts and removals per key stripe; bumped before the change is made */
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+    /** Limits of the policy; guarded by the policy lock */
+    private int maximum;
+    private int windowMaximum;
+    private int protectedMaximum;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+    private final long refreshAfterWriteNanos;
+
+    /** Whether any time-based policy is set */
+    private final boolean timed;
+
+    /** Entries being reloaded in the background */
+    private final Map<K, Node<K, V>> refreshing = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty cache without time-based policies.
+     *
+     * @param capacity Largest number of entries kept.
+     */
+    public TinyLfuCache(Integer capacity) {
+        this(configOf(capacity));
+    }
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param config Capacity, expiry and refresh settings.
+     */
+    @SuppressWarnings("unchecked")
+    public TinyLfuCache(CacheConfig config) {
+        int capacity = config.getCapacity();
+
+        this.expireAfterWriteNanos = config.getExpireAfterWriteNanos();
+        this.expireAfterAccessNanos = config.getExpireAfterAccessNanos();
+        this.refreshAfterWriteNanos = config.getRefreshAfterWriteNanos();
+        this.timed = expireAfterWriteNanos > 0 || expireAfterAccessNanos > 0 || refreshAfterWriteNanos > 0;
+
+        resize(capacity);
+        this.sketch = new FrequencySketch(capacity);
+
+        int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+        this.readBuffers = (ReadBuffer<K, V>[]) new ReadBuffer<?, ?>[stripes];
+        this.writeBuffers = (BlockingQueue<Runnable>[]) new BlockingQueue<?>[stripes];
+        for (int i = 0; i < stripes; i++) {
+            readBuffers[i] = new ReadBuffer<>();
+            writeBuffers[i] = new ArrayBlockingQueue<>(WRITE_BUFFER_SIZE);
+        }
+    }
+
+    private static CacheConfig configOf(Integer capacity) {
+        CacheConfig config = new CacheConfig();
+        config.setCapacity(capacity);
+        return config;
+    }
+
+    @Override
+    public Optional<V> get(K key) {
+        return lookup(key, null);
+    }
+
+    /**
+     * Returns the cached value or loads it on the calling thread. The loader
+     * is kept with the entry so that it can be refreshed in the background.
+     * The loaded value is not cached if the key's stripe was written or
+     * removed during the load.
+     */
+    @Override
+    public Optional<V> get(K key, CacheLoader<? super K, ? extends V> loader) {
+        long version = versions.get(stripeOf(key));
+        Optional<V> cached = lookup(key, loader);
+
+        if (cached.isPresent()) {
+            return cached;
+        }
+
+        V value = loader.load(key);
+
+        if (value == null) {
+            return Optional.empty();
+        }
+
+        long now = timed ? System.nanoTime() : 0;
+        Node<K, V> created = newNode(key, value, loader, now);
+        Node<K, V> node = data.compute(key, (k, existing) -> {
+            if (versions.get(stripeOf(k)) != version) {
+                return existing;
+            }
+            if (existing == null) {
+                return created;
+            }
+            write(existing, value, loader, now);
+            return existing;
+        });
+
+        if (node == created && versions.get(stripeOf(key)) != version) {
+            // cleared after the check; the clear may have missed the new node
+            remove(created);
+        } else if (node != null) {
+            afterWrite(() -> onWrite(node));
+        }
+
+        return Optional.of(value);
+    }
+
+    private static int stripeOf(Object key) {
+        return FrequencySketch.spread(key.hashCode()) & (VERSION_STRIPES - 1);
+    }
+
+    private Optional<V> lookup(K key, CacheLoader<? super K, ? extends V> loader) {
+        Node<K, V> node = data.get(key);
+
+        if (node == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+
+        V value = node.value;
+
+        if (timed) {
+            long now = System.nanoTime();
+
+            if (isExpired(node, now)) {
+                misses.increment();
+                return Optional.empty();
+            }
+
+            if (expireAfterAccessNanos > 0) {
+                node.accessTime = now;
+            }
+
+            if (loader != null && node.loader == null) {
+                node.loader = loader;
+            }
+
+            if (refreshAfterWriteNanos > 0 && now - node.writeTime >= refreshAfterWriteNanos) {
+                refresh(node);
+            }
+        }
+
+        hits.increment();
+
+        ReadBuffer<K, V> buffer = readBuffers[(int) Thread.currentThread().getId() & (readBuffers.length - 1)];
+
+        if (!buffer.offer(node) && policyLock.tryLock()) {
+            try {
+                drainBuffers();
+            } finally {
+                unlockPolicy();
+            }
+        }
+
+        return Optional.of(value);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        long now = timed ? System.nanoTime() : 0;
+
+        versions.incrementAndGet(stripeOf(key));
+
+        Node<K, V> node = data.compute(key, (k, existing) -> {
+            if (existing == null) {
+                return newNode(k, value, null, now);
+            }
+            write(existing, value, null, now);
+            return existing;
+        });
+
+        afterWrite(() -> onWrite(node));
+    }
+
+    private Node<K, V> newNode(K key, V value, CacheLoader<? super K, ? extends V> loader, long now) {
+        Node<K, V> node = new Node<>(key, value);
+        node.loader = loader;
+        node.writeTime = now;
+        node.accessTime = now;
+        return node;
+    }
+
+    /** Replaces the value of a node; called while the map holds the node's key. */
+    private static <K, V> void write(Node<K, V> node, V value, CacheLoader<? super K, ? extends V> loader,
+            long now) {
+        node.value = value;
+        node.writeTime = now;
+        node.accessTime = now;
+        if (loader != null) {
+            node.loader = loader;
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        // bumped first, so a racing load either sees the new version or
+        // stores its node before the removal takes it out again
+        versions.incrementAndGet(stripeOf(key));
+
+        Node<K, V> node = data.remove(key);
+        if (node != null) {
+            afterWrite(() -> unlink(node));
+        }
+    }
+
+    /** Removes an entry only if it still holds the given node. */
+    private void remove(Node<K, V> node) {
+        versions.incrementAndGet(stripeOf(node.key));
+
+        if (data.remove(node.key, node)) {
+            afterWrite(() -> unlink(node));
+        }
+    }
+
+    /**
+     * Queues the policy update of a write and applies the queued updates if
+     * the policy lock is free. A full buffer is drained under the lock.
+     */
+    private void afterWrite(Runnable update) {
+        BlockingQueue<Runnable> buffer = writeBuffers[(int) Thread.currentThread().getId()
+                & (writeBuffers.length - 1)];
+
+        boolean queued = buffer.offer(update);
+
+        if (queued) {
+            pendingWrites.incrementAndGet();
+
+            if (!policyLock.tryLock()) {
+                return;
+            }
+        } else {
+            policyLock.lock();
+        }
+
+        try {
+            drainBuffers();
+            if (!queued) {
+                update.run();
+            }
+        } finally {
+            unlockPolicy();
+        }
+    }
+
+    /**
+     * Releases the policy lock, then applies writes that were queued while it
+     * was held. A writer that failed to get the lock counted its update
+     * before trying, so either it or the thread holding the lock drains it.
+     */
+    private void unlockPolicy() {
+        policyLock.unlock();
+
+        while (pendingWrites.get() > 0 && policyLock.tryLock()) {
+            try {
+                drainWriteBuffers();
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return data.isEmpty();
+    }
+
+    /** @return the number of cached entries */
+    public int size() {
+        return data.size();
+    }
+
+    /** @return the largest number of entries kept */
+    public int getCapacity() {
+        policyLock.lock();
+
+        try {
+            return maximum;
+        } finally {
+            unlockPolicy();
+        }
+    }
+
+    /**
+     * Changes the largest number of entries kept, evicting entries right away
+     * when the cache shrinks. Growing well beyond the initial capacity starts
+     * a new, larger frequency sketch.
+     *
+     * @param capacity Number of entries, at least one.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be positive.");
+        }
+
+        policyLock.lock();
+
+        try {
+            drainBuffers();
+            resize(capacity);
+
+            if (capacity > 2 * sketch.tableMask + 2) {
+                sketch = new FrequencySketch(capacity);
+            }
+
+            while (protectedSegment.size > protectedMaximum) {
+                Node<K, V> demoted = protectedSegment.eldest();
+                protectedSegment.remove(demoted);
+                demoted.queue = PROBATION;
+                probation.addLast(demoted);
+            }
+
+            evict();
+        } finally {
+            unlockPolicy();
+        }
+    }
+
+    private void resize(int capacity) {
+        this.maximum = capacity;
+        this.windowMaximum = Math.max(1, (int) (capacity * WINDOW_SHARE));
+        this.protectedMaximum = (int) ((capacity - windowMaximum) * PROTECTED_SHARE);
+    }
+
+    /** @return the number of lookups that found a value */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** @return the number of lookups that found no value */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public void clear() {
+        policyLock.lock();
+
+        try {
+            for (int i = 0; i < VERSION_STRIPES; i++) {
+                versions.incrementAndGet(i);
+            }
+
+            drainBuffers();
+            data.clear();
+            discard(window);
+            discard(probation);
+            discard(protectedSegment);
+        } finally {
+            unlockPolicy();
+        }
+    }
+
+    /**
+     * Returns a view of the cached entries. Removing through the view, for
+     * example with {@code removeIf}, removes the entries from the cache.
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                Iterator<Node<K, V>> nodes = new NodeIterator();
+                return new Iterator<Entry<K, V>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return nodes.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        Node<K, V> node = nodes.next();
+                        return new AbstractMap.SimpleImmutableEntry<>(node.key, node.value);
+                    }
+
+                    @Override
+                    public void remove() {
+                        nodes.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return data.size();
+            }
+        };
+    }
+
+    /**
+     * Returns a view of the cached values. Removing through the view removes
+     * the entries from the cache.
+     */
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                Iterator<Node<K, V>> nodes = new NodeIterator();
+                return new Iterator<V>() {
+                    @Override
+                    public boolean hasNext() {
+                        return nodes.hasNext();
+                    }
+
+                    @Override
+                    public V next() {
+                        return nodes.next().value;
+                    }
+
+                    @Override
+                    public void remove() {
+                        nodes.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return data.size();
+            }
+        };
+    }
+
+    /** Weakly consistent iterator over the nodes that routes removal through the policy. */
+    private final class NodeIterator implements Iterator<Node<K, V>> {
+        private final Iterator<Node<K, V>> nodes = data.values().iterator();
+        private final long now = timed ? System.nanoTime() : 0;
+        private Node<K, V> upcoming;
+        private Node<K, V> current;
+
+        @Override
+        public boolean hasNext() {
+            while (upcoming == null && nodes.hasNext()) {
+                Node<K, V> node = nodes.next();
+                if (!timed || !isExpired(node, now)) {
+                    upcoming = node;
+                }
+            }
+            return upcoming != null;
+        }
+
+        @Override
+        public Node<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            current = upcoming;
+            upcoming = null;
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            }
+            TinyLfuCache.this.remove(current);
+            current = null;
+        }
+    }
+
+    /** Marks the nodes of a list dead and empties it. Requires the policy lock. */
+    private void discard(AccessOrder<K, V> list) {
+        for (Node<K, V> node = list.eldest(); node != null; node = list.eldest()) {
+            list.remove(node);
+            if (node.expiry != null) {
+                node.expiry.cancel();
+                node.expiry = null;
+            }
+            node.queue = DEAD;
+        }
+    }
+
+    /** Applies buffered writes, then buffered hits. Requires the policy lock. */
+    private void drainBuffers() {
+        drainWriteBuffers();
+        drainReadBuffers();
+    }
+
+    /**
+     * Applies buffered policy updates, at most one buffer's worth per stripe
+     * so that busy writers cannot keep the drain going. Requires the policy
+     * lock.
+     */
+    private void drainWriteBuffers() {
+        for (BlockingQueue<Runnable> buffer : writeBuffers) {
+            Runnable update;
+
+            for (int i = 0; i < WRITE_BUFFER_SIZE && (update = buffer.poll()) != null; i++) {
+                pendingWrites.decrementAndGet();
+                update.run();
+            }
+        }
+    }
+
+    /** Replays buffered hits against the policy. Requires the policy lock. */
+    private void drainReadBuffers() {
+        for (ReadBuffer<K, V> buffer : readBuffers) {
+            long tail = buffer.writeCounter.get();
+
+            while (buffer.readCounter < tail) {
+                int index = (int) (buffer.readCounter & (READ_BUFFER_SIZE - 1));
+                Node<K, V> node = buffer.slots.get(index);
+
+                if (node == null) {
+                    break;
+                }
+
+                buffer.slots.lazySet(index, null);
+                buffer.readCounter++;
+
+                sketch.increment(node.key);
+                onAccess(node);
+            }
+        }
+    }
+
+    /**
+     * Adds a written node to the window, or counts the write as an access if
+     * the node is already there. Updates of one node may be drained out of
+     * order, so a node whose removal was applied first stays dead. Requires
+     * the policy lock.
+     */
+    private void onWrite(Node<K, V> node) {
+        sketch.increment(node.key);
+
+        if (node.queue != PENDING) {
+            onAccess(node);
+            return;
+        }
+
+        if (data.get(node.key) != node) {
+            node.queue = DEAD;
+            return;
+        }
+
+        node.queue = WINDOW;
+        window.addLast(node);
+
+        if (expireAfterWriteNanos > 0 || expireAfterAccessNanos > 0) {
+            scheduleExpiry(node, deadlineOf(node) - System.nanoTime());
+        }
+
+        evict();
+    }
+
+    /** Moves an accessed node according to its list. Requires the policy lock. */
+    private void onAccess(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.moveToEnd(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedSegment.addLast(node);
+
+                if (protectedSegment.size > protectedMaximum) {
+                    Node<K, V> demoted = protectedSegment.eldest();
+                    protectedSegment.remove(demoted);
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+                break;
+            case PROTECTED:
+                protectedSegment.moveToEnd(node);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void unlink(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                break;
+            case PROTECTED:
+                protectedSegment.remove(node);
+                break;
+            default:
+                break;
+        }
+        if (node.expiry != null) {
+            node.expiry.cancel();
+            node.expiry = null;
+        }
+        node.queue = DEAD;
+    }
+
+    private boolean isExpired(Node<K, V> node, long now) {
+        return (expireAfterWriteNanos > 0 && now - node.writeTime >= expireAfterWriteNanos)
+                || (expireAfterAccessNanos > 0 && now - node.accessTime >= expireAfterAccessNanos);
+    }
+
+    /** @return the {@link System#nanoTime()} at which the node expires */
+    private long deadlineOf(Node<K, V> node) {
+        long deadline = Long.MAX_VALUE;
+
+        if (expireAfterWriteNanos > 0) {
+            deadline = node.writeTime + expireAfterWriteNanos;
+        }
+        if (expireAfterAccessNanos > 0) {
+            deadline = Math.min(deadline, node.accessTime + expireAfterAccessNanos);
+        }
+
+        return deadline;
+    }
+
+    /** Schedules a check of the node's deadline. Requires the policy lock. */
+    private void scheduleExpiry(Node<K, V> node, long delayNanos) {
+        node.expiry = Scheduling.TIMER.schedule(() -> expire(node), Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Removes the node if its deadline has passed, or checks again at the
+     * current deadline if it was written or read since it was scheduled.
+     */
+    private void expire(Node<K, V> node) {
+        policyLock.lock();
+
+        try {
+            if (node.queue == DEAD) {
+                return;
+            }
+
+            long now = System.nanoTime();
+
+            if (isExpired(node, now)) {
+                evict(node);
+            } else {
+                scheduleExpiry(node, deadlineOf(node) - now);
+            }
+        } finally {
+            unlockPolicy();
+        }
+    }
+
+    /**
+     * Reloads an entry on a background thread unless a reload is already
+     * running. The result is dropped if the entry was removed or written in
+     * the meantime, since it may then be older than the cached value.
+     */
+    private void refresh(Node<K, V> node) {
+        CacheLoader<? super K, ? extends V> loader = node.loader;
+
+        if (loader == null || refreshing.putIfAbsent(node.key, node) != null) {
+            return;
+        }
+
+        long writeTime = node.writeTime;
+
+        try {
+            Scheduling.REFRESHER.execute(() -> {
+                try {
+                    V value = loader.load(node.key);
+                    Node<K, V> current = data.computeIfPresent(node.key, (k, existing) -> {
+                        if (existing != node || node.writeTime != writeTime) {
+                            return existing;
+                        }
+                        if (value != null) {
+                            node.value = value;
+                            node.writeTime = System.nanoTime();
+                            return node;
+                        }
+                        return null;
+                    });
+
+                    if (current == null) {
+                        afterWrite(() -> unlink(node));
+                    }
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Failed to refresh cache entry " + node.key, e);
+                } finally {
+                    refreshing.remove(node.key, node);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(node.key, node);
+        }
+    }
+
+    /**
+     * Moves window overflow into probation and, while the cache is over
+     * capacity, lets each such candidate compete with the eldest probation
+     * entry. Requires the policy lock.
+     */
+    private void evict() {
+        while (window.size > windowMaximum) {
+            Node<K, V> candidate = window.eldest();
+            window.remove(candidate);
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+
+            if (weight() > maximum) {
+                Node<K, V> victim = probation.eldest();
+
+                if (victim != candidate && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                    evict(victim);
+                } else {
+                    evict(candidate);
+                }
+            }
+        }
+
+        while (weight() > maximum) {
+            Node<K, V> victim = probation.eldest();
+            if (victim == null) {
+                victim = protectedSegment.eldest() != null ? protectedSegment.eldest() : window.eldest();
+            }
+            evict(victim);
+        }
+    }
+
+    /** @return the number of entries in the policy lists. Requires the policy lock. */
+    private int weight() {
+        return window.size + probation.size + protectedSegment.size;
+    }
+
+    private void evict(Node<K, V> node) {
+        data.remove(node.key, node);
+        unlink(node);
+    }
+}
@@ -0,0 +1,142 @@
+package app.apollo.server;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Timeline of one sampled remote call.
+ * <p>
+ * A trace is filled by the thread serving the call and handed to the
+ * {@link Tracer} buffer when the call returns, after which it no longer
+ * changes. Spans are stored when they end, with their start time, so nesting
+ * is reconstructed from the times when the trace is printed.
+ * </p>
+ */
+public final class Trace {
+
+    /** Largest number of spans kept per trace; later spans are only counted */
+    static final int MAX_SPANS = 256;
+
+    private final long id;
+
+    private final String name;
+
+    private final String thread;
+
+    private final long startMillis;
+
+    private final long startNanos;
+
+    private long durationNanos;
+
+    private boolean failed;
+
+    private String[] spanNames = new String[16];
+
+    private long[] spanStarts = new long[16];
+
+    private long[] spanDurations = new long[16];
+
+    private boolean[] spanFailures = new boolean[16];
+
+    private int spanCount;
+
+    private int droppedSpans;
+
+    Trace(long id, String name, long startNanos) {
+        this.id = id;
+        this.name = name;
+        this.thread = Thread.currentThread().getName();
+        this.startMillis = System.currentTimeMillis();
+        this.startNanos = startNanos;
+    }
+
+    void addSpan(String spanName, long spanStartNanos, long spanDurationNanos, boolean spanFailed) {
+        if (spanCount == MAX_SPANS) {
+            droppedSpans++;
+            return;
+        }
+
+        if (spanCount == spanNames.length) {
+            int capacity = Math.min(MAX_SPANS, spanCount * 2);
+            spanNames = Arrays.copyOf(spanNames, capacity);
+            spanStarts = Arrays.copyOf(spanStarts, capacity);
+            spanDurations = Arrays.copyOf(spanDurations, capacity);
+            spanFailures = Arrays.copyOf(spanFailures, capacity);
+        }
+
+        spanNames[spanCount] = spanName;
+        spanStarts[spanCount] = spanStartNanos - startNanos;
+        spanDurations[spanCount] = spanDurationNanos;
+        spanFailures[spanCount] = spanFailed;
+        spanCount++;
+    }
+
+    void finish(long endNanos, boolean callFailed) {
+        this.durationNanos = endNanos - startNanos;
+        this.failed = callFailed;
+    }
+
+    /** @return the identifier of the trace */
+    public long getId() {
+        return id;
+    }
+
+    /** @return the name of the traced call */
+    public String getName() {
+        return name;
+    }
+
+    /** @return the duration of the call in nanoseconds */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /** @return whether the call ended with an exception */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Prints the trace with one line per span, indented below the spans
+     * that contain it.
+     *
+     * @param target Receives the lines.
+     */
+    public void appendTo(StringBuilder target) {
+        target.append(String.format("trace %016x %s %.3f ms%s at %s on %s%n", id, name, durationNanos / 1e6,
+                failed ? " FAILED" : "", Instant.ofEpochMilli(startMillis), thread));
+
+        Integer[] order = new Integer[spanCount];
+        for (int i = 0; i < spanCount; i++) {
+            order[i] = i;
+        }
+
+        Arrays.sort(order, (a, b) -> spanStarts[a] != spanStarts[b] ? Long.compare(spanStarts[a], spanStarts[b])
+                : Long.compare(spanDurations[b], spanDurations[a]));
+
+        Deque<Long> enclosingEnds = new ArrayDeque<>();
+
+        for (int span : order) {
+            while (!enclosingEnds.isEmpty() && enclosingEnds.peek() <= spanStarts[span]) {
+                enclosingEnds.pop();
+            }
+
+            StringBuilder indent = new StringBuilder("  ");
+            for (int i = 0; i < enclosingEnds.size(); i++) {
+                indent.append("  ");
+            }
+
+            target.append(String.format("%s+%.3f ms %.3f ms %s%s%n", indent, spanStarts[span] / 1e6,
+                    spanDurations[span] / 1e6, spanNames[span], spanFailures[span] ? " FAILED" : ""));
+
+            enclosingEnds.push(spanStarts[span] + spanDurations[span]);
+        }
+
+        if (droppedSpans > 0) {
+            target.append(String.format("  ... %d more spans%n", droppedSpans));
+        }
+    }
+}
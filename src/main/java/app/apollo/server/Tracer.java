@@ -0,0 +1,190 @@
+package app.apollo.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Sampled in-process tracing of remote calls.
+ * <p>
+ * A sampled call gets a {@link Trace} bound to the thread serving it. Every
+ * {@link OperationTimer} that completes on that thread while the call runs
+ * adds a span, so a trace breaks a call down into the same database, disk
+ * and lock waits that {@link Metrics} aggregates, plus the SQL statements the
+ * call executed. Calls that are not sampled only pay for a thread-local
+ * lookup per timed operation.
+ * </p>
+ * <p>
+ * Completed traces go to a fixed-size ring buffer that keeps the most recent
+ * ones. The buffer is dumped on demand through the MBean
+ * {@code app.apollo:type=Tracer}. The sample rate is read from the system
+ * property {@code mneme.trace.sample} (default 0.01) and the buffer size from
+ * {@code mneme.trace.buffer} (default 1024).
+ * </p>
+ */
+public final class Tracer implements TracerMBean {
+
+    private static final Logger logger = Logger.getLogger(Tracer.class.getName());
+
+    /** Default share of remote calls that are traced */
+    static final double DEFAULT_SAMPLE_RATE = 0.01;
+
+    /** Default number of completed traces kept */
+    static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /** Longest SQL prefix used as a span name */
+    static final int MAX_STATEMENT_LENGTH = 80;
+
+    private static final Tracer instance = new Tracer(
+            Double.parseDouble(System.getProperty("mneme.trace.sample", String.valueOf(DEFAULT_SAMPLE_RATE))),
+            Integer.getInteger("mneme.trace.buffer", DEFAULT_BUFFER_SIZE));
+
+    private static final ThreadLocal<Trace> current = new ThreadLocal<>();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(instance,
+                    new ObjectName(Metrics.DOMAIN + ":type=Tracer"));
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Failed to publish the tracer", e);
+        }
+    }
+
+    private final AtomicReferenceArray<Trace> buffer;
+
+    /** Number of traces ever added to the buffer */
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong nextId = new AtomicLong(ThreadLocalRandom.current().nextLong());
+
+    private volatile double sampleRate;
+
+    private Tracer(double sampleRate, int bufferSize) {
+        this.sampleRate = sampleRate;
+        this.buffer = new AtomicReferenceArray<>(Math.max(1, bufferSize));
+    }
+
+    /** @return the tracer of this process */
+    public static Tracer getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts a trace for a remote call on the current thread if the call is
+     * sampled and no trace is running yet.
+     *
+     * @param name       Name of the call.
+     * @param startNanos Value of {@link System#nanoTime()} when it started.
+     * @return {@code true} if a trace was started and must be finished with
+     *         {@link #finish(long, boolean)}.
+     */
+    static boolean start(String name, long startNanos) {
+        double rate = instance.sampleRate;
+
+        if (rate <= 0 || current.get() != null || ThreadLocalRandom.current().nextDouble() >= rate) {
+            return false;
+        }
+
+        current.set(new Trace(instance.nextId.getAndIncrement(), name, startNanos));
+        return true;
+    }
+
+    /**
+     * Adds a completed span to the trace of the current thread, if any.
+     *
+     * @param name       Name of the span.
+     * @param startNanos Value of {@link System#nanoTime()} when it started.
+     * @param endNanos   Value of {@link System#nanoTime()} when it ended.
+     * @param failed     Whether the span ended with an exception.
+     */
+    static void span(String name, long startNanos, long endNanos, boolean failed) {
+        Trace trace = current.get();
+
+        if (trace != null) {
+            trace.addSpan(name, startNanos, endNanos - startNanos, failed);
+        }
+    }
+
+    /** @return whether the current thread is running a trace */
+    static boolean isTracing() {
+        return current.get() != null;
+    }
+
+    /**
+     * Names a span after an SQL statement.
+     *
+     * @param sql Statement text.
+     * @return The shortened statement.
+     */
+    static String statementName(String sql) {
+        String compact = sql.trim().replaceAll("\\s+", " ");
+        return "sql " + (compact.length() > MAX_STATEMENT_LENGTH ? compact.substring(0, MAX_STATEMENT_LENGTH) + "..."
+                : compact);
+    }
+
+    /**
+     * Completes the trace of the current thread and buffers it.
+     *
+     * @param endNanos Value of {@link System#nanoTime()} when the call ended.
+     * @param failed   Whether the call ended with an exception.
+     */
+    static void finish(long endNanos, boolean failed) {
+        Trace trace = current.get();
+
+        if (trace == null) {
+            return;
+        }
+
+        current.remove();
+        trace.finish(endNanos, failed);
+
+        long slot = instance.completed.getAndIncrement();
+        instance.buffer.set((int) (slot % instance.buffer.length()), trace);
+    }
+
+    @Override
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public void setSampleRate(double sampleRate) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1.");
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    @Override
+    public String dump() {
+        return dumpSlowerThan(0);
+    }
+
+    @Override
+    public String dumpSlowerThan(double minMillis) {
+        StringBuilder dump = new StringBuilder();
+        long end = completed.get();
+        long minNanos = (long) (minMillis * 1e6);
+
+        for (long slot = Math.max(0, end - buffer.length()); slot < end; slot++) {
+            Trace trace = buffer.get((int) (slot % buffer.length()));
+
+            if (trace != null && trace.getDurationNanos() >= minNanos) {
+                trace.appendTo(dump);
+            }
+        }
+
+        return dump.toString();
+    }
+}
@@ -0,0 +1,31 @@
+package app.apollo.server;
+
+/**
+ * Management interface of the {@link Tracer}.
+ */
+public interface TracerMBean {
+
+    /** @return the share of remote calls that are traced, between 0 and 1 */
+    public double getSampleRate();
+
+    /** @param sampleRate Share of remote calls to trace, between 0 and 1. */
+    public void setSampleRate(double sampleRate);
+
+    /** @return the number of traces completed since the start */
+    public long getCompletedCount();
+
+    /**
+     * Prints the buffered traces.
+     *
+     * @return The traces, oldest first.
+     */
+    public String dump();
+
+    /**
+     * Prints the buffered traces that took at least a given time.
+     *
+     * @param minMillis Shortest duration of a printed trace.
+     * @return The traces, oldest first.
+     */
+    public String dumpSlowerThan(double minMillis);
+}
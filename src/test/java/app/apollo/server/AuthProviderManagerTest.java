@@ -0,0 +1,67 @@
+package app.apollo.server;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import app.apollo.common.Session;
+
+class AuthProviderManagerTest {
+
+    private static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path directory;
+
+    private AuthProviderManager manager;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        SQLiteDAOFactory factory = new SQLiteDAOFactory(TestDatabase.create(directory), new SQLitePoolConfig());
+        manager = new AuthProviderManager(factory,
+                new SignedTokenCodec(SECRET, AuthProviderManager.SESSION_TTL));
+
+        assertTrue(manager.register("alice", "secret"));
+    }
+
+    @Test
+    void loggedOutTokensAreRejected() {
+        Session session = manager.login("alice", "secret");
+        assertNotNull(session);
+        assertTrue(manager.validateToken(session.getToken()));
+
+        manager.logout(session.getToken());
+
+        assertFalse(manager.validateToken(session.getToken()));
+        assertNull(manager.login(session.getToken()));
+    }
+
+    @Test
+    void paddedVariantOfRevokedTokenIsRejected() {
+        String token = manager.login("alice", "secret").getToken();
+
+        manager.logout(token);
+
+        String padded = SignedTokenCodecTest.padded(token);
+        assertFalse(manager.validateToken(padded));
+        assertNull(manager.login(padded));
+    }
+
+    @Test
+    void otherSessionsSurviveLogout() {
+        String first = manager.login("alice", "secret").getToken();
+        String second = manager.login("alice", "secret").getToken();
+
+        manager.logout(first);
+
+        assertTrue(manager.validateToken(second));
+    }
+}
@@ -0,0 +1,72 @@
+package app.apollo.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import app.apollo.common.CrypticEngine;
+
+class CachingBlockStoreTest {
+
+    @TempDir
+    Path root;
+
+    private BlockStore delegate;
+
+    private CachingBlockStore store;
+
+    private final byte[] data = new byte[4096];
+
+    private String key;
+
+    @BeforeEach
+    void setUp() {
+        Arrays.fill(data, (byte) 7);
+        key = CrypticEngine.contentHash(data, data.length);
+        delegate = new ContentAddressedBlockStore(root);
+        store = new CachingBlockStore(delegate, new OffHeapBlockCache(1024 * 1024));
+    }
+
+    @Test
+    void readsAreServedFromTheCache() throws IOException {
+        store.put(key, data);
+        assertArrayEquals(data, store.get(key));
+
+        delegate.delete(key);
+
+        assertArrayEquals(data, store.get(key));
+    }
+
+    @Test
+    void cachedCopyDoesNotVouchForStoredPayload() throws IOException {
+        store.put(key, data);
+        store.get(key);
+
+        // A read that raced with reclaiming the payload left it in the cache
+        delegate.delete(key);
+
+        assertFalse(store.contains(key));
+        assertTrue(store.put(key, data));
+        assertTrue(delegate.contains(key));
+    }
+
+    @Test
+    void deleteDropsCachedCopy() throws IOException {
+        store.put(key, data);
+        store.get(key);
+
+        assertTrue(store.delete(key));
+
+        assertFalse(store.contains(key));
+        assertThrows(IOException.class, () -> store.get(key));
+    }
+}
@@ -0,0 +1,58 @@
+package app.apollo.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import app.apollo.common.CrypticEngine;
+
+class ContentAddressedBlockStoreTest {
+
+    @TempDir
+    Path root;
+
+    private static String keyOf(byte[] data) {
+        return CrypticEngine.contentHash(data, data.length);
+    }
+
+    private long stagedFiles() throws IOException {
+        try (Stream<Path> files = Files.list(root.resolve("tmp"))) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void forcedPutsStorePayloadsInPlace() throws IOException {
+        BlockStore store = new ContentAddressedBlockStore(root, null, true);
+        byte[] first = { 1, 2, 3 };
+        byte[] second = { 4, 5, 6 };
+
+        assertTrue(store.put(keyOf(first), first));
+        assertTrue(store.put(keyOf(second), second));
+        assertFalse(store.put(keyOf(first), first));
+
+        assertArrayEquals(first, store.get(keyOf(first)));
+        assertArrayEquals(second, store.get(keyOf(second)));
+        assertEquals(0, stagedFiles());
+    }
+
+    @Test
+    void unforcedPutsStorePayloadsInPlace() throws IOException {
+        BlockStore store = new ContentAddressedBlockStore(root, null, false);
+        byte[] data = { 7, 8, 9 };
+
+        assertTrue(store.put(keyOf(data), data));
+
+        assertEquals(3, store.size(keyOf(data)));
+        assertEquals(0, stagedFiles());
+    }
+}
@@ -0,0 +1,104 @@
+package app.apollo.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import app.apollo.common.Block;
+
+class DBFileBlockDAOTest {
+
+    private static final int USER_ID = 1;
+
+    @TempDir
+    Path dir;
+
+    private SQLiteConnectionPool pool;
+
+    private DBFileBlockDAO dao;
+
+    @BeforeEach
+    void setUp() throws IOException, SQLException {
+        pool = new SQLiteConnectionPool(TestDatabase.create(dir));
+        dao = new DBFileBlockDAO(pool);
+
+        execute("INSERT INTO users (id, username, password) VALUES (1, 'alice', 'secret')");
+        execute("INSERT INTO metadata (id, filename, owner_id, path, block_count) VALUES (1, 'short', 1, 'p1', 0)");
+        execute("INSERT INTO metadata (id, filename, owner_id, path, block_count) VALUES (2, 'long', 1, 'p2', 0)");
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        pool.close();
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = pool.getWriter();
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    private static List<Block> blocks(int metadataId, int count) {
+        List<Block> blocks = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            Block block = new Block();
+            block.setUserId(USER_ID);
+            block.setMetadataId(metadataId);
+            block.setSequenceNumber((long) i);
+            block.setSize(4);
+            block.setChecksum("c" + i);
+            block.setFingerprint("f" + i);
+            block.setContentHash("h" + i);
+            block.setData(new byte[] { 1, 2, 3, 4 });
+            blocks.add(block);
+        }
+
+        return blocks;
+    }
+
+    @Test
+    void shortChecksumListsAreCached() throws SQLException {
+        dao.insertAll(blocks(1, 3));
+        assertEquals(3, dao.findChecksumByUserAndFilename(USER_ID, 1).size());
+
+        execute("DELETE FROM blocks WHERE metadata_id = 1");
+
+        assertEquals(3, dao.findChecksumByUserAndFilename(USER_ID, 1).size());
+    }
+
+    @Test
+    void longChecksumListsAreNotCached() throws SQLException {
+        dao.insertAll(blocks(2, DBFileBlockDAO.MAX_CACHED_CHECKSUMS + 1));
+        assertEquals(DBFileBlockDAO.MAX_CACHED_CHECKSUMS + 1, dao.findChecksumByUserAndFilename(USER_ID, 2).size());
+
+        execute("DELETE FROM blocks WHERE metadata_id = 2");
+
+        assertEquals(0, dao.findChecksumByUserAndFilename(USER_ID, 2).size());
+    }
+
+    @Test
+    void cachedRowsDoNotHoldPayloads() {
+        List<Block> inserted = blocks(1, 1);
+        dao.insertAll(inserted);
+        inserted.get(0).setChecksum("changed");
+
+        Block cached = dao.findByUserFilenameAndBlock(USER_ID, 1, 0L);
+
+        assertNull(cached.getData());
+        assertEquals("c0", cached.getChecksum());
+    }
+}
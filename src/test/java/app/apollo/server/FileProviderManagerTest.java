@@ -0,0 +1,162 @@
+package app.apollo.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import app.apollo.common.Block;
+import app.apollo.common.BlockCodec;
+import app.apollo.common.CrypticEngine;
+
+class FileProviderManagerTest {
+
+    private static final int USER_ID = 1;
+
+    private static final String FILENAME = "notes.txt";
+
+    private static final int BLOCK_SIZE = 1024;
+
+    @TempDir
+    Path directory;
+
+    private SQLiteDAOFactory factory;
+
+    private BlockStore blockStore;
+
+    /** Key whose next put fails, or {@code null} */
+    private volatile String failingKey;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        factory = new SQLiteDAOFactory(TestDatabase.create(directory), new SQLitePoolConfig());
+        assertTrue(new AuthProviderManager(factory).register("alice", "secret"));
+
+        blockStore = new ContentAddressedBlockStore(directory.resolve("blocks")) {
+            @Override
+            public boolean put(String key, byte[] data) throws IOException {
+                if (key.equals(failingKey)) {
+                    throw new IOException("Disk full");
+                }
+                return super.put(key, data);
+            }
+        };
+    }
+
+    private static byte[] payload(int seed) {
+        byte[] data = new byte[BLOCK_SIZE];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static Block block(long sequence, byte[] data) {
+        Block block = new Block();
+        block.setSequenceNumber(sequence);
+        block.setData(data.clone());
+        block.setSize(data.length);
+        block.setCodec(BlockCodec.RAW);
+        block.setChecksum(CrypticEngine.contentHash(data, data.length));
+        block.setFingerprint("f" + sequence);
+        return block;
+    }
+
+    private static String hash(byte[] data) {
+        return CrypticEngine.contentHash(data, data.length);
+    }
+
+    @Test
+    void failedPayloadWriteKeepsPreviousBlocks() throws IOException {
+        FileProviderManager manager = new FileProviderManager(factory, blockStore);
+        byte[] original = payload(1);
+        byte[] replacement = payload(2);
+        byte[] appended = payload(3);
+
+        assertTrue(manager.uploadBlocks(USER_ID, FILENAME, Collections.singletonList(block(0, original))));
+
+        failingKey = hash(appended);
+        List<Block> batch = Arrays.asList(block(0, replacement), block(1, appended));
+
+        assertThrows(IOException.class, () -> manager.uploadBlocks(USER_ID, FILENAME, batch));
+
+        assertArrayEquals(original, manager.downloadBlock(USER_ID, FILENAME, 0).getData());
+        assertTrue(blockStore.contains(hash(original)));
+        assertFalse(blockStore.contains(hash(replacement)));
+        assertFalse(blockStore.contains(hash(appended)));
+    }
+
+    @Test
+    void downloadsNeverSeeReclaimedPayloads() throws Exception {
+        FileProviderManager manager = new FileProviderManager(factory, blockStore);
+        byte[][] versions = { payload(1), payload(2) };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        assertTrue(manager.uploadBlocks(USER_ID, FILENAME, Collections.singletonList(block(0, versions[0]))));
+
+        try {
+            Future<?> uploads = executor.submit(() -> {
+                for (int i = 1; i <= 200; i++) {
+                    manager.uploadBlocks(USER_ID, FILENAME, Collections.singletonList(block(0, versions[i % 2])));
+                }
+                return null;
+            });
+
+            while (!uploads.isDone()) {
+                assertNotNull(manager.downloadBlock(USER_ID, FILENAME, 0));
+                assertEquals(1, manager.downloadBlocks(USER_ID, FILENAME, 0, 1).size());
+            }
+
+            uploads.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void parallelUploadsLeaveOnlyTheStoredPayload() throws Exception {
+        FileProviderManager manager = new FileProviderManager(factory, blockStore);
+        int uploaders = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(uploaders);
+
+        try {
+            for (int round = 0; round < 20; round++) {
+                Future<?>[] uploads = new Future<?>[uploaders];
+
+                for (int i = 0; i < uploaders; i++) {
+                    Block block = block(0, payload(round * uploaders + i));
+                    uploads[i] = executor.submit(
+                            () -> manager.uploadBlocks(USER_ID, FILENAME, Collections.singletonList(block)));
+                }
+
+                for (Future<?> upload : uploads) {
+                    upload.get(10, TimeUnit.SECONDS);
+                }
+
+                String stored = manager.downloadBlock(USER_ID, FILENAME, 0).getContentHash();
+
+                for (int i = 0; i < uploaders; i++) {
+                    String contentHash = hash(payload(round * uploaders + i));
+                    assertEquals(contentHash.equals(stored), blockStore.contains(contentHash));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package app.apollo.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import app.apollo.common.Block;
+
+class GroupCommitFileBlockDAOTest {
+
+    private static final int USER_ID = 1;
+
+    @TempDir
+    Path dir;
+
+    private SQLiteConnectionPool pool;
+
+    private final AtomicInteger commits = new AtomicInteger();
+
+    private final CountDownLatch committing = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private DBFileBlockDAO delegate;
+
+    @BeforeEach
+    void setUp() throws IOException, SQLException {
+        pool = new SQLiteConnectionPool(TestDatabase.create(dir));
+        delegate = new DBFileBlockDAO(pool) {
+            @Override
+            public boolean insertAll(List<Block> blocks, Collection<String> replaced) {
+                if (commits.incrementAndGet() == 1) {
+                    committing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.insertAll(blocks, replaced);
+            }
+        };
+
+        try (Connection connection = pool.getWriter();
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO users (id, username, password) VALUES (1, 'alice', 'secret')");
+            statement.executeUpdate(
+                    "INSERT INTO metadata (id, filename, owner_id, path, block_count) VALUES (1, 'f', 1, 'p', 0)");
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        pool.close();
+    }
+
+    private static List<Block> blocks(long sequence) {
+        Block block = new Block();
+        block.setUserId(USER_ID);
+        block.setMetadataId(1);
+        block.setSequenceNumber(sequence);
+        block.setSize(4);
+        block.setChecksum("c" + sequence);
+        block.setFingerprint("f" + sequence);
+        block.setContentHash("h" + sequence);
+        block.setData(new byte[] { 1, 2, 3, 4 });
+
+        List<Block> blocks = new ArrayList<>();
+        blocks.add(block);
+        return blocks;
+    }
+
+    @Test
+    void insertIntoAnIdleWriterIsNotDelayedByTheWindow() {
+        release.countDown();
+
+        try (GroupCommitFileBlockDAO dao = new GroupCommitFileBlockDAO(delegate, 10, TimeUnit.SECONDS, 100)) {
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertTrue(dao.insertAll(blocks(0))));
+        }
+    }
+
+    @Test
+    void insertsQueuedDuringACommitShareTheNextOne() throws Exception {
+        try (GroupCommitFileBlockDAO dao = new GroupCommitFileBlockDAO(delegate, 1, TimeUnit.MILLISECONDS, 100)) {
+            Thread first = new Thread(() -> dao.insertAll(blocks(0)));
+            first.start();
+            assertTrue(committing.await(5, TimeUnit.SECONDS));
+
+            Thread second = new Thread(() -> dao.insertAll(blocks(1)));
+            Thread third = new Thread(() -> dao.insertAll(blocks(2)));
+            second.start();
+            third.start();
+
+            while (second.getState() != Thread.State.WAITING || third.getState() != Thread.State.WAITING) {
+                Thread.sleep(10);
+            }
+
+            release.countDown();
+            first.join(5_000);
+            second.join(5_000);
+            third.join(5_000);
+        }
+
+        assertEquals(2, commits.get());
+        assertEquals(3, delegate.findChecksumByUserAndFilename(USER_ID, 1).size());
+    }
+}
@@ -0,0 +1,136 @@
+package app.apollo.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SQLiteConnectionPoolTest {
+
+    @TempDir
+    Path directory;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static int countUsers(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM users")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private static void addUser(Connection connection, String username) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO users (username, password) VALUES ('" + username + "', 'x')");
+        }
+    }
+
+    @Test
+    void sharedReadersWaitForTheOpenTransaction() throws Exception {
+        try (SQLiteConnectionPool pool = new SQLiteConnectionPool(TestDatabase.create(directory))) {
+            Future<Integer> read;
+
+            try (Connection writer = pool.getWriter()) {
+                writer.setAutoCommit(false);
+                addUser(writer, "alice");
+
+                read = executor.submit(() -> {
+                    try (Connection reader = pool.getReader()) {
+                        return countUsers(reader);
+                    }
+                });
+
+                assertThrows(TimeoutException.class, () -> read.get(200, TimeUnit.MILLISECONDS));
+
+                writer.rollback();
+                writer.setAutoCommit(true);
+            }
+
+            assertEquals(0, read.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void sharedWritersMayReadInsideTheirTransaction() throws Exception {
+        try (SQLiteConnectionPool pool = new SQLiteConnectionPool(TestDatabase.create(directory));
+                Connection writer = pool.getWriter()) {
+            writer.setAutoCommit(false);
+            addUser(writer, "alice");
+
+            try (Connection reader = pool.getReader()) {
+                assertEquals(1, countUsers(reader));
+            }
+
+            writer.commit();
+            writer.setAutoCommit(true);
+        }
+    }
+
+    @Test
+    void pooledReadersRunAlongsideTheWriter() throws Exception {
+        try (SQLiteConnectionPool pool = new SQLiteConnectionPool(TestDatabase.create(directory),
+                new SQLitePoolConfig())) {
+            try (Connection writer = pool.getWriter()) {
+                writer.setAutoCommit(false);
+                addUser(writer, "alice");
+
+                Future<Integer> read = executor.submit(() -> {
+                    try (Connection reader = pool.getReader()) {
+                        return countUsers(reader);
+                    }
+                });
+
+                assertEquals(0, read.get(5, TimeUnit.SECONDS));
+
+                writer.commit();
+                writer.setAutoCommit(true);
+            }
+
+            try (Connection reader = pool.getReader()) {
+                assertEquals(1, countUsers(reader));
+            }
+        }
+    }
+
+    @Test
+    void pooledReadersAreReadOnly() throws Exception {
+        try (SQLiteConnectionPool pool = new SQLiteConnectionPool(TestDatabase.create(directory),
+                new SQLitePoolConfig());
+                Connection reader = pool.getReader()) {
+            assertThrows(SQLException.class, () -> addUser(reader, "alice"));
+        }
+    }
+
+    @Test
+    void pooledReadersTimeOutWhenAllAreLeased() throws Exception {
+        SQLitePoolConfig config = new SQLitePoolConfig();
+        config.setReaderCount(1);
+        config.setAcquireTimeoutMillis(50);
+
+        try (SQLiteConnectionPool pool = new SQLiteConnectionPool(TestDatabase.create(directory), config);
+                Connection reader = pool.getReader()) {
+            assertThrows(SQLException.class, pool::getReader);
+            assertFalse(reader.isClosed());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package app.apollo.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import app.apollo.common.Block;
+import app.apollo.common.CrypticEngine;
+
+class SchemaMigrationTest {
+
+    /** Tables of the first release that the migration changes */
+    private static final String[] LEGACY_SCHEMA = {
+            "CREATE TABLE users (id INTEGER PRIMARY KEY AUTOINCREMENT, username TEXT NOT NULL UNIQUE, "
+                    + "password TEXT NOT NULL)",
+            "CREATE TABLE metadata (id INTEGER PRIMARY KEY AUTOINCREMENT, filename TEXT NOT NULL, "
+                    + "owner_id INTEGER NOT NULL, path TEXT NOT NULL UNIQUE, block_count INTEGER NOT NULL, "
+                    + "created_at TEXT NOT NULL DEFAULT (datetime('now')), UNIQUE(owner_id, filename))",
+            "CREATE TABLE blocks (id INTEGER PRIMARY KEY AUTOINCREMENT, metadata_id INTEGER NOT NULL, "
+                    + "user_id INTEGER NOT NULL, sequence_id INTEGER NOT NULL, size INTEGER NOT NULL, "
+                    + "fingerprint TEXT NOT NULL, checksum TEXT NOT NULL, "
+                    + "UNIQUE(user_id, metadata_id, sequence_id))" };
+
+    @TempDir
+    Path directory;
+
+    private SQLiteConnectionPool pool;
+
+    private BlockStore blockStore;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        pool = new SQLiteConnectionPool("jdbc:sqlite:" + directory.resolve("legacy.db"));
+        blockStore = new ContentAddressedBlockStore(directory.resolve("blocks"));
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        pool.close();
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = pool.getWriter();
+                Statement statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    private static byte[] payload(int seed) {
+        byte[] data = new byte[SchemaMigration.LEGACY_BLOCK_SIZE];
+        Arrays.fill(data, (byte) seed);
+        return data;
+    }
+
+    @Test
+    void legacyDatabaseIsMigratedAndPayloadsImported() throws SQLException, IOException {
+        for (String sql : LEGACY_SCHEMA) {
+            execute(sql);
+        }
+
+        Path fileDirectory = directory.resolve("storage").resolve("1").resolve("notes.txt");
+        Files.createDirectories(fileDirectory);
+        Files.write(fileDirectory.resolve("0"), payload(1));
+        Files.write(fileDirectory.resolve("1"), payload(2));
+
+        execute("INSERT INTO users (username, password) VALUES ('alice', 'secret')");
+        execute("INSERT INTO metadata (filename, owner_id, path, block_count, created_at) VALUES ('notes.txt', 1, '"
+                + fileDirectory + "', 3, '2024-01-01T00:00:00')");
+        for (int i = 0; i < 3; i++) {
+            execute("INSERT INTO blocks (metadata_id, user_id, sequence_id, size, fingerprint, checksum) "
+                    + "VALUES (1, 1, " + i + ", 1024, 'f" + i + "', 'c" + i + "')");
+        }
+
+        assertTrue(SchemaMigration.migrate(pool, blockStore));
+        assertFalse(SchemaMigration.migrate(pool, blockStore));
+
+        DBFileBlockDAO blocks = new DBFileBlockDAO(pool);
+        DBFileMetadataDAO metadata = new DBFileMetadataDAO(pool);
+
+        assertEquals(SchemaMigration.LEGACY_BLOCK_SIZE, metadata.findByNameAndOwner("notes.txt", 1).getBlockSize());
+
+        for (int i = 0; i < 2; i++) {
+            Block block = blocks.findByUserFilenameAndBlock(1, 1, (long) i);
+            byte[] data = payload(i + 1);
+
+            assertEquals(CrypticEngine.contentHash(data, data.length), block.getContentHash());
+            assertEquals((long) i * SchemaMigration.LEGACY_BLOCK_SIZE, (long) block.getOffset());
+            assertArrayEquals(data, blockStore.get(block.getContentHash()));
+        }
+
+        assertNull(blocks.findByUserFilenameAndBlock(1, 1, 2L));
+    }
+
+    @Test
+    void currentDatabaseIsLeftAlone() throws SQLException, IOException {
+        pool.close();
+        pool = new SQLiteConnectionPool(TestDatabase.create(directory));
+
+        assertFalse(SchemaMigration.migrate(pool, blockStore));
+    }
+}
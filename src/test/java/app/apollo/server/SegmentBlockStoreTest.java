@@ -0,0 +1,202 @@
+package app.apollo.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SegmentBlockStoreTest {
+
+    private static final int PAYLOAD_SIZE = 200;
+
+    /** Size of a record with a two-character key and a standard payload */
+    private static final int RECORD_SIZE = SegmentBlockStore.HEADER_SIZE + 2 + PAYLOAD_SIZE;
+
+    /** Size of a tombstone with a two-character key */
+    private static final int TOMBSTONE_SIZE = SegmentBlockStore.HEADER_SIZE + 2 + Integer.BYTES;
+
+    /** Segments hold exactly four records */
+    private static final long SEGMENT_SIZE = 4L * RECORD_SIZE;
+
+    @TempDir
+    Path root;
+
+    private SegmentBlockStore open() throws IOException {
+        return new SegmentBlockStore(root, SEGMENT_SIZE, 0.5, null, true);
+    }
+
+    private static byte[] payload(int seed, int size) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) seed);
+        return data;
+    }
+
+    private long totalSize() throws IOException {
+        long total = 0;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, "segment-*.dat")) {
+            for (Path file : files) {
+                total += Files.size(file);
+            }
+        }
+
+        return total;
+    }
+
+    @Test
+    void reopenRestoresPayloadsAndDeletes() throws IOException {
+        try (SegmentBlockStore store = open()) {
+            for (int i = 0; i < 6; i++) {
+                assertTrue(store.put("k" + i, payload(i, PAYLOAD_SIZE)));
+            }
+            assertTrue(store.delete("k1"));
+            assertTrue(store.delete("k4"));
+        }
+
+        try (SegmentBlockStore store = open()) {
+            assertEquals(2, store.getSegmentCount());
+
+            for (int i = 0; i < 6; i++) {
+                if (i == 1 || i == 4) {
+                    assertFalse(store.contains("k" + i));
+                } else {
+                    assertArrayEquals(payload(i, PAYLOAD_SIZE), store.get("k" + i));
+                }
+            }
+        }
+    }
+
+    @Test
+    void tornTailIsCutOff() throws IOException {
+        try (SegmentBlockStore store = open()) {
+            store.put("k0", payload(0, PAYLOAD_SIZE));
+        }
+
+        Path segment = root.resolve("segment-00000001.dat");
+
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            ByteBuffer torn = ByteBuffer.allocate(SegmentBlockStore.HEADER_SIZE + 10);
+            torn.putInt(SegmentBlockStore.RECORD_MAGIC).put(SegmentBlockStore.TYPE_PUT).putShort((short) 2)
+                    .putInt(PAYLOAD_SIZE);
+            torn.rewind();
+            channel.write(torn);
+        }
+
+        try (SegmentBlockStore store = open()) {
+            assertEquals(RECORD_SIZE, Files.size(segment));
+            assertArrayEquals(payload(0, PAYLOAD_SIZE), store.get("k0"));
+            store.put("k1", payload(1, PAYLOAD_SIZE));
+        }
+
+        try (SegmentBlockStore store = open()) {
+            assertArrayEquals(payload(0, PAYLOAD_SIZE), store.get("k0"));
+            assertArrayEquals(payload(1, PAYLOAD_SIZE), store.get("k1"));
+        }
+    }
+
+    @Test
+    void compactionKeepsLivePayloadsAndDeletes() throws IOException {
+        try (SegmentBlockStore store = open()) {
+            for (int i = 0; i < 8; i++) {
+                store.put("k" + i, payload(i, PAYLOAD_SIZE));
+            }
+            for (int i = 0; i < 7; i++) {
+                store.delete("k" + i);
+            }
+
+            assertEquals(2, store.compact());
+            assertArrayEquals(payload(7, PAYLOAD_SIZE), store.get("k7"));
+            assertFalse(store.contains("k0"));
+        }
+
+        try (SegmentBlockStore store = open()) {
+            assertArrayEquals(payload(7, PAYLOAD_SIZE), store.get("k7"));
+            for (int i = 0; i < 7; i++) {
+                assertFalse(store.contains("k" + i));
+            }
+        }
+    }
+
+    @Test
+    void activeSegmentIsNeverCompacted() throws IOException {
+        try (SegmentBlockStore store = open()) {
+            store.put("k0", payload(0, PAYLOAD_SIZE));
+            store.put("k1", payload(1, PAYLOAD_SIZE));
+            store.delete("k0");
+
+            assertEquals(0, store.compact());
+            assertArrayEquals(payload(1, PAYLOAD_SIZE), store.get("k1"));
+        }
+    }
+
+    @Test
+    void tombstonesAreDroppedOnceTheirSegmentIsGone() throws IOException {
+        byte[] large = payload(9, (int) SEGMENT_SIZE - 50);
+
+        try (SegmentBlockStore store = open()) {
+            for (int i = 0; i < 4; i++) {
+                store.put("a" + i, payload(i, PAYLOAD_SIZE));
+            }
+            for (int i = 0; i < 4; i++) {
+                store.put("b" + i, payload(i, PAYLOAD_SIZE));
+            }
+            for (int i = 0; i < 4; i++) {
+                store.delete("b" + i);
+            }
+            store.put("c0", large);
+
+            assertEquals(4, store.getSegmentCount());
+            assertEquals(2, store.compact());
+            assertEquals(2, store.getSegmentCount());
+            assertEquals(4L * RECORD_SIZE + SegmentBlockStore.HEADER_SIZE + 2 + large.length, totalSize());
+        }
+
+        try (SegmentBlockStore store = open()) {
+            for (int i = 0; i < 4; i++) {
+                assertArrayEquals(payload(i, PAYLOAD_SIZE), store.get("a" + i));
+                assertFalse(store.contains("b" + i));
+            }
+            assertArrayEquals(large, store.get("c0"));
+        }
+    }
+
+    @Test
+    void tombstonesOfLiveSegmentsAreCarriedForward() throws IOException {
+        try (SegmentBlockStore store = open()) {
+            for (int i = 0; i < 4; i++) {
+                store.put("a" + i, payload(i, PAYLOAD_SIZE));
+            }
+            for (int i = 0; i < 4; i++) {
+                store.put("b" + i, payload(i, PAYLOAD_SIZE));
+            }
+
+            store.delete("a0");
+            store.delete("b0");
+            store.delete("b1");
+            store.delete("b2");
+            store.put("c0", payload(0, (int) SEGMENT_SIZE - TOMBSTONE_SIZE * 4));
+
+            assertEquals(2, store.compact());
+            assertEquals(3, store.getSegmentCount());
+        }
+
+        try (SegmentBlockStore store = open()) {
+            assertFalse(store.contains("a0"));
+            assertArrayEquals(payload(1, PAYLOAD_SIZE), store.get("a1"));
+            assertFalse(store.contains("b0"));
+            assertArrayEquals(payload(3, PAYLOAD_SIZE), store.get("b3"));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package app.apollo.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+
+class SignedTokenCodecTest {
+
+    private static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final SignedTokenCodec codec = new SignedTokenCodec(SECRET, Duration.ofMinutes(5));
+
+    /** Adds the padding the encoder leaves out to both parts of a token */
+    static String padded(String token) {
+        int separator = token.indexOf('.');
+        return pad(token.substring(0, separator)) + "." + pad(token.substring(separator + 1));
+    }
+
+    private static String pad(String part) {
+        StringBuilder padded = new StringBuilder(part);
+        while (padded.length() % 4 != 0) {
+            padded.append('=');
+        }
+        return padded.toString();
+    }
+
+    @Test
+    void issuedTokensVerify() {
+        SignedTokenCodec.Claims claims = codec.verify(codec.issue(42));
+
+        assertNotNull(claims);
+        assertEquals(42, claims.getUserId());
+    }
+
+    @Test
+    void paddedTokensAreRejected() {
+        String token = codec.issue(42);
+
+        // Neither the payload nor the MAC is a multiple of three bytes long
+        assertNotEquals(token, padded(token));
+        assertNotNull(Base64.getUrlDecoder().decode(padded(token).substring(0, padded(token).indexOf('.'))));
+        assertNull(codec.verify(padded(token)));
+    }
+
+    @Test
+    void nonCanonicalTrailingBitsAreRejected() {
+        String token = codec.issue(42);
+        int separator = token.indexOf('.');
+        char last = token.charAt(separator - 1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+        // The last character of the payload carries unused bits; flipping one of them decodes to the same bytes
+        char variant = alphabet.charAt(alphabet.indexOf(last) ^ 1);
+        String altered = token.substring(0, separator - 1) + variant + token.substring(separator);
+
+        assertNull(codec.verify(altered));
+    }
+
+    @Test
+    void forgedTokensAreRejected() {
+        String token = codec.issue(42);
+        SignedTokenCodec other = new SignedTokenCodec("fedcba9876543210fedcba9876543210".getBytes(
+                StandardCharsets.US_ASCII), Duration.ofMinutes(5));
+
+        assertNull(other.verify(token));
+    }
+}
@@ -0,0 +1,40 @@
+package app.apollo.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/** Creates SQLite databases with the schema of {@code schema/schema.sql} for tests. */
+final class TestDatabase {
+
+    private TestDatabase() {
+    }
+
+    /**
+     * Creates an empty database.
+     *
+     * @param directory Directory receiving the database file.
+     * @return The JDBC URL of the database.
+     */
+    static String create(Path directory) throws IOException, SQLException {
+        String url = "jdbc:sqlite:" + directory.resolve("test.db");
+        String schema = new String(Files.readAllBytes(Paths.get("schema", "schema.sql")), StandardCharsets.UTF_8);
+
+        try (Connection connection = DriverManager.getConnection(url);
+                Statement statement = connection.createStatement()) {
+            for (String sql : schema.split(";")) {
+                if (!sql.trim().isEmpty()) {
+                    statement.executeUpdate(sql);
+                }
+            }
+        }
+
+        return url;
+    }
+}
@@ -0,0 +1,122 @@
+package app.apollo.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TinyLfuCacheTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final TinyLfuCache<String, String> cache = new TinyLfuCache<>(100);
+
+    private final CountDownLatch loading = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /** Starts a load of {@code key} that returns {@code value} once released. */
+    private Future<Optional<String>> loadInBackground(String key, String value) throws InterruptedException {
+        Future<Optional<String>> load = executor.submit(() -> cache.get(key, k -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return value;
+        }));
+
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        return load;
+    }
+
+    @Test
+    void loadedValuesAreCached() {
+        assertEquals("v1", cache.get("k", k -> "v1").get());
+        assertEquals("v1", cache.get("k", k -> "v2").get());
+    }
+
+    @Test
+    void loadRacingARemovalIsNotCached() throws Exception {
+        Future<Optional<String>> load = loadInBackground("k", "stale");
+
+        cache.remove("k");
+        release.countDown();
+
+        assertEquals("stale", load.get(5, TimeUnit.SECONDS).get());
+        assertFalse(cache.get("k").isPresent());
+    }
+
+    @Test
+    void loadRacingAPutKeepsThePutValue() throws Exception {
+        Future<Optional<String>> load = loadInBackground("k", "stale");
+
+        cache.put("k", "fresh");
+        release.countDown();
+
+        load.get(5, TimeUnit.SECONDS);
+        assertEquals("fresh", cache.get("k").get());
+    }
+
+    @Test
+    void loadRacingAClearIsNotCached() throws Exception {
+        Future<Optional<String>> load = loadInBackground("k", "stale");
+
+        cache.clear();
+        release.countDown();
+
+        load.get(5, TimeUnit.SECONDS);
+        assertFalse(cache.get("k").isPresent());
+    }
+
+    @Test
+    void concurrentWritesStayWithinCapacity() throws Exception {
+        ExecutorService writers = Executors.newFixedThreadPool(8);
+
+        try {
+            Future<?>[] runs = new Future<?>[8];
+            for (int t = 0; t < runs.length; t++) {
+                runs[t] = writers.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 20_000; i++) {
+                        String key = "k" + random.nextInt(1_000);
+                        if (random.nextInt(4) == 0) {
+                            cache.remove(key);
+                        } else {
+                            cache.put(key, key);
+                        }
+                    }
+                });
+            }
+            for (Future<?> run : runs) {
+                run.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            writers.shutdownNow();
+        }
+
+        assertTrue(cache.size() <= 100);
+        cache.entrySet().forEach(entry -> assertEquals(entry.getKey(), entry.getValue()));
+
+        cache.clear();
+        cache.put("k", "v");
+        assertEquals("v", cache.get("k").get());
+        assertEquals(1, cache.size());
+    }
+}